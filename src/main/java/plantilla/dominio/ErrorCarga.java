@@ -0,0 +1,33 @@
+package plantilla.dominio;
+
+import lombok.Data;
+
+import javax.persistence.*;
+
+/**
+ * Resumen de un tipo de problema de datos en una carga: cuántas veces pasó y
+ * las primeras muestras. Se escribe una vez al terminar la carga (ver
+ * RegistroErroresCarga), no por fila.
+ */
+@Data
+@Entity
+@Table(name = "errores_carga", indexes = {
+        @Index(name = "idx_errores_carga_evento", columnList = "evento_carga_id")
+})
+public class ErrorCarga {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "evento_carga_id", nullable = false)
+    private Long eventoCargaId;
+
+    private String tipo;
+    private Integer columna;           // null = problema de la fila completa
+    private Long cantidad;
+
+    // una muestra por línea: fila \t valor \t detalle
+    @Column(columnDefinition = "text")
+    private String muestras;
+}
@@ -15,7 +15,12 @@ import java.util.List;
 @AllArgsConstructor
 @ToString(exclude = "stocks")
 @Entity
-@Table(name = "eventos_carga")
+@Table(name = "eventos_carga",
+        indexes = {
+                @Index(name = "idx_eventos_carga_hash_contenido", columnList = "hash_contenido"),
+                @Index(name = "idx_eventos_carga_lote", columnList = "lote"),
+                @Index(name = "idx_eventos_carga_evento_padre", columnList = "evento_padre_id")
+        })
 public class EventoCarga {
 
     @Id
@@ -30,12 +35,31 @@ public class EventoCarga {
     private String observaciones;
     private String modulo; // "stock", "pedidos", "caja", etc.
     private String RutaS3;
+    @Column(length = 64)
+    private String hashContenido;      // SHA-256 del archivo, para detectar duplicados
+    private String lote;               // subida por lote (ZIP / varios archivos) a la que pertenece
+    private Long eventoPadreId;        // partición de un archivo consolidado: evento que lo recibió
+    private Boolean cargaHistorica;    // backfill: filas en crudo, diffs recalculados al cerrar el lote
     private Long idStockInicial;       // primer ID generado
     private Long idStockFinal;         // último ID generado
 
     private Integer totalRegistros;
     private Integer procesados;
     private Integer porcentaje;
+    private Integer filasRechazadas;   // filas aisladas en filas_rechazadas; la carga sigue
+    private Integer erroresDatos;      // problemas de celdas/filas resumidos en errores_carga
+
+    // Cola de ingesta: qué nodo la tomó, cuántas veces y cuándo dio señales de vida
+    private String nodo;
+    private Integer intentos;
+    private String rutaLocal;          // archivo en disco del nodo que lo recibió
+    @Column(insertable = false, updatable = false)
+    private LocalDateTime heartbeat;   // sólo lo escribe ColaIngestaService por SQL
+
+    // Checkpoint: última fila del archivo cuyo bloque quedó confirmado.
+    // Se escribe en la misma transacción que el bloque, nunca desde la entidad.
+    @Column(insertable = false, updatable = false)
+    private Integer filaConfirmada;
 
     @ManyToOne
     @JoinColumn(name = "sucursal_id")
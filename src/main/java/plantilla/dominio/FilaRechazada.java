@@ -0,0 +1,41 @@
+package plantilla.dominio;
+
+import lombok.Data;
+
+import javax.persistence.*;
+import java.time.LocalDateTime;
+
+/**
+ * Fila de un archivo de stock que no se pudo escribir. La aísla el reintento
+ * por bisección de StockService (CargaEnCurso.escribirOBisecar): el resto
+ * del bloque se confirma.
+ */
+@Data
+@Entity
+@Table(name = "filas_rechazadas", indexes = {
+        @Index(name = "idx_filas_rechazadas_evento", columnList = "evento_carga_id, numero_fila")
+})
+public class FilaRechazada {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "evento_carga_id", nullable = false)
+    private Long eventoCargaId;
+
+    @Column(name = "numero_fila")
+    private Integer numeroFila;   // fila del archivo (0 = encabezado)
+
+    private Long idDeposito;
+    private String sku;
+    private Integer cantidad;
+
+    @Column(length = 1000)
+    private String datos;         // la fila completa, para revisarla sin el archivo
+
+    @Column(length = 1000)
+    private String error;
+
+    private LocalDateTime fecha;
+}
@@ -0,0 +1,24 @@
+package plantilla.dominio;
+
+import lombok.Data;
+
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import java.time.LocalDateTime;
+
+/**
+ * Nodo de la cola de ingesta y su último heartbeat. Un nodo que deja de
+ * latir no va a terminar sus subidas a S3 ni las cargas cuyo archivo está
+ * en su spool (ver ColaIngestaService.revisarAbandonadas).
+ */
+@Data
+@Entity
+@Table(name = "nodos_ingesta")
+public class NodoIngesta {
+
+    @Id
+    private String nodo;
+
+    private LocalDateTime heartbeat;
+}
@@ -0,0 +1,47 @@
+package plantilla.dominio;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.persistence.*;
+import java.io.Serializable;
+import java.time.LocalDate;
+
+/**
+ * Último stock de cada producto en cada sucursal: el registro de
+ * stock_historico con mayor (fecha_stock, id). Lo mantiene la ingesta en la
+ * misma transacción de cada bloque (ver StockActualRepository), así el stock
+ * vigente se lee sin recorrer toda la historia.
+ */
+@Data
+@Entity
+@IdClass(StockActual.Clave.class)
+@Table(name = "stock_actual", indexes = {
+        @Index(name = "idx_stock_actual_sucursal", columnList = "sucursal_id")
+})
+public class StockActual {
+
+    @Id
+    @Column(name = "producto_id")
+    private Long productoId;
+
+    @Id
+    @Column(name = "sucursal_id")
+    private Long sucursalId;
+
+    private Integer cantidad;
+
+    @Column(name = "stock_historico_id", nullable = false)
+    private Long stockHistoricoId;  // registro de donde sale la cantidad
+
+    private LocalDate fechaStock;   // fecha del último cambio
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Clave implements Serializable {
+        private Long productoId;
+        private Long sucursalId;
+    }
+}
@@ -0,0 +1,58 @@
+package plantilla.dominio;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.persistence.*;
+import java.io.Serializable;
+import java.time.LocalDate;
+
+/**
+ * Stock de cierre semanal (cada domingo) de una sucursal, sumado por
+ * jerarquía de producto. Lo arma StockCheckpointService acumulando
+ * stock_resumen_diario sobre el cierre anterior; el stock a una fecha
+ * cualquiera es el último cierre más los deltas de los días siguientes.
+ * Los niveles sin valor se guardan como '' (igual que en el resumen diario).
+ */
+@Data
+@Entity
+@IdClass(StockCheckpoint.Clave.class)
+@Table(name = "stock_checkpoint", indexes = {
+        @Index(name = "idx_checkpoint_sucursal_fecha", columnList = "sucursal_id, fecha")
+})
+public class StockCheckpoint {
+
+    @Id
+    private LocalDate fecha;
+
+    @Id
+    @Column(name = "sucursal_id")
+    private Long sucursalId;
+
+    @Id
+    private String ambiente;
+
+    @Id
+    private String familia;
+
+    @Id
+    private String nivel3;
+
+    @Id
+    private String nivel4;
+
+    private Long cantidad;
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Clave implements Serializable {
+        private LocalDate fecha;
+        private Long sucursalId;
+        private String ambiente;
+        private String familia;
+        private String nivel3;
+        private String nivel4;
+    }
+}
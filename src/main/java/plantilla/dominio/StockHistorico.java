@@ -6,13 +6,21 @@ import javax.persistence.*;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 
+/**
+ * Particionada por mes de fechaStock (ver ParticionesStockService): en la
+ * base la PK es (id, fecha_stock) y los índices de abajo existen en cada
+ * partición. Las consultas que filtran por fecha_stock sólo leen los meses
+ * del rango. Los índices parciales de los reportes están en
+ * db/migration/V13__indices_reportes.sql.
+ */
 @Data
 @Entity
 @Table(name = "stock_historico", indexes = {
         @Index(name = "idx_stock_fecha", columnList = "fechaStock"),
         @Index(name = "idx_stock_producto", columnList = "producto_id"),
         @Index(name = "idx_stock_sucursal", columnList = "sucursal_id"),
-        @Index(name = "idx_stock_composite", columnList = "fechaStock, sucursal_id, producto_id")
+        @Index(name = "idx_stock_composite", columnList = "fechaStock, sucursal_id, producto_id"),
+        @Index(name = "idx_stock_evento_carga", columnList = "evento_carga_id")
 })
 public class StockHistorico {
 
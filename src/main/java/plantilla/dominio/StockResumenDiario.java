@@ -0,0 +1,59 @@
+package plantilla.dominio;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.persistence.*;
+import java.io.Serializable;
+import java.time.LocalDate;
+
+/**
+ * Movimientos de stock de un día en una sucursal, sumados por jerarquía de
+ * producto. Lo arma StockResumenDiarioService desde stock_historico al
+ * completar cada carga; los reportes de evolución y consumo lo leen en vez
+ * de agrupar la historia en cada consulta.
+ * Los niveles sin valor se guardan como '' (forman parte de la clave).
+ */
+@Data
+@Entity
+@IdClass(StockResumenDiario.Clave.class)
+@Table(name = "stock_resumen_diario", indexes = {
+        @Index(name = "idx_resumen_diario_fecha_sucursal", columnList = "fecha, sucursal_id")
+})
+public class StockResumenDiario {
+
+    @Id
+    private LocalDate fecha;
+
+    @Id
+    @Column(name = "sucursal_id")
+    private Long sucursalId;
+
+    @Id
+    private String ambiente;
+
+    @Id
+    private String familia;
+
+    @Id
+    private String nivel3;
+
+    @Id
+    private String nivel4;
+
+    private Long delta;     // variación neta: cantidad - diffAnterior
+    private Long egresos;   // bajas de stock (consumo)
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Clave implements Serializable {
+        private LocalDate fecha;
+        private Long sucursalId;
+        private String ambiente;
+        private String familia;
+        private String nivel3;
+        private String nivel4;
+    }
+}
@@ -0,0 +1,18 @@
+package plantilla.repositorios;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import plantilla.dominio.ErrorCarga;
+
+import java.util.List;
+
+public interface ErrorCargaRepository extends JpaRepository<ErrorCarga, Long> {
+
+    List<ErrorCarga> findByEventoCargaIdOrderByCantidadDesc(Long eventoCargaId);
+
+    @Modifying
+    @Query(value = "DELETE FROM errores_carga WHERE evento_carga_id = :eventoId", nativeQuery = true)
+    int deleteByEventoCargaId(@Param("eventoId") Long eventoId);
+}
@@ -1,17 +1,56 @@
 package plantilla.repositorios;
 
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 import plantilla.dominio.EventoCarga;
 
 import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
 public interface EventoCargaRepository extends JpaRepository<EventoCarga, Long> {
 
-  boolean existsByNombreArchivo(String nombreArchivo);
+  /** Carga previa con el mismo contenido; las fallidas y revertidas no cuentan */
+  Optional<EventoCarga> findFirstByHashContenidoAndEstadoNotIn(String hashContenido, Collection<String> estados);
+
+  List<EventoCarga> findByEventoPadreIdOrderByIdAsc(Long eventoPadreId);
+
+  List<EventoCarga> findByLoteOrderByIdAsc(String lote);
+
+  /** Archivos del spool que todavía necesita alguna carga */
+  @Query(value = """
+      SELECT ruta_local
+      FROM eventos_carga
+      WHERE ruta_local IS NOT NULL
+        AND estado IN ('SUBIENDO', 'PENDIENTE', 'EN_PROCESO')
+      """, nativeQuery = true)
+  List<String> findRutasLocalesActivas();
+
+  /**
+   * Archivos del spool de cargas fallidas: se pueden reanudar o reprocesar,
+   * así que la limpieza no los borra por cuota, sólo al vencer la retención.
+   */
+  @Query(value = """
+      SELECT ruta_local
+      FROM eventos_carga
+      WHERE ruta_local IS NOT NULL
+        AND estado = 'FALLIDO'
+      """, nativeQuery = true)
+  List<String> findRutasLocalesFallidas();
+
+  /** Objetos de S3 cuya copia en el spool todavía puede usar alguna carga */
+  @Query(value = """
+      SELECT DISTINCT ruta_s3
+      FROM eventos_carga
+      WHERE ruta_s3 IS NOT NULL
+        AND estado IN ('SUBIENDO', 'PENDIENTE', 'EN_PROCESO')
+      """, nativeQuery = true)
+  List<String> findRutasS3Activas();
 
   @Query("""
       SELECT MAX(e.fechaArchivo)
@@ -23,6 +62,212 @@ public interface EventoCargaRepository extends JpaRepository<EventoCarga, Long>
 
   boolean existsByEstado(String enProceso);
 
+  boolean existsByLoteAndEstadoIn(String lote, Collection<String> estados);
+
+  /**
+   * ¿Hay otra carga de la sucursal en alguno de los estados dados que choque
+   * con una carga de este tipo? Las cargas históricas no chocan entre sí (el
+   * orden lo resuelve el recálculo del lote); con una carga normal chocan
+   * todas.
+   */
+  @Query(value = """
+      SELECT EXISTS (
+          SELECT 1
+          FROM eventos_carga
+          WHERE sucursal_id = :sucursalId
+            AND estado IN (:estados)
+            AND id <> :excluirId
+            AND (:historica = false OR carga_historica IS NOT TRUE))
+      """, nativeQuery = true)
+  boolean existeCargaEnConflicto(
+      @Param("sucursalId") Long sucursalId,
+      @Param("estados") Collection<String> estados,
+      @Param("excluirId") Long excluirId,
+      @Param("historica") boolean historica);
+
+  @Query(value = """
+      SELECT id
+      FROM eventos_carga
+      WHERE lote = :lote
+        AND carga_historica = true
+      ORDER BY id
+      """, nativeQuery = true)
+  List<Long> findIdsHistoricosByLote(@Param("lote") String lote);
+
+  /** Partición ya creada de un archivo consolidado (al reanudar se reutiliza) */
+  Optional<EventoCarga> findFirstByEventoPadreIdAndSucursal_Id(Long eventoPadreId, Long sucursalId);
+
+  // ===== COLA DE INGESTA =====
+
+  /**
+   * Próxima carga pendiente que este nodo puede tomar. SKIP LOCKED deja que
+   * varios nodos reclamen en paralelo sin esperarse. Las cargas con archivo
+   * local sólo las toma el nodo que las recibió. Varias cargas históricas de
+   * una misma sucursal pueden correr juntas.
+   */
+  @Query(value = """
+      SELECT e.*
+      FROM eventos_carga e
+      WHERE e.estado = 'PENDIENTE'
+        AND (e.ruta_local IS NULL OR e.nodo = :nodo)
+        AND NOT EXISTS (
+            SELECT 1 FROM eventos_carga p
+            WHERE p.sucursal_id = e.sucursal_id
+              AND p.estado = 'EN_PROCESO'
+              AND (e.carga_historica IS NOT TRUE OR p.carga_historica IS NOT TRUE))
+      ORDER BY e.id
+      LIMIT 1
+      FOR UPDATE SKIP LOCKED
+      """, nativeQuery = true)
+  Optional<EventoCarga> findSiguientePendiente(@Param("nodo") String nodo);
+
+  /** Las particiones de un consolidado laten con su evento padre */
+  @Modifying
+  @Query(value = """
+      UPDATE eventos_carga
+      SET heartbeat = :ahora
+      WHERE id IN (:ids) OR evento_padre_id IN (:ids)
+      """, nativeQuery = true)
+  int actualizarHeartbeat(
+      @Param("ids") Collection<Long> ids,
+      @Param("ahora") LocalDateTime ahora);
+
+  /**
+   * Cargas EN_PROCESO sin heartbeat reciente (nodo caído o reiniciado) vuelven
+   * a la cola mientras no superen el máximo de intentos. Las particiones no
+   * se encolan solas: las retoma su evento padre.
+   */
+  @Modifying
+  @Query(value = """
+      UPDATE eventos_carga
+      SET estado = 'PENDIENTE'
+      WHERE estado = 'EN_PROCESO'
+        AND evento_padre_id IS NULL
+        AND (heartbeat IS NULL OR heartbeat < :limite)
+        AND COALESCE(intentos, 0) < :maxIntentos
+      """, nativeQuery = true)
+  int reencolarAbandonadas(
+      @Param("limite") LocalDateTime limite,
+      @Param("maxIntentos") int maxIntentos);
+
+  @Modifying
+  @Query(value = """
+      UPDATE eventos_carga
+      SET estado = 'FALLIDO',
+          observaciones = 'Carga abandonada: se agotaron los reintentos'
+      WHERE estado = 'EN_PROCESO'
+        AND evento_padre_id IS NULL
+        AND (heartbeat IS NULL OR heartbeat < :limite)
+        AND COALESCE(intentos, 0) >= :maxIntentos
+      """, nativeQuery = true)
+  int descartarAbandonadas(
+      @Param("limite") LocalDateTime limite,
+      @Param("maxIntentos") int maxIntentos);
+
+  /** Al arrancar, lo que este nodo tenía EN_PROCESO quedó cortado */
+  @Modifying
+  @Query(value = """
+      UPDATE eventos_carga
+      SET estado = 'PENDIENTE'
+      WHERE estado = 'EN_PROCESO'
+        AND evento_padre_id IS NULL
+        AND nodo = :nodo
+      """, nativeQuery = true)
+  int reencolarDelNodo(@Param("nodo") String nodo);
+
+  /**
+   * Subidas a S3 que no terminaron: el nodo que subía dejó de latir o se pasó
+   * el tiempo máximo de subida. Nadie más tiene el archivo para seguirla.
+   */
+  @Modifying
+  @Query(value = """
+      UPDATE eventos_carga e
+      SET estado = 'FALLIDO',
+          observaciones = 'Subida a S3 abandonada: volvé a subir el archivo'
+      WHERE e.estado = 'SUBIENDO'
+        AND (e.fecha < :limiteSubida
+             OR (e.nodo IS NOT NULL
+                 AND NOT EXISTS (
+                     SELECT 1 FROM nodos_ingesta n
+                     WHERE n.nodo = e.nodo
+                       AND n.heartbeat >= :limiteNodo)))
+      """, nativeQuery = true)
+  int descartarSubidasAbandonadas(
+      @Param("limiteSubida") LocalDateTime limiteSubida,
+      @Param("limiteNodo") LocalDateTime limiteNodo);
+
+  /** Al arrancar, las subidas que este nodo tenía a medias quedaron cortadas */
+  @Modifying
+  @Query(value = """
+      UPDATE eventos_carga
+      SET estado = 'FALLIDO',
+          observaciones = 'Subida a S3 cortada por un reinicio: volvé a subir el archivo'
+      WHERE estado = 'SUBIENDO'
+        AND nodo = :nodo
+      """, nativeQuery = true)
+  int descartarSubidasDelNodo(@Param("nodo") String nodo);
+
+  /**
+   * Cargas pendientes con archivo local cuyo nodo dejó de latir: ningún otro
+   * nodo las puede tomar. Quedan FALLIDO y se pueden reanudar cuando el nodo
+   * vuelva (el spool las conserva hasta la retención).
+   */
+  @Modifying
+  @Query(value = """
+      UPDATE eventos_carga e
+      SET estado = 'FALLIDO',
+          observaciones = 'El nodo ' || e.nodo || ' que tiene el archivo no responde: '
+                          || 'reanudala cuando vuelva o subí el archivo de nuevo'
+      WHERE e.estado = 'PENDIENTE'
+        AND e.ruta_local IS NOT NULL
+        AND e.evento_padre_id IS NULL
+        AND NOT EXISTS (
+            SELECT 1 FROM nodos_ingesta n
+            WHERE n.nodo = e.nodo
+              AND n.heartbeat >= :limiteNodo)
+      """, nativeQuery = true)
+  int descartarLocalesSinNodo(@Param("limiteNodo") LocalDateTime limiteNodo);
+
+  /**
+   * Particiones que quedaron EN_PROCESO cuando su evento padre ya no lo está
+   * (nodo caído): pasan a FALLIDO y liberan su sucursal hasta que el padre
+   * vuelva a correr.
+   */
+  @Modifying
+  @Query(value = """
+      UPDATE eventos_carga h
+      SET estado = 'FALLIDO',
+          observaciones = 'Carga cortada: se retoma con el evento ' || h.evento_padre_id
+      WHERE h.estado = 'EN_PROCESO'
+        AND h.evento_padre_id IS NOT NULL
+        AND NOT EXISTS (
+            SELECT 1 FROM eventos_carga p
+            WHERE p.id = h.evento_padre_id
+              AND p.estado = 'EN_PROCESO')
+      """, nativeQuery = true)
+  int liberarParticionesHuerfanas();
+
+  // ===== CHECKPOINTS =====
+
+  /**
+   * Avanza el checkpoint del evento. Se llama dentro de la transacción del
+   * bloque: si el bloque hace rollback, el checkpoint tampoco se mueve.
+   */
+  @Modifying
+  @Query(value = """
+      UPDATE eventos_carga
+      SET fila_confirmada = GREATEST(COALESCE(fila_confirmada, 0), :fila)
+      WHERE id = :id
+      """, nativeQuery = true)
+  int registrarCheckpoint(
+      @Param("id") Long eventoId,
+      @Param("fila") int fila);
+
+  @Transactional
+  @Modifying
+  @Query(value = "UPDATE eventos_carga SET fila_confirmada = NULL WHERE id = :id", nativeQuery = true)
+  int reiniciarCheckpoint(@Param("id") Long eventoId);
+
   /**
    * Query 3: Audit Report - Recent file loads
    * For audit dashboard showing upload compliance
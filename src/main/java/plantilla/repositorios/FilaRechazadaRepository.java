@@ -0,0 +1,19 @@
+package plantilla.repositorios;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import plantilla.dominio.FilaRechazada;
+
+import java.util.List;
+
+public interface FilaRechazadaRepository extends JpaRepository<FilaRechazada, Long> {
+
+    List<FilaRechazada> findByEventoCargaIdOrderByNumeroFilaAsc(Long eventoCargaId);
+
+    /** Al revertir una carga sus rechazos dejan de tener sentido */
+    @Modifying
+    @Query(value = "DELETE FROM filas_rechazadas WHERE evento_carga_id = :eventoId", nativeQuery = true)
+    int deleteByEventoCargaId(@Param("eventoId") Long eventoId);
+}
@@ -0,0 +1,22 @@
+package plantilla.repositorios;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import plantilla.dominio.NodoIngesta;
+
+import java.time.LocalDateTime;
+
+public interface NodoIngestaRepository extends JpaRepository<NodoIngesta, String> {
+
+  @Modifying
+  @Query(value = """
+      INSERT INTO nodos_ingesta (nodo, heartbeat)
+      VALUES (:nodo, :ahora)
+      ON CONFLICT (nodo) DO UPDATE SET heartbeat = EXCLUDED.heartbeat
+      """, nativeQuery = true)
+  int latir(
+      @Param("nodo") String nodo,
+      @Param("ahora") LocalDateTime ahora);
+}
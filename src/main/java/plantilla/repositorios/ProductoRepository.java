@@ -14,6 +14,11 @@ public interface ProductoRepository extends JpaRepository<Producto, Long> {
 
     boolean existsBySku(String sku);
 
+    List<Producto> findBySkuIn(java.util.Collection<String> skus);
+
+    @Query("SELECT p.sku FROM Producto p WHERE p.sku IN :skus")
+    List<String> findSkusExistentes(@Param("skus") java.util.Collection<String> skus);
+
     @Query("SELECT p.sku FROM Producto p WHERE p.sku LIKE :prefix% ORDER BY p.sku ASC")
     List<String> findSkusByPrefix(@Param("prefix") String prefix, org.springframework.data.domain.Pageable pageable);
 }
\ No newline at end of file
@@ -0,0 +1,149 @@
+package plantilla.repositorios;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import plantilla.dominio.StockActual;
+
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.List;
+
+public interface StockActualRepository extends JpaRepository<StockActual, StockActual.Clave> {
+
+    /**
+     * Pasa a stock_actual lo que acaba de escribir un bloque (el último
+     * registro de cada producto). Una carga atrasada no pisa un stock de
+     * fecha posterior: sólo gana el mayor (fecha_stock, id).
+     * fechaStock es la de la carga: acota la lectura a su partición.
+     */
+    @Modifying
+    @Query(value = """
+            INSERT INTO stock_actual (producto_id, sucursal_id, cantidad, stock_historico_id, fecha_stock)
+            SELECT DISTINCT ON (producto_id) producto_id, sucursal_id, cantidad, id, fecha_stock
+            FROM stock_historico
+            WHERE evento_carga_id = :eventoId
+              AND fecha_stock = :fechaStock
+              AND id BETWEEN :desde AND :hasta
+            ORDER BY producto_id, id DESC
+            ON CONFLICT (producto_id, sucursal_id) DO UPDATE
+            SET cantidad = EXCLUDED.cantidad,
+                stock_historico_id = EXCLUDED.stock_historico_id,
+                fecha_stock = EXCLUDED.fecha_stock
+            WHERE (stock_actual.fecha_stock, stock_actual.stock_historico_id)
+                  <= (EXCLUDED.fecha_stock, EXCLUDED.stock_historico_id)
+            """, nativeQuery = true)
+    int actualizarDesdeBloque(
+            @Param("eventoId") Long eventoId,
+            @Param("fechaStock") LocalDate fechaStock,
+            @Param("desde") Long desde,
+            @Param("hasta") Long hasta);
+
+    /** Returns: [sku, cantidad, fecha_stock] de los SKUs pedidos que tienen stock en la sucursal */
+    @Query(value = """
+            SELECT p.sku, sa.cantidad, sa.fecha_stock
+            FROM stock_actual sa
+            JOIN productos p ON p.id = sa.producto_id
+            WHERE sa.sucursal_id = :sucursalId
+              AND p.sku IN (:skus)
+            """, nativeQuery = true)
+    List<Object[]> findBySkus(
+            @Param("skus") Collection<String> skus,
+            @Param("sucursalId") Long sucursalId);
+
+    /** Returns: [sku, cantidad, fecha_stock] de todos los productos de la sucursal */
+    @Query(value = """
+            SELECT p.sku, sa.cantidad, sa.fecha_stock
+            FROM stock_actual sa
+            JOIN productos p ON p.id = sa.producto_id
+            WHERE sa.sucursal_id = :sucursalId
+            """, nativeQuery = true)
+    List<Object[]> findBySucursal(@Param("sucursalId") Long sucursalId);
+
+    /**
+     * Stock vigente agregado por jerarquía (-1 = todas las sucursales).
+     * Returns: [ambiente, familia, nivel3, nivel4, cantidad]
+     */
+    @Query(value = """
+            SELECT p.ambiente, p.familia, p.nivel3, p.nivel4, SUM(COALESCE(sa.cantidad, 0))
+            FROM stock_actual sa
+            JOIN productos p ON p.id = sa.producto_id
+            WHERE (:sucursalId = -1 OR sa.sucursal_id = :sucursalId)
+            GROUP BY p.ambiente, p.familia, p.nivel3, p.nivel4
+            """, nativeQuery = true)
+    List<Object[]> findSnapshotPorJerarquia(@Param("sucursalId") Long sucursalId);
+
+    /**
+     * Al revertir una carga, los productos cuyo registro vigente se borró
+     * vuelven a su último registro restante. Los que se quedan sin historia
+     * los borra borrarHuerfanos.
+     */
+    @Modifying
+    @Query(value = """
+            WITH huerfanos AS (
+                SELECT sa.producto_id
+                FROM stock_actual sa
+                WHERE sa.sucursal_id = :sucursalId
+                  AND sa.stock_historico_id BETWEEN :desde AND :hasta
+                  AND NOT EXISTS (SELECT 1 FROM stock_historico sh
+                                  WHERE sh.id = sa.stock_historico_id AND sh.fecha_stock = sa.fecha_stock)
+            ),
+            ultimos AS (
+                SELECT DISTINCT ON (sh.producto_id) sh.producto_id, sh.id, sh.cantidad, sh.fecha_stock
+                FROM stock_historico sh
+                JOIN huerfanos h ON h.producto_id = sh.producto_id
+                WHERE sh.sucursal_id = :sucursalId
+                ORDER BY sh.producto_id, sh.fecha_stock DESC, sh.id DESC
+            )
+            UPDATE stock_actual sa
+            SET cantidad = u.cantidad,
+                stock_historico_id = u.id,
+                fecha_stock = u.fecha_stock
+            FROM ultimos u
+            WHERE sa.sucursal_id = :sucursalId
+              AND sa.producto_id = u.producto_id
+            """, nativeQuery = true)
+    int recalcularBorrados(
+            @Param("sucursalId") Long sucursalId,
+            @Param("desde") Long desde,
+            @Param("hasta") Long hasta);
+
+    /**
+     * Filas cuyo registro ya no existe y no tienen otro al que volver. La
+     * fecha en la búsqueda por id deja leer sólo la partición de cada registro.
+     */
+    @Modifying
+    @Query(value = """
+            DELETE FROM stock_actual sa
+            WHERE sa.sucursal_id = :sucursalId
+              AND NOT EXISTS (SELECT 1 FROM stock_historico sh
+                              WHERE sh.id = sa.stock_historico_id AND sh.fecha_stock = sa.fecha_stock)
+            """, nativeQuery = true)
+    int borrarHuerfanos(@Param("sucursalId") Long sucursalId);
+
+    /**
+     * Reconstruye el stock vigente de una sucursal desde stock_historico (carga
+     * inicial de la tabla y después de recalcular un lote histórico, que puede
+     * descartar el registro vigente). Completar con borrarHuerfanos.
+     */
+    @Modifying
+    @Query(value = """
+            INSERT INTO stock_actual (producto_id, sucursal_id, cantidad, stock_historico_id, fecha_stock)
+            SELECT DISTINCT ON (producto_id) producto_id, sucursal_id, cantidad, id, fecha_stock
+            FROM stock_historico
+            WHERE sucursal_id = :sucursalId
+            ORDER BY producto_id, fecha_stock DESC, id DESC
+            ON CONFLICT (producto_id, sucursal_id) DO UPDATE
+            SET cantidad = EXCLUDED.cantidad,
+                stock_historico_id = EXCLUDED.stock_historico_id,
+                fecha_stock = EXCLUDED.fecha_stock
+            """, nativeQuery = true)
+    int reconstruir(@Param("sucursalId") Long sucursalId);
+
+    @Query(value = "SELECT EXISTS (SELECT 1 FROM stock_actual)", nativeQuery = true)
+    boolean hayDatos();
+
+    @Query(value = "SELECT EXISTS (SELECT 1 FROM stock_historico)", nativeQuery = true)
+    boolean hayHistoria();
+}
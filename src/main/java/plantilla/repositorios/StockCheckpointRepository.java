@@ -0,0 +1,115 @@
+package plantilla.repositorios;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import plantilla.dominio.StockCheckpoint;
+
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * stock_checkpoint: cierres semanales por jerarquía y la consulta de stock a
+ * una fecha (último cierre + deltas de stock_resumen_diario desde ese cierre).
+ */
+public interface StockCheckpointRepository extends JpaRepository<StockCheckpoint, StockCheckpoint.Clave> {
+
+    @Modifying
+    @Query(value = """
+            DELETE FROM stock_checkpoint
+            WHERE sucursal_id = :sucursalId
+              AND fecha >= :desde
+            """, nativeQuery = true)
+    int borrarDesde(
+            @Param("sucursalId") Long sucursalId,
+            @Param("desde") LocalDate desde);
+
+    @Modifying
+    @Query(value = "DELETE FROM stock_checkpoint WHERE sucursal_id = :sucursalId", nativeQuery = true)
+    int borrar(@Param("sucursalId") Long sucursalId);
+
+    /**
+     * Cierre de la semana: el cierre anterior (si existe) más los deltas de
+     * (anterior, fecha]. Los nodos que quedan en cero no se guardan.
+     */
+    @Modifying
+    @Query(value = """
+            INSERT INTO stock_checkpoint (fecha, sucursal_id, ambiente, familia, nivel3, nivel4, cantidad)
+            SELECT :fecha, :sucursalId, x.ambiente, x.familia, x.nivel3, x.nivel4, SUM(x.cantidad)
+            FROM (
+                SELECT c.ambiente, c.familia, c.nivel3, c.nivel4, c.cantidad
+                FROM stock_checkpoint c
+                WHERE c.sucursal_id = :sucursalId
+                  AND c.fecha = :anterior
+                UNION ALL
+                SELECT r.ambiente, r.familia, r.nivel3, r.nivel4, r.delta
+                FROM stock_resumen_diario r
+                WHERE r.sucursal_id = :sucursalId
+                  AND r.fecha > :anterior
+                  AND r.fecha <= :fecha
+            ) x
+            GROUP BY x.ambiente, x.familia, x.nivel3, x.nivel4
+            HAVING SUM(x.cantidad) <> 0
+            """, nativeQuery = true)
+    int insertarCierre(
+            @Param("sucursalId") Long sucursalId,
+            @Param("fecha") LocalDate fecha,
+            @Param("anterior") LocalDate anterior);
+
+    /** Último cierre de la sucursal antes de la fecha (java.sql.Date, ver TiempoUtils.aFecha), o null */
+    @Query(value = """
+            SELECT MAX(fecha) FROM stock_checkpoint
+            WHERE sucursal_id = :sucursalId
+              AND fecha < :fecha
+            """, nativeQuery = true)
+    Object findCierreAnterior(
+            @Param("sucursalId") Long sucursalId,
+            @Param("fecha") LocalDate fecha);
+
+    /** Returns: [min(fecha), max(fecha)] del resumen diario de la sucursal */
+    @Query(value = """
+            SELECT MIN(fecha), MAX(fecha) FROM stock_resumen_diario
+            WHERE sucursal_id = :sucursalId
+            """, nativeQuery = true)
+    List<Object[]> findRangoResumen(@Param("sucursalId") Long sucursalId);
+
+    @Query(value = "SELECT EXISTS (SELECT 1 FROM stock_checkpoint)", nativeQuery = true)
+    boolean hayDatos();
+
+    /**
+     * Stock al cierre del día (-1 = todas las sucursales): por sucursal, su
+     * último cierre hasta la fecha más los deltas posteriores. Una sucursal
+     * sin cierres suma los deltas desde el principio.
+     * Returns: [ambiente, familia, nivel3, nivel4, cantidad], NULL en los niveles vacíos
+     */
+    @Query(value = """
+            WITH cierre AS (
+                SELECT sucursal_id, MAX(fecha) AS fecha
+                FROM stock_checkpoint
+                WHERE fecha <= :fecha
+                  AND (:sucursalId = -1 OR sucursal_id = :sucursalId)
+                GROUP BY sucursal_id
+            ),
+            saldo AS (
+                SELECT c.ambiente, c.familia, c.nivel3, c.nivel4, c.cantidad
+                FROM stock_checkpoint c
+                JOIN cierre ON cierre.sucursal_id = c.sucursal_id AND cierre.fecha = c.fecha
+                UNION ALL
+                SELECT r.ambiente, r.familia, r.nivel3, r.nivel4, r.delta
+                FROM stock_resumen_diario r
+                LEFT JOIN cierre ON cierre.sucursal_id = r.sucursal_id
+                WHERE r.fecha <= :fecha
+                  AND (cierre.fecha IS NULL OR r.fecha > cierre.fecha)
+                  AND (:sucursalId = -1 OR r.sucursal_id = :sucursalId)
+            )
+            SELECT NULLIF(ambiente, ''), NULLIF(familia, ''), NULLIF(nivel3, ''), NULLIF(nivel4, ''),
+                   SUM(cantidad)
+            FROM saldo
+            GROUP BY ambiente, familia, nivel3, nivel4
+            HAVING SUM(cantidad) <> 0
+            """, nativeQuery = true)
+    List<Object[]> findStockAl(
+            @Param("fecha") LocalDate fecha,
+            @Param("sucursalId") Long sucursalId);
+}
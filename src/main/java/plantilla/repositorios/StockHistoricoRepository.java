@@ -1,8 +1,10 @@
 package plantilla.repositorios;
 
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 
 import plantilla.dominio.Producto;
 import plantilla.dominio.StockHistorico;
@@ -19,145 +21,281 @@ public interface StockHistoricoRepository extends JpaRepository<StockHistorico,
                         String sku,
                         Sucursal sucursal);
 
-        List<StockHistorico> findByProductoAndSucursalOrderByFechaStockAsc(
-                        Producto producto,
-                        Sucursal sucursal);
-
-        boolean existsByProductoAndSucursalAndFechaStock(
-                        Producto producto,
-                        Sucursal sucursal,
-                        LocalDate fechaStock);
-
-        // Dashboard Queries - Based on SQL reference requirements
-
         /**
-         * Query 1: Stock Actual Snapshot
-         * Gets the latest stock record for each producto in a sucursal
-         * Based on: SELECT DISTINCT ON (producto_id, sucursal_id) ... ORDER BY
-         * fecha_stock DESC
+         * Stock de cada SKU del bloque en una sucursal a una fecha (último
+         * registro con fecha_stock <= fecha), en una sola consulta. Una carga
+         * atrasada compara contra lo que había a su fecha, no contra lo último.
+         * Returns: [sku, cantidad]
          */
         @Query(value = """
-                        SELECT sh.*
+                        SELECT DISTINCT ON (sh.producto_id) p.sku, sh.cantidad
                         FROM stock_historico sh
-                        WHERE sh.id IN (
-                            SELECT MAX(sh2.id)
-                            FROM stock_historico sh2
-                            WHERE (:sucursalId = -1 OR sh2.sucursal_id = :sucursalId)
-                            GROUP BY sh2.producto_id, sh2.sucursal_id
-                        )
-                        ORDER BY sh.id
+                        JOIN productos p ON sh.producto_id = p.id
+                        WHERE sh.sucursal_id = :sucursalId
+                          AND p.sku IN (:skus)
+                          AND sh.fecha_stock <= :fecha
+                        ORDER BY sh.producto_id, sh.fecha_stock DESC, sh.id DESC
                         """, nativeQuery = true)
-        List<StockHistorico> findLatestStockBySucursal(@Param("sucursalId") Long sucursalId);
+        List<Object[]> findUltimoStockBySkus(
+                        @Param("skus") java.util.Collection<String> skus,
+                        @Param("sucursalId") Long sucursalId,
+                        @Param("fecha") LocalDate fecha);
 
         /**
-         * Query 2: Consumption Analysis (Egresos)
-         * Analyzes consumption by ambiente and familia over time.
-         * Fixed logic: Calculates consumption as (Previous Stock - Current Stock)
-         * for records where stock decreased.
+         * Stock de todos los productos de una sucursal a una fecha pasada, para
+         * previsualizar una carga atrasada (el stock de hoy está en stock_actual).
+         * Returns: [sku, cantidad]
          */
         @Query(value = """
-                        SELECT p.ambiente,
-                               p.familia,
-                               SUM(sh.diff_anterior - sh.cantidad),
-                               sh.fecha_stock
+                        SELECT DISTINCT ON (sh.producto_id) p.sku, sh.cantidad
                         FROM stock_historico sh
                         JOIN productos p ON sh.producto_id = p.id
-                        WHERE sh.nuevo_ingreso = false
-                          AND sh.diff_anterior IS NOT NULL
-                          AND sh.cantidad < sh.diff_anterior
-                          AND sh.fecha_stock BETWEEN :fechaInicio AND :fechaFin
-                          AND (:sucursalId = -1 OR sh.sucursal_id = :sucursalId)
-                        GROUP BY p.ambiente, p.familia, sh.fecha_stock
-                        ORDER BY sh.fecha_stock ASC
+                        WHERE sh.sucursal_id = :sucursalId
+                          AND sh.fecha_stock <= :fecha
+                        ORDER BY sh.producto_id, sh.fecha_stock DESC, sh.id DESC
                         """, nativeQuery = true)
-        List<Object[]> findConsumoAnalysis(
-                        @Param("fechaInicio") LocalDate fechaInicio,
-                        @Param("fechaFin") LocalDate fechaFin,
-                        @Param("sucursalId") Long sucursalId);
+        List<Object[]> findStockVigente(
+                        @Param("sucursalId") Long sucursalId,
+                        @Param("fecha") LocalDate fecha);
+
+        @Query(value = """
+                        SELECT EXISTS (
+                            SELECT 1 FROM stock_historico
+                            WHERE sucursal_id = :sucursalId
+                              AND fecha_stock > :fecha)
+                        """, nativeQuery = true)
+        boolean existeStockPosterior(
+                        @Param("sucursalId") Long sucursalId,
+                        @Param("fecha") LocalDate fecha);
 
         /**
-         * Get initial stock snapshot before a specific date for evolution baseline
+         * Carga atrasada: el registro que seguía a cada producto del bloque en la
+         * sucursal pasa a tener como anterior la última fila recién escrita.
+         * Sólo toca el siguiente de cada cadena; los demás no cambian. Si ese
+         * siguiente era el registro inicial del producto, la marca pasa a la
+         * primera fila recién escrita, que ahora es la más vieja.
+         * fecha es la de la carga: acota las lecturas a las particiones que corresponden.
          */
+        @Modifying
         @Query(value = """
-                        SELECT p.ambiente, SUM(sh.cantidad)
-                        FROM stock_historico sh
-                        JOIN productos p ON sh.producto_id = p.id
-                        WHERE sh.id IN (
-                            SELECT MAX(sh2.id)
-                            FROM stock_historico sh2
-                            WHERE sh2.fecha_stock < :fechaInicio
-                              AND (:sucursalId = -1 OR sh2.sucursal_id = :sucursalId)
-                            GROUP BY sh2.producto_id, sh2.sucursal_id
+                        WITH nuevos AS (
+                            SELECT DISTINCT ON (producto_id) producto_id, cantidad,
+                                   MIN(id) OVER (PARTITION BY producto_id) AS primero
+                            FROM stock_historico
+                            WHERE evento_carga_id = :eventoId
+                              AND fecha_stock = :fecha
+                              AND id BETWEEN :desde AND :hasta
+                            ORDER BY producto_id, id DESC
+                        ),
+                        siguientes AS (
+                            SELECT DISTINCT ON (sh.producto_id) sh.id, sh.fecha_stock, sh.es_inicial,
+                                   n.cantidad AS anterior, n.primero
+                            FROM stock_historico sh
+                            JOIN nuevos n ON n.producto_id = sh.producto_id
+                            WHERE sh.sucursal_id = :sucursalId
+                              AND sh.fecha_stock > :fecha
+                            ORDER BY sh.producto_id, sh.fecha_stock, sh.id
+                        ),
+                        iniciales AS (
+                            UPDATE stock_historico sh
+                            SET es_inicial = true,
+                                nuevo_ingreso = true
+                            FROM siguientes s
+                            WHERE COALESCE(s.es_inicial, false)
+                              AND sh.id = s.primero
+                              AND sh.fecha_stock = :fecha
+                            RETURNING sh.id
                         )
-                        GROUP BY p.ambiente
+                        UPDATE stock_historico sh
+                        SET diff_anterior = s.anterior,
+                            es_inicial = false,
+                            nuevo_ingreso = COALESCE(sh.cantidad > s.anterior, false)
+                        FROM siguientes s
+                        WHERE sh.id = s.id
+                          AND sh.fecha_stock = s.fecha_stock
                         """, nativeQuery = true)
-        List<Object[]> findInitialStockByAmbiente(
-                        @Param("fechaInicio") LocalDate fechaInicio,
+        int repararSiguientes(
+                        @Param("eventoId") Long eventoId,
+                        @Param("desde") Long desde,
+                        @Param("hasta") Long hasta,
+                        @Param("sucursalId") Long sucursalId,
+                        @Param("fecha") LocalDate fecha);
+
+        /**
+         * Antes de revertir un evento: el registro que sigue a cada fila del
+         * evento en su cadena (producto, sucursal) pasa a tener como anterior
+         * al último registro que queda. Sólo cambian esos sucesores. Si se borra
+         * el registro inicial, la marca pasa al primero que queda.
+         */
+        @Modifying
+        @Query(value = """
+                        WITH afectados AS (
+                            SELECT producto_id, BOOL_OR(COALESCE(es_inicial, false)) AS borra_inicial
+                            FROM stock_historico
+                            WHERE id BETWEEN :desde AND :hasta
+                              AND evento_carga_id = :eventoId
+                            GROUP BY producto_id
+                        ),
+                        cadena AS (
+                            SELECT sh.id, sh.producto_id, sh.fecha_stock, sh.evento_carga_id,
+                                   sh.cantidad, sh.es_inicial, a.borra_inicial,
+                                   LAG(sh.evento_carga_id) OVER (
+                                       PARTITION BY sh.producto_id ORDER BY sh.fecha_stock, sh.id) AS evento_previo
+                            FROM stock_historico sh
+                            JOIN afectados a ON a.producto_id = sh.producto_id
+                            WHERE sh.sucursal_id = :sucursalId
+                        ),
+                        restantes AS (
+                            SELECT c.id, c.evento_previo, c.cantidad,
+                                   COALESCE(c.es_inicial, false)
+                                       OR (c.borra_inicial AND ROW_NUMBER() OVER r = 1) AS inicial,
+                                   LAG(c.cantidad) OVER r AS anterior
+                            FROM cadena c
+                            WHERE c.evento_carga_id <> :eventoId
+                            WINDOW r AS (PARTITION BY c.producto_id ORDER BY c.fecha_stock, c.id)
+                        )
+                        UPDATE stock_historico sh
+                        SET diff_anterior = r.anterior,
+                            es_inicial = r.inicial,
+                            nuevo_ingreso = r.inicial
+                                OR COALESCE(r.cantidad > r.anterior, false)
+                        FROM restantes r
+                        WHERE sh.id = r.id
+                          AND r.evento_previo = :eventoId
+                        """, nativeQuery = true)
+        int repararSucesoresDeEvento(
+                        @Param("eventoId") Long eventoId,
+                        @Param("desde") Long desde,
+                        @Param("hasta") Long hasta,
                         @Param("sucursalId") Long sucursalId);
 
+        /** Borrado masivo de un evento por su rango de ids (usa la PK, no recorre la tabla) */
+        @Modifying
+        @Query(value = """
+                        DELETE FROM stock_historico
+                        WHERE id BETWEEN :desde AND :hasta
+                          AND evento_carga_id = :eventoId
+                        """, nativeQuery = true)
+        int deleteByEventoCargaIdEnRango(
+                        @Param("eventoId") Long eventoId,
+                        @Param("desde") Long desde,
+                        @Param("hasta") Long hasta);
+
+        /** [min(id), max(id)] de lo ya escrito por el evento */
+        @Query(value = """
+                        SELECT MIN(id), MAX(id)
+                        FROM stock_historico
+                        WHERE evento_carga_id = :eventoId
+                        """, nativeQuery = true)
+        List<Object[]> findRangoIdsByEventoCargaId(@Param("eventoId") Long eventoId);
+
+        // ===== CARGA HISTÓRICA (backfill) =====
+        // Recálculo por sucursal de los productos que tocaron los eventos dados,
+        // sobre toda su historia: la fila siguiente a lo cargado también cambia.
+
+        @Query(value = """
+                        SELECT DISTINCT sucursal_id
+                        FROM stock_historico
+                        WHERE evento_carga_id IN (:eventos)
+                        """, nativeQuery = true)
+        List<Long> findSucursalesByEventos(@Param("eventos") java.util.Collection<Long> eventos);
+
         /**
-         * Get initial stock snapshot before a specific date for familia drill-down
-         * baseline
+         * Borra las filas de los eventos que repiten la cantidad anterior del
+         * producto en la sucursal: la carga normal no las escribe.
          */
+        @Modifying
         @Query(value = """
-                        SELECT p.familia, SUM(sh.cantidad)
-                        FROM stock_historico sh
-                        JOIN productos p ON sh.producto_id = p.id
-                        WHERE sh.id IN (
-                            SELECT MAX(sh2.id)
-                            FROM stock_historico sh2
-                            WHERE sh2.fecha_stock < :fechaInicio
-                              AND (:sucursalId = -1 OR sh2.sucursal_id = :sucursalId)
-                            GROUP BY sh2.producto_id, sh2.sucursal_id
+                        WITH orden AS (
+                            SELECT sh.id, sh.evento_carga_id, sh.cantidad,
+                                   LAG(sh.cantidad) OVER w AS anterior,
+                                   ROW_NUMBER() OVER w AS n
+                            FROM stock_historico sh
+                            WHERE sh.sucursal_id = :sucursalId
+                              AND sh.producto_id IN (
+                                  SELECT producto_id FROM stock_historico
+                                  WHERE sucursal_id = :sucursalId
+                                    AND evento_carga_id IN (:eventos))
+                            WINDOW w AS (PARTITION BY sh.producto_id ORDER BY sh.fecha_stock, sh.id)
                         )
-                        AND p.ambiente = :ambiente
-                        GROUP BY p.familia
+                        DELETE FROM stock_historico sh
+                        USING orden o
+                        WHERE sh.id = o.id
+                          AND o.n > 1
+                          AND o.evento_carga_id IN (:eventos)
+                          AND o.cantidad IS NOT DISTINCT FROM o.anterior
                         """, nativeQuery = true)
-        List<Object[]> findInitialStockByFamilia(
-                        @Param("fechaInicio") LocalDate fechaInicio,
-                        @Param("sucursalId") Long sucursalId,
-                        @Param("ambiente") String ambiente);
+        int descartarSinCambio(
+                        @Param("eventos") java.util.Collection<Long> eventos,
+                        @Param("sucursalId") Long sucursalId);
 
         /**
-         * Get daily net stock changes (deltas) for evolution calculation
+         * es_inicial = primer registro del producto en cualquier sucursal. Toca
+         * también otras sucursales si lo cargado es anterior a su primer registro.
          */
+        @Modifying
         @Query(value = """
-                        SELECT p.ambiente,
-                               sh.fecha_stock,
-                               SUM(sh.cantidad - COALESCE(sh.diff_anterior, 0))
-                        FROM stock_historico sh
-                        JOIN productos p ON sh.producto_id = p.id
-                        WHERE sh.fecha_stock BETWEEN :fechaInicio AND :fechaFin
-                          AND (:sucursalId = -1 OR sh.sucursal_id = :sucursalId)
-                        GROUP BY p.ambiente, sh.fecha_stock
-                        ORDER BY sh.fecha_stock ASC
+                        WITH primeros AS (
+                            SELECT DISTINCT ON (sh.producto_id) sh.producto_id, sh.id
+                            FROM stock_historico sh
+                            WHERE sh.producto_id IN (
+                                SELECT producto_id FROM stock_historico
+                                WHERE sucursal_id = :sucursalId
+                                  AND evento_carga_id IN (:eventos))
+                            ORDER BY sh.producto_id, sh.fecha_stock, sh.id
+                        )
+                        UPDATE stock_historico sh
+                        SET es_inicial = (sh.id = p.id),
+                            nuevo_ingreso = (sh.id = p.id) OR COALESCE(sh.cantidad > sh.diff_anterior, false)
+                        FROM primeros p
+                        WHERE sh.producto_id = p.producto_id
+                          AND sh.es_inicial IS DISTINCT FROM (sh.id = p.id)
                         """, nativeQuery = true)
-        List<Object[]> findDailyStockDeltasByAmbiente(
-                        @Param("fechaInicio") LocalDate fechaInicio,
-                        @Param("fechaFin") LocalDate fechaFin,
+        int recalcularInicial(
+                        @Param("eventos") java.util.Collection<Long> eventos,
                         @Param("sucursalId") Long sucursalId);
 
         /**
-         * Get daily net stock changes (deltas) for familia drill-down evolution
+         * diff_anterior = cantidad del registro previo del producto en la
+         * sucursal; nuevo_ingreso con el mismo criterio que ResultadoBloqueService.
          */
+        @Modifying
         @Query(value = """
-                        SELECT p.ambiente,
-                               p.familia,
-                               sh.fecha_stock,
-                               SUM(sh.cantidad - COALESCE(sh.diff_anterior, 0))
-                        FROM stock_historico sh
-                        JOIN productos p ON sh.producto_id = p.id
-                        WHERE sh.fecha_stock BETWEEN :fechaInicio AND :fechaFin
-                          AND (:sucursalId = -1 OR sh.sucursal_id = :sucursalId)
-                          AND p.ambiente = :ambiente
-                        GROUP BY p.ambiente, p.familia, sh.fecha_stock
-                        ORDER BY sh.fecha_stock ASC
+                        WITH calc AS (
+                            SELECT sh.id,
+                                   LAG(sh.cantidad) OVER w AS anterior,
+                                   COALESCE(sh.es_inicial, false)
+                                       OR COALESCE(sh.cantidad > LAG(sh.cantidad) OVER w, false) AS ingreso
+                            FROM stock_historico sh
+                            WHERE sh.sucursal_id = :sucursalId
+                              AND sh.producto_id IN (
+                                  SELECT producto_id FROM stock_historico
+                                  WHERE sucursal_id = :sucursalId
+                                    AND evento_carga_id IN (:eventos))
+                            WINDOW w AS (PARTITION BY sh.producto_id ORDER BY sh.fecha_stock, sh.id)
+                        )
+                        UPDATE stock_historico sh
+                        SET diff_anterior = c.anterior,
+                            nuevo_ingreso = c.ingreso
+                        FROM calc c
+                        WHERE sh.id = c.id
+                          AND (sh.diff_anterior IS DISTINCT FROM c.anterior
+                               OR sh.nuevo_ingreso IS DISTINCT FROM c.ingreso)
                         """, nativeQuery = true)
-        List<Object[]> findDailyStockDeltasByFamilia(
-                        @Param("fechaInicio") LocalDate fechaInicio,
-                        @Param("fechaFin") LocalDate fechaFin,
-                        @Param("sucursalId") Long sucursalId,
-                        @Param("ambiente") String ambiente);
+        int recalcularDiferencias(
+                        @Param("eventos") java.util.Collection<Long> eventos,
+                        @Param("sucursalId") Long sucursalId);
+
+        List<StockHistorico> findByProductoAndSucursalOrderByFechaStockAsc(
+                        Producto producto,
+                        Sucursal sucursal);
+
+        boolean existsByProductoAndSucursalAndFechaStock(
+                        Producto producto,
+                        Sucursal sucursal,
+                        LocalDate fechaStock);
+
+        // Dashboard Queries - Based on SQL reference requirements
 
         /**
          * Stock evolution by ambiente over time - DEPRECATED (Use deltas logic)
@@ -239,98 +377,23 @@ public interface StockHistoricoRepository extends JpaRepository<StockHistorico,
                         @Param("skus") java.util.Collection<String> skus,
                         @Param("sucursalId") Long sucursalId);
 
-        /** Get initial stock baseline for nivel3 drill-down */
-        @Query(value = """
-                        SELECT p.nivel3, SUM(sh.cantidad)
-                        FROM stock_historico sh
-                        JOIN productos p ON sh.producto_id = p.id
-                        WHERE sh.id IN (
-                            SELECT MAX(sh2.id) FROM stock_historico sh2
-                            WHERE sh2.fecha_stock < :fechaInicio
-                              AND (:sucursalId = -1 OR sh2.sucursal_id = :sucursalId)
-                            GROUP BY sh2.producto_id, sh2.sucursal_id
-                        )
-                        AND p.ambiente = :ambiente AND p.familia = :familia
-                        GROUP BY p.nivel3
-                        """, nativeQuery = true)
-        List<Object[]> findInitialStockByNivel3(
-                        @Param("fechaInicio") LocalDate fechaInicio,
-                        @Param("sucursalId") Long sucursalId,
-                        @Param("ambiente") String ambiente,
-                        @Param("familia") String familia);
-
-        /** Get daily deltas for nivel3 drill-down evolution */
-        @Query(value = """
-                        SELECT p.nivel3, sh.fecha_stock,
-                               SUM(sh.cantidad - COALESCE(sh.diff_anterior, 0))
-                        FROM stock_historico sh
-                        JOIN productos p ON sh.producto_id = p.id
-                        WHERE sh.fecha_stock BETWEEN :fechaInicio AND :fechaFin
-                          AND (:sucursalId = -1 OR sh.sucursal_id = :sucursalId)
-                          AND p.ambiente = :ambiente AND p.familia = :familia
-                        GROUP BY p.nivel3, sh.fecha_stock ORDER BY sh.fecha_stock ASC
-                        """, nativeQuery = true)
-        List<Object[]> findDailyStockDeltasByNivel3(
-                        @Param("fechaInicio") LocalDate fechaInicio,
-                        @Param("fechaFin") LocalDate fechaFin,
-                        @Param("sucursalId") Long sucursalId,
-                        @Param("ambiente") String ambiente,
-                        @Param("familia") String familia);
-
-        /** Get initial stock baseline for nivel4 drill-down */
-        @Query(value = """
-                        SELECT p.nivel4, SUM(sh.cantidad)
-                        FROM stock_historico sh
-                        JOIN productos p ON sh.producto_id = p.id
-                        WHERE sh.id IN (
-                            SELECT MAX(sh2.id) FROM stock_historico sh2
-                            WHERE sh2.fecha_stock < :fechaInicio
-                              AND (:sucursalId = -1 OR sh2.sucursal_id = :sucursalId)
-                            GROUP BY sh2.producto_id, sh2.sucursal_id
-                        )
-                        AND p.ambiente = :ambiente AND p.familia = :familia AND p.nivel3 = :nivel3
-                        GROUP BY p.nivel4
-                        """, nativeQuery = true)
-        List<Object[]> findInitialStockByNivel4(
-                        @Param("fechaInicio") LocalDate fechaInicio,
-                        @Param("sucursalId") Long sucursalId,
-                        @Param("ambiente") String ambiente,
-                        @Param("familia") String familia,
-                        @Param("nivel3") String nivel3);
-
-        /** Get daily deltas for nivel4 drill-down evolution */
-        @Query(value = """
-                        SELECT p.nivel4, sh.fecha_stock,
-                               SUM(sh.cantidad - COALESCE(sh.diff_anterior, 0))
-                        FROM stock_historico sh
-                        JOIN productos p ON sh.producto_id = p.id
-                        WHERE sh.fecha_stock BETWEEN :fechaInicio AND :fechaFin
-                          AND (:sucursalId = -1 OR sh.sucursal_id = :sucursalId)
-                          AND p.ambiente = :ambiente AND p.familia = :familia AND p.nivel3 = :nivel3
-                        GROUP BY p.nivel4, sh.fecha_stock ORDER BY sh.fecha_stock ASC
-                        """, nativeQuery = true)
-        List<Object[]> findDailyStockDeltasByNivel4(
-                        @Param("fechaInicio") LocalDate fechaInicio,
-                        @Param("fechaFin") LocalDate fechaFin,
-                        @Param("sucursalId") Long sucursalId,
-                        @Param("ambiente") String ambiente,
-                        @Param("familia") String familia,
-                        @Param("nivel3") String nivel3);
-
-        /** Get initial stock baseline for sku drill-down */
+        /**
+         * Get initial stock baseline for sku drill-down: last record before fechaInicio
+         * of each product in the nivel4 (only those products' history is read)
+         */
         @Query(value = """
-                        SELECT p.sku, SUM(sh.cantidad)
-                        FROM stock_historico sh
-                        JOIN productos p ON sh.producto_id = p.id
-                        WHERE sh.id IN (
-                            SELECT MAX(sh2.id) FROM stock_historico sh2
-                            WHERE sh2.fecha_stock < :fechaInicio
-                              AND (:sucursalId = -1 OR sh2.sucursal_id = :sucursalId)
-                            GROUP BY sh2.producto_id, sh2.sucursal_id
-                        )
-                        AND p.ambiente = :ambiente AND p.familia = :familia
-                        AND p.nivel3 = :nivel3 AND p.nivel4 = :nivel4
-                        GROUP BY p.sku
+                        SELECT u.sku, SUM(u.cantidad)
+                        FROM (
+                            SELECT DISTINCT ON (sh.producto_id, sh.sucursal_id) p.sku, sh.cantidad
+                            FROM stock_historico sh
+                            JOIN productos p ON sh.producto_id = p.id
+                            WHERE sh.fecha_stock < :fechaInicio
+                              AND (:sucursalId = -1 OR sh.sucursal_id = :sucursalId)
+                              AND p.ambiente = :ambiente AND p.familia = :familia
+                              AND p.nivel3 = :nivel3 AND p.nivel4 = :nivel4
+                            ORDER BY sh.producto_id, sh.sucursal_id, sh.fecha_stock DESC, sh.id DESC
+                        ) u
+                        GROUP BY u.sku
                         """, nativeQuery = true)
         List<Object[]> findInitialStockBySku(
                         @Param("fechaInicio") LocalDate fechaInicio,
@@ -361,19 +424,19 @@ public interface StockHistoricoRepository extends JpaRepository<StockHistorico,
                         @Param("nivel3") String nivel3,
                         @Param("nivel4") String nivel4);
 
-        /** Get initial stock baseline for a single SKU */
+        /** Get initial stock baseline for a single SKU (last record before fechaInicio per sucursal) */
         @Query(value = """
-                        SELECT p.sku, SUM(sh.cantidad)
-                        FROM stock_historico sh
-                        JOIN productos p ON sh.producto_id = p.id
-                        WHERE sh.id IN (
-                            SELECT MAX(sh2.id) FROM stock_historico sh2
-                            WHERE sh2.fecha_stock < :fechaInicio
-                              AND (:sucursalId = -1 OR sh2.sucursal_id = :sucursalId)
-                            GROUP BY sh2.producto_id, sh2.sucursal_id
-                        )
-                        AND p.sku = :sku
-                        GROUP BY p.sku
+                        SELECT u.sku, SUM(u.cantidad)
+                        FROM (
+                            SELECT DISTINCT ON (sh.sucursal_id) p.sku, sh.cantidad
+                            FROM stock_historico sh
+                            JOIN productos p ON sh.producto_id = p.id
+                            WHERE sh.fecha_stock < :fechaInicio
+                              AND (:sucursalId = -1 OR sh.sucursal_id = :sucursalId)
+                              AND p.sku = :sku
+                            ORDER BY sh.sucursal_id, sh.fecha_stock DESC, sh.id DESC
+                        ) u
+                        GROUP BY u.sku
                         """, nativeQuery = true)
         List<Object[]> findInitialStockBySingleSku(
                         @Param("fechaInicio") LocalDate fechaInicio,
@@ -397,47 +460,4 @@ public interface StockHistoricoRepository extends JpaRepository<StockHistorico,
                         @Param("sucursalId") Long sucursalId,
                         @Param("sku") String sku);
 
-        /**
-         * Get initial stock (latest record before fechaInicio) grouped by ambiente and
-         * familia.
-         * Returns: [ambiente, familia, sum(cantidad)]
-         */
-        @Query(value = """
-                        SELECT p.ambiente, p.familia, SUM(sh.cantidad)
-                        FROM stock_historico sh
-                        JOIN productos p ON sh.producto_id = p.id
-                        WHERE sh.id IN (
-                            SELECT MAX(sh2.id) FROM stock_historico sh2
-                            WHERE sh2.fecha_stock < :fechaInicio
-                              AND (:sucursalId = -1 OR sh2.sucursal_id = :sucursalId)
-                            GROUP BY sh2.producto_id, sh2.sucursal_id
-                        )
-                        GROUP BY p.ambiente, p.familia
-                        ORDER BY p.ambiente, p.familia
-                        """, nativeQuery = true)
-        List<Object[]> findInitialStockByAmbienteFamilia(
-                        @Param("fechaInicio") LocalDate fechaInicio,
-                        @Param("sucursalId") Long sucursalId);
-
-        /**
-         * Get final stock (latest record on or before fechaFin) grouped by ambiente and
-         * familia.
-         * Returns: [ambiente, familia, sum(cantidad)]
-         */
-        @Query(value = """
-                        SELECT p.ambiente, p.familia, SUM(sh.cantidad)
-                        FROM stock_historico sh
-                        JOIN productos p ON sh.producto_id = p.id
-                        WHERE sh.id IN (
-                            SELECT MAX(sh2.id) FROM stock_historico sh2
-                            WHERE sh2.fecha_stock <= :fechaFin
-                              AND (:sucursalId = -1 OR sh2.sucursal_id = :sucursalId)
-                            GROUP BY sh2.producto_id, sh2.sucursal_id
-                        )
-                        GROUP BY p.ambiente, p.familia
-                        ORDER BY p.ambiente, p.familia
-                        """, nativeQuery = true)
-        List<Object[]> findFinalStockByAmbienteFamilia(
-                        @Param("fechaFin") LocalDate fechaFin,
-                        @Param("sucursalId") Long sucursalId);
 }
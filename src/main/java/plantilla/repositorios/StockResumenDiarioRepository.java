@@ -0,0 +1,159 @@
+package plantilla.repositorios;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import plantilla.dominio.StockResumenDiario;
+
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * stock_resumen_diario: armado (borrar + insertar por sucursal y rango de
+ * fechas) y las consultas de los reportes. Las consultas devuelven las mismas
+ * columnas que sus equivalentes sobre stock_historico, con NULL en los
+ * niveles vacíos.
+ */
+public interface StockResumenDiarioRepository extends JpaRepository<StockResumenDiario, StockResumenDiario.Clave> {
+
+    @Modifying
+    @Query(value = """
+            DELETE FROM stock_resumen_diario
+            WHERE sucursal_id = :sucursalId
+              AND fecha BETWEEN :desde AND :hasta
+            """, nativeQuery = true)
+    int borrar(
+            @Param("sucursalId") Long sucursalId,
+            @Param("desde") LocalDate desde,
+            @Param("hasta") LocalDate hasta);
+
+    /**
+     * egresos sigue el criterio del análisis de consumo: bajas de un registro
+     * que no es ingreso y tiene anterior.
+     */
+    @Modifying
+    @Query(value = """
+            INSERT INTO stock_resumen_diario
+                (fecha, sucursal_id, ambiente, familia, nivel3, nivel4, delta, egresos)
+            SELECT sh.fecha_stock,
+                   sh.sucursal_id,
+                   COALESCE(p.ambiente, ''),
+                   COALESCE(p.familia, ''),
+                   COALESCE(p.nivel3, ''),
+                   COALESCE(p.nivel4, ''),
+                   COALESCE(SUM(sh.cantidad - COALESCE(sh.diff_anterior, 0)), 0),
+                   COALESCE(SUM(CASE
+                       WHEN sh.nuevo_ingreso = false
+                        AND sh.diff_anterior IS NOT NULL
+                        AND sh.cantidad < sh.diff_anterior
+                       THEN sh.diff_anterior - sh.cantidad
+                       ELSE 0 END), 0)
+            FROM stock_historico sh
+            JOIN productos p ON p.id = sh.producto_id
+            WHERE sh.sucursal_id = :sucursalId
+              AND sh.fecha_stock BETWEEN :desde AND :hasta
+            GROUP BY sh.fecha_stock, sh.sucursal_id,
+                     COALESCE(p.ambiente, ''), COALESCE(p.familia, ''),
+                     COALESCE(p.nivel3, ''), COALESCE(p.nivel4, '')
+            """, nativeQuery = true)
+    int insertar(
+            @Param("sucursalId") Long sucursalId,
+            @Param("desde") LocalDate desde,
+            @Param("hasta") LocalDate hasta);
+
+    @Query(value = "SELECT EXISTS (SELECT 1 FROM stock_resumen_diario)", nativeQuery = true)
+    boolean hayDatos();
+
+    /** Returns: [min(fecha_stock), max(fecha_stock)] de toda la historia */
+    @Query(value = "SELECT MIN(fecha_stock), MAX(fecha_stock) FROM stock_historico", nativeQuery = true)
+    List<Object[]> findRangoHistoria();
+
+    /** max(fecha_stock) de la sucursal (java.sql.Date, ver TiempoUtils.aFecha), o null */
+    @Query(value = "SELECT MAX(fecha_stock) FROM stock_historico WHERE sucursal_id = :sucursalId", nativeQuery = true)
+    Object findUltimaFecha(@Param("sucursalId") Long sucursalId);
+
+    // ==========================
+    // Reportes
+    // ==========================
+
+    /** Returns: [ambiente, fecha, delta] */
+    @Query(value = """
+            SELECT NULLIF(r.ambiente, ''), r.fecha, SUM(r.delta)
+            FROM stock_resumen_diario r
+            WHERE r.fecha BETWEEN :fechaInicio AND :fechaFin
+              AND (:sucursalId = -1 OR r.sucursal_id = :sucursalId)
+            GROUP BY r.ambiente, r.fecha
+            ORDER BY r.fecha ASC
+            """, nativeQuery = true)
+    List<Object[]> findDailyDeltasByAmbiente(
+            @Param("fechaInicio") LocalDate fechaInicio,
+            @Param("fechaFin") LocalDate fechaFin,
+            @Param("sucursalId") Long sucursalId);
+
+    /** Returns: [ambiente, familia, fecha, delta] */
+    @Query(value = """
+            SELECT NULLIF(r.ambiente, ''), NULLIF(r.familia, ''), r.fecha, SUM(r.delta)
+            FROM stock_resumen_diario r
+            WHERE r.fecha BETWEEN :fechaInicio AND :fechaFin
+              AND (:sucursalId = -1 OR r.sucursal_id = :sucursalId)
+              AND r.ambiente = :ambiente
+            GROUP BY r.ambiente, r.familia, r.fecha
+            ORDER BY r.fecha ASC
+            """, nativeQuery = true)
+    List<Object[]> findDailyDeltasByFamilia(
+            @Param("fechaInicio") LocalDate fechaInicio,
+            @Param("fechaFin") LocalDate fechaFin,
+            @Param("sucursalId") Long sucursalId,
+            @Param("ambiente") String ambiente);
+
+    /** Returns: [nivel3, fecha, delta] */
+    @Query(value = """
+            SELECT NULLIF(r.nivel3, ''), r.fecha, SUM(r.delta)
+            FROM stock_resumen_diario r
+            WHERE r.fecha BETWEEN :fechaInicio AND :fechaFin
+              AND (:sucursalId = -1 OR r.sucursal_id = :sucursalId)
+              AND r.ambiente = :ambiente AND r.familia = :familia
+            GROUP BY r.nivel3, r.fecha
+            ORDER BY r.fecha ASC
+            """, nativeQuery = true)
+    List<Object[]> findDailyDeltasByNivel3(
+            @Param("fechaInicio") LocalDate fechaInicio,
+            @Param("fechaFin") LocalDate fechaFin,
+            @Param("sucursalId") Long sucursalId,
+            @Param("ambiente") String ambiente,
+            @Param("familia") String familia);
+
+    /** Returns: [nivel4, fecha, delta] */
+    @Query(value = """
+            SELECT NULLIF(r.nivel4, ''), r.fecha, SUM(r.delta)
+            FROM stock_resumen_diario r
+            WHERE r.fecha BETWEEN :fechaInicio AND :fechaFin
+              AND (:sucursalId = -1 OR r.sucursal_id = :sucursalId)
+              AND r.ambiente = :ambiente AND r.familia = :familia AND r.nivel3 = :nivel3
+            GROUP BY r.nivel4, r.fecha
+            ORDER BY r.fecha ASC
+            """, nativeQuery = true)
+    List<Object[]> findDailyDeltasByNivel4(
+            @Param("fechaInicio") LocalDate fechaInicio,
+            @Param("fechaFin") LocalDate fechaFin,
+            @Param("sucursalId") Long sucursalId,
+            @Param("ambiente") String ambiente,
+            @Param("familia") String familia,
+            @Param("nivel3") String nivel3);
+
+    /** Returns: [ambiente, familia, egresos, fecha], sólo días con egresos */
+    @Query(value = """
+            SELECT NULLIF(r.ambiente, ''), NULLIF(r.familia, ''), SUM(r.egresos), r.fecha
+            FROM stock_resumen_diario r
+            WHERE r.fecha BETWEEN :fechaInicio AND :fechaFin
+              AND (:sucursalId = -1 OR r.sucursal_id = :sucursalId)
+            GROUP BY r.ambiente, r.familia, r.fecha
+            HAVING SUM(r.egresos) > 0
+            ORDER BY r.fecha ASC
+            """, nativeQuery = true)
+    List<Object[]> findConsumo(
+            @Param("fechaInicio") LocalDate fechaInicio,
+            @Param("fechaFin") LocalDate fechaFin,
+            @Param("sucursalId") Long sucursalId);
+}
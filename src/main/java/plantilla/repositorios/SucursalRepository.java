@@ -1,9 +1,13 @@
 package plantilla.repositorios;
 
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 import plantilla.dominio.Sucursal;
 
+import javax.persistence.LockModeType;
 import java.util.List;
 import java.util.Optional;
 
@@ -23,4 +27,12 @@ public interface SucursalRepository extends JpaRepository<Sucursal, Long> {
     boolean existsByCodDeposito(String codDeposito);
 
     List<Sucursal> findByInhabilitadoFalse();
+
+    /**
+     * SELECT ... FOR UPDATE sobre la sucursal: serializa el alta de cargas
+     * de una misma sucursal sin bloquear a las demás
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT s FROM Sucursal s WHERE s.id = :id")
+    Optional<Sucursal> bloquearPorId(@Param("id") Long id);
 }
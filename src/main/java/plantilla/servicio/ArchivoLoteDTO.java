@@ -0,0 +1,18 @@
+package plantilla.servicio;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Resultado de recibir uno de los archivos de un lote.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ArchivoLoteDTO {
+    private String nombreArchivo;
+    private String status;      // ok, warn, error (igual que las subidas individuales)
+    private String mensaje;
+    private Long eventoId;      // null si no se encoló
+}
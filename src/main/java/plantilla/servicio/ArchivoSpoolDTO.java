@@ -0,0 +1,19 @@
+package plantilla.servicio;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.File;
+
+/**
+ * Archivo subido ya guardado en el spool, con el SHA-256 de su contenido.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ArchivoSpoolDTO {
+    private File archivo;
+    private String sha256;
+    private long bytes;
+}
@@ -1,9 +1,34 @@
 package plantilla.servicio;
 
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.scheduling.annotation.EnableAsync;
+import org.springframework.scheduling.annotation.EnableScheduling;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 
 @Configuration
 @EnableAsync
+@EnableScheduling
 public class AsyncConfig {
+
+    /**
+     * Executor de las cargas de stock. Cada hilo procesa una carga completa;
+     * el límite por sucursal lo pone EventoCargaService, acá sólo el total.
+     * ColaIngestaService sólo reclama cargas mientras haya hilos libres.
+     */
+    @Bean(name = "ingestaExecutor")
+    public ThreadPoolTaskExecutor ingestaExecutor(
+            @Value("${stock.ingesta.hilos:4}") int hilos,
+            @Value("${stock.ingesta.cola:100}") int cola) {
+
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(hilos);
+        executor.setMaxPoolSize(hilos);
+        executor.setQueueCapacity(cola);
+        executor.setThreadNamePrefix("ingesta-");
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        executor.setAwaitTerminationSeconds(60);
+        return executor;
+    }
 }
@@ -0,0 +1,116 @@
+package plantilla.servicio;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import plantilla.dominio.EventoCarga;
+import plantilla.repositorios.EventoCargaRepository;
+import plantilla.repositorios.StockHistoricoRepository;
+
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Carga histórica (backfill) de muchos archivos: los bloques se escriben en
+ * crudo, sin buscar el último stock fila por fila, y cuando el lote no tiene
+ * nada más en curso se recalculan diffAnterior, nuevoIngreso y esInicial con
+ * funciones de ventana por (producto, sucursal), una sucursal por transacción.
+ * Mientras el lote no se recalcula esas columnas quedan en NULL.
+ */
+@Service
+@Slf4j
+public class CargaHistoricaService {
+
+    @Autowired
+    private EventoCargaRepository eventoCargaRepository;
+
+    @Autowired
+    private StockHistoricoRepository stockHistoricoRepository;
+
+    @Autowired
+    private StockActualService stockActualService;
+
+    @Autowired
+    private StockResumenDiarioService stockResumenDiarioService;
+
+    private final TransactionTemplate transactionTemplate;
+
+    public CargaHistoricaService(PlatformTransactionManager transactionManager) {
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    /**
+     * Se llama al completar cada evento: el último del lote en terminar
+     * dispara el recálculo. Si otro nodo termina al mismo tiempo el recálculo
+     * corre dos veces, sin cambiar el resultado.
+     */
+    public void alCompletar(EventoCarga evento) {
+        if (!Boolean.TRUE.equals(evento.getCargaHistorica()) || evento.getLote() == null) {
+            return;
+        }
+        if (loteEnCurso(evento.getLote())) {
+            return;
+        }
+        recalcularLote(evento.getLote());
+    }
+
+    public boolean loteEnCurso(String lote) {
+        return eventoCargaRepository.existsByLoteAndEstadoIn(lote, List.of("SUBIENDO", "PENDIENTE", "EN_PROCESO"));
+    }
+
+    /**
+     * Recalcula las filas de los productos que tocó el lote, en toda su
+     * historia. Se puede repetir (ej. después de reanudar un archivo fallido).
+     * Devuelve la cantidad de filas descartadas por no tener cambios.
+     */
+    public int recalcularLote(String lote) {
+        List<Long> eventos = eventoCargaRepository.findIdsHistoricosByLote(lote);
+        if (eventos.isEmpty()) {
+            return 0;
+        }
+
+        long inicio = System.currentTimeMillis();
+        List<Long> sucursales = stockHistoricoRepository.findSucursalesByEventos(eventos);
+
+        // el resumen diario de cada sucursal se rearma desde la fecha más vieja del lote
+        Map<Long, LocalDate> desdePorSucursal = new HashMap<>();
+        for (EventoCarga e : eventoCargaRepository.findByLoteOrderByIdAsc(lote)) {
+            if (e.getSucursal() != null && e.getFechaArchivo() != null) {
+                desdePorSucursal.merge(e.getSucursal().getId(), e.getFechaArchivo(),
+                        (a, b) -> a.isBefore(b) ? a : b);
+            }
+        }
+        int descartadas = 0;
+        int actualizadas = 0;
+
+        for (Long sucursalId : sucursales) {
+            int[] r = transactionTemplate.execute(status -> {
+                int[] filas = {
+                        stockHistoricoRepository.descartarSinCambio(eventos, sucursalId),
+                        stockHistoricoRepository.recalcularInicial(eventos, sucursalId)
+                                + stockHistoricoRepository.recalcularDiferencias(eventos, sucursalId)
+                };
+                // el descarte pudo borrar el registro vigente de algún producto
+                stockActualService.reconstruir(sucursalId);
+                return filas;
+            });
+            descartadas += r[0];
+            actualizadas += r[1];
+
+            LocalDate desde = desdePorSucursal.get(sucursalId);
+            if (desde != null) {
+                stockResumenDiarioService.recalcularDesde(sucursalId, desde);
+            }
+        }
+
+        log.info("🧮 Lote histórico {} recalculado: {} eventos, {} sucursales, {} filas sin cambio descartadas, "
+                        + "{} actualizadas en {} ms",
+                lote, eventos.size(), sucursales.size(), descartadas, actualizadas,
+                System.currentTimeMillis() - inicio);
+        return descartadas;
+    }
+}
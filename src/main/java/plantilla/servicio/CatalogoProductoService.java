@@ -0,0 +1,191 @@
+package plantilla.servicio;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import plantilla.dominio.Producto;
+import plantilla.repositorios.ProductoRepository;
+
+import java.sql.Array;
+import java.sql.PreparedStatement;
+import java.util.*;
+
+/**
+ * Catálogo SKU → producto compartido por todas las cargas.
+ * Se precarga al arrancar y se actualiza cuando la ingesta crea productos,
+ * así el camino caliente no consulta productos fila por fila.
+ * Es acotado (LRU): un SKU que no está en memoria se busca en la base.
+ */
+@Service
+@Slf4j
+public class CatalogoProductoService {
+
+    @Autowired
+    private ProductoRepository productoRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private final int maxEntradas;
+    private final Map<String, ProductoCatalogoDTO> porSku;
+
+    public CatalogoProductoService(@Value("${stock.catalogo.max-entradas:200000}") int maxEntradas) {
+        this.maxEntradas = maxEntradas;
+        this.porSku = Collections.synchronizedMap(
+                new LinkedHashMap<>(1024, 0.75f, true) {
+                    @Override
+                    protected boolean removeEldestEntry(Map.Entry<String, ProductoCatalogoDTO> eldest) {
+                        return size() > CatalogoProductoService.this.maxEntradas;
+                    }
+                });
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void precargar() {
+        jdbcTemplate.query("""
+                SELECT id, sku, ambiente, familia, nivel3, nivel4
+                FROM productos
+                ORDER BY id DESC
+                """, rs -> {
+            if (porSku.size() < maxEntradas) {
+                ProductoCatalogoDTO p = new ProductoCatalogoDTO(
+                        rs.getLong("id"),
+                        rs.getString("sku"),
+                        rs.getString("ambiente"),
+                        rs.getString("familia"),
+                        rs.getString("nivel3"),
+                        rs.getString("nivel4"));
+                porSku.put(p.getSku(), p);
+            }
+        });
+        log.info("Catálogo de productos precargado: {} SKUs", porSku.size());
+    }
+
+    /**
+     * Resuelve todos los SKUs de un bloque. Los que no existen se insertan con
+     * un único upsert. Debe llamarse dentro de la transacción del bloque.
+     *
+     * @param nuevos se completa con los SKUs que este bloque dio de alta
+     */
+    public Map<String, ProductoCatalogoDTO> resolverBloque(List<FilaStockDTO> filas, Set<String> nuevos) {
+        Map<String, ProductoCatalogoDTO> resultado = new HashMap<>();
+        Map<String, FilaStockDTO> faltantes = new LinkedHashMap<>();
+
+        for (FilaStockDTO fila : filas) {
+            String sku = fila.getSku();
+            if (sku == null || sku.isBlank() || resultado.containsKey(sku) || faltantes.containsKey(sku))
+                continue;
+
+            ProductoCatalogoDTO p = porSku.get(sku);
+            if (p != null) {
+                resultado.put(sku, p);
+            } else {
+                faltantes.put(sku, fila);
+            }
+        }
+
+        if (faltantes.isEmpty()) {
+            return resultado;
+        }
+
+        // SKUs que no estaban en memoria pero sí en la base
+        for (Producto p : productoRepository.findBySkuIn(faltantes.keySet())) {
+            resultado.put(p.getSku(), registrar(p));
+            faltantes.remove(p.getSku());
+        }
+
+        if (faltantes.isEmpty()) {
+            return resultado;
+        }
+
+        for (ProductoCatalogoDTO p : insertar(faltantes.values())) {
+            resultado.put(p.getSku(), p);
+            nuevos.add(p.getSku());
+            faltantes.remove(p.getSku());
+        }
+
+        // Otra carga concurrente los creó entre la búsqueda y el insert
+        if (!faltantes.isEmpty()) {
+            for (Producto p : productoRepository.findBySkuIn(faltantes.keySet())) {
+                resultado.put(p.getSku(), registrar(p));
+            }
+        }
+
+        return resultado;
+    }
+
+    private List<ProductoCatalogoDTO> insertar(Collection<FilaStockDTO> filas) {
+        int n = filas.size();
+        String[] skus = new String[n];
+        String[] masterIds = new String[n];
+        String[] descripciones = new String[n];
+        String[] colores = new String[n];
+        String[] ambientes = new String[n];
+        String[] familias = new String[n];
+        String[] niveles3 = new String[n];
+        String[] niveles4 = new String[n];
+
+        int i = 0;
+        for (FilaStockDTO f : filas) {
+            skus[i] = f.getSku();
+            masterIds[i] = f.getMasterId();
+            descripciones[i] = f.getDescripcion();
+            colores[i] = f.getColor();
+            ambientes[i] = f.getAmbiente();
+            familias[i] = f.getFamilia();
+            niveles3[i] = f.getNivel3();
+            niveles4[i] = f.getNivel4();
+            i++;
+        }
+
+        List<ProductoCatalogoDTO> creados = jdbcTemplate.query(con -> {
+            PreparedStatement ps = con.prepareStatement("""
+                    INSERT INTO productos (sku, master_id, descripcion, color, ambiente, familia, nivel3, nivel4)
+                    SELECT * FROM unnest(?::text[], ?::text[], ?::text[], ?::text[],
+                                         ?::text[], ?::text[], ?::text[], ?::text[])
+                    ON CONFLICT (sku) DO NOTHING
+                    RETURNING id, sku, ambiente, familia, nivel3, nivel4
+                    """);
+            String[][] columnas = { skus, masterIds, descripciones, colores, ambientes, familias, niveles3,
+                    niveles4 };
+            for (int c = 0; c < columnas.length; c++) {
+                Array array = con.createArrayOf("text", columnas[c]);
+                ps.setArray(c + 1, array);
+            }
+            return ps;
+        }, (rs, rowNum) -> new ProductoCatalogoDTO(
+                rs.getLong("id"),
+                rs.getString("sku"),
+                rs.getString("ambiente"),
+                rs.getString("familia"),
+                rs.getString("nivel3"),
+                rs.getString("nivel4")));
+
+        // Recién al confirmar: si el bloque hace rollback esos ids no existen
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    creados.forEach(p -> porSku.put(p.getSku(), p));
+                }
+            });
+        } else {
+            creados.forEach(p -> porSku.put(p.getSku(), p));
+        }
+        log.debug("Alta masiva de {} productos", creados.size());
+        return creados;
+    }
+
+    private ProductoCatalogoDTO registrar(Producto p) {
+        ProductoCatalogoDTO dto = new ProductoCatalogoDTO(
+                p.getId(), p.getSku(), p.getAmbiente(), p.getFamilia(), p.getNivel3(), p.getNivel4());
+        porSku.put(p.getSku(), dto);
+        return dto;
+    }
+}
@@ -0,0 +1,197 @@
+package plantilla.servicio;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import plantilla.dominio.EventoCarga;
+import plantilla.repositorios.EventoCargaRepository;
+import plantilla.repositorios.NodoIngestaRepository;
+import plantilla.repositorios.SucursalRepository;
+import plantilla.util.TiempoUtils;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Cola persistente de cargas de stock sobre eventos_carga.
+ * Los controladores sólo dejan el evento PENDIENTE; cada nodo reclama
+ * cargas con FOR UPDATE SKIP LOCKED según los hilos libres de
+ * ingestaExecutor, marca heartbeat mientras las procesa y devuelve a la
+ * cola las que quedaron EN_PROCESO sin heartbeat (nodo caído o reiniciado).
+ * Cada nodo también late en nodos_ingesta: sus subidas y sus cargas con
+ * archivo local no las puede seguir otro, y si deja de latir pasan a FALLIDO.
+ */
+@Service
+@Slf4j
+public class ColaIngestaService {
+
+    @Autowired
+    private EventoCargaRepository eventoCargaRepository;
+
+    @Autowired
+    private SucursalRepository sucursalRepository;
+
+    @Autowired
+    private NodoIngestaRepository nodoIngestaRepository;
+
+    @Autowired
+    private StockAsyncService stockAsyncService;
+
+    @Autowired
+    @Qualifier("ingestaExecutor")
+    private ThreadPoolTaskExecutor ingestaExecutor;
+
+    private final TransactionTemplate transactionTemplate;
+
+    /** Cargas que este nodo está procesando ahora */
+    private final Set<Long> enCurso = ConcurrentHashMap.newKeySet();
+
+    @Value("${stock.cola.nodo:}")
+    private String nodoConfigurado;
+
+    @Value("${stock.cola.heartbeat-timeout-segundos:120}")
+    private int timeoutSegundos;
+
+    @Value("${stock.cola.max-intentos:3}")
+    private int maxIntentos;
+
+    @Value("${stock.cola.subida-timeout-minutos:120}")
+    private int timeoutSubidaMinutos;
+
+    private String nodo;
+
+    public ColaIngestaService(PlatformTransactionManager transactionManager) {
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    public String getNodo() {
+        if (nodo == null) {
+            nodo = nodoConfigurado != null && !nodoConfigurado.isBlank()
+                    ? nodoConfigurado
+                    : nombreHost();
+        }
+        return nodo;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void recuperarAlArrancar() {
+        latir();
+        Integer subidas = transactionTemplate.execute(
+                status -> eventoCargaRepository.descartarSubidasDelNodo(getNodo()));
+        if (subidas != null && subidas > 0) {
+            log.warn("♻️ {} subidas a S3 de este nodo ({}) quedaron cortadas y se marcan FALLIDO", subidas, getNodo());
+        }
+        Integer reencoladas = transactionTemplate.execute(
+                status -> eventoCargaRepository.reencolarDelNodo(getNodo()));
+        if (reencoladas != null && reencoladas > 0) {
+            log.warn("♻️ {} cargas de este nodo ({}) quedaron cortadas y vuelven a la cola", reencoladas, getNodo());
+        }
+        reclamarPendientes();
+    }
+
+    /**
+     * Toma cargas pendientes mientras haya hilos libres. Se llama
+     * periódicamente y también apenas se encola una carga nueva.
+     */
+    @Scheduled(fixedDelayString = "${stock.cola.intervalo-ms:5000}")
+    public synchronized void reclamarPendientes() {
+        while (enCurso.size() < ingestaExecutor.getMaxPoolSize()) {
+            Optional<EventoCarga> reclamada = transactionTemplate.execute(status -> reclamarSiguiente());
+            if (reclamada == null || reclamada.isEmpty()) {
+                return;
+            }
+            lanzar(reclamada.get());
+        }
+    }
+
+    private Optional<EventoCarga> reclamarSiguiente() {
+        Optional<EventoCarga> candidata = eventoCargaRepository.findSiguientePendiente(getNodo());
+        if (candidata.isEmpty()) {
+            return Optional.empty();
+        }
+
+        EventoCarga evento = candidata.get();
+
+        // Otro nodo pudo tomar una carga de la misma sucursal al mismo tiempo
+        if (evento.getSucursal() != null) {
+            sucursalRepository.bloquearPorId(evento.getSucursal().getId());
+            if (eventoCargaRepository.existeCargaEnConflicto(evento.getSucursal().getId(),
+                    List.of("EN_PROCESO"), evento.getId(), Boolean.TRUE.equals(evento.getCargaHistorica()))) {
+                return Optional.empty();
+            }
+        }
+
+        evento.setEstado("EN_PROCESO");
+        evento.setNodo(getNodo());
+        evento.setIntentos(evento.getIntentos() != null ? evento.getIntentos() + 1 : 1);
+        EventoCarga guardado = eventoCargaRepository.save(evento);
+        eventoCargaRepository.actualizarHeartbeat(List.of(guardado.getId()), TiempoUtils.ahora());
+        return Optional.of(guardado);
+    }
+
+    private void lanzar(EventoCarga evento) {
+        Long id = evento.getId();
+        enCurso.add(id);
+        log.info("📥 Nodo {} toma la carga {} (intento {})", getNodo(), id, evento.getIntentos());
+
+        ingestaExecutor.execute(() -> {
+            try {
+                stockAsyncService.procesar(id);
+            } finally {
+                enCurso.remove(id);
+            }
+        });
+    }
+
+    @Scheduled(fixedDelayString = "${stock.cola.heartbeat-ms:30000}")
+    public void latir() {
+        transactionTemplate.executeWithoutResult(status -> {
+            var ahora = TiempoUtils.ahora();
+            nodoIngestaRepository.latir(getNodo(), ahora);
+            if (!enCurso.isEmpty()) {
+                eventoCargaRepository.actualizarHeartbeat(Set.copyOf(enCurso), ahora);
+            }
+        });
+    }
+
+    @Scheduled(fixedDelayString = "${stock.cola.revision-abandonadas-ms:60000}")
+    public void revisarAbandonadas() {
+        transactionTemplate.executeWithoutResult(status -> {
+            var limite = TiempoUtils.ahora().minusSeconds(timeoutSegundos);
+            int descartadas = eventoCargaRepository.descartarAbandonadas(limite, maxIntentos);
+            int reencoladas = eventoCargaRepository.reencolarAbandonadas(limite, maxIntentos);
+            int particiones = eventoCargaRepository.liberarParticionesHuerfanas();
+            int subidas = eventoCargaRepository.descartarSubidasAbandonadas(
+                    TiempoUtils.ahora().minusMinutes(timeoutSubidaMinutos), limite);
+            int locales = eventoCargaRepository.descartarLocalesSinNodo(limite);
+            if (descartadas > 0 || reencoladas > 0 || particiones > 0) {
+                log.warn("♻️ Cargas abandonadas: {} reencoladas, {} marcadas FALLIDO, {} particiones liberadas",
+                        reencoladas, descartadas, particiones);
+            }
+            if (subidas > 0 || locales > 0) {
+                log.warn("♻️ Nodos sin heartbeat: {} subidas y {} cargas con archivo local marcadas FALLIDO",
+                        subidas, locales);
+            }
+        });
+    }
+
+    private String nombreHost() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            return "nodo-local";
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package plantilla.servicio;
+
+import plantilla.util.ErroresCelda;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Problemas de datos de las filas de un bloque, retenidos hasta que sus filas
+ * se confirman. Si la carga se corta antes, al retomarla esas filas se leen
+ * de nuevo: pasarlos antes al RegistroErroresCarga del evento los contaría
+ * dos veces. Lo llena el lector y lo vacía el escritor del bloque, nunca a la
+ * vez (el bloque pasa de uno a otro por la cola).
+ */
+class ErroresBloque {
+
+    private record Problema(String tipo, Integer columna, int numeroFila, Object valor, String detalle) {
+    }
+
+    private final List<Problema> problemas = new ArrayList<>();
+    private int confirmados = 0;
+
+    ErroresCelda paraFila(int numeroFila) {
+        return (tipo, columna, valor, detalle) -> problemas.add(new Problema(tipo, columna, numeroFila, valor, detalle));
+    }
+
+    /**
+     * Pasa al registro de la carga los problemas de las filas hasta numeroFila
+     * inclusive. Las filas de un bloque se confirman en orden.
+     */
+    void confirmarHasta(int numeroFila, RegistroErroresCarga registro) {
+        while (confirmados < problemas.size() && problemas.get(confirmados).numeroFila() <= numeroFila) {
+            Problema p = problemas.get(confirmados++);
+            registro.registrar(p.tipo(), p.columna(), p.numeroFila(), p.valor(), p.detalle());
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package plantilla.servicio;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import plantilla.dominio.ErrorCarga;
+import plantilla.repositorios.ErrorCargaRepository;
+
+import java.util.List;
+
+/**
+ * Guarda y exporta el resumen de problemas de datos de cada carga.
+ */
+@Service
+@Slf4j
+public class ErroresCargaService {
+
+    @Autowired
+    private ErrorCargaRepository errorCargaRepository;
+
+    /** Muestras guardadas por cada tipo de problema */
+    @Value("${stock.ingesta.max-muestras-error:20}")
+    private int maxMuestras;
+
+    /** Registro vacío, o con lo del intento anterior si la carga se retoma */
+    public RegistroErroresCarga abrir(Long eventoId, boolean retomando) {
+        RegistroErroresCarga registro = new RegistroErroresCarga(maxMuestras);
+        if (retomando) {
+            registro.agregarPrevios(errorCargaRepository.findByEventoCargaIdOrderByCantidadDesc(eventoId));
+        }
+        return registro;
+    }
+
+    /** Reemplaza el resumen guardado del evento */
+    @Transactional
+    public void guardar(Long eventoId, RegistroErroresCarga registro) {
+        errorCargaRepository.deleteByEventoCargaId(eventoId);
+        errorCargaRepository.saveAll(registro.aEntidades(eventoId));
+        if (registro.getTotal() > 0) {
+            log.info("📝 Evento {}: {} problemas de datos registrados", eventoId, registro.getTotal());
+        }
+    }
+
+    @Transactional
+    public void borrar(Long eventoId) {
+        errorCargaRepository.deleteByEventoCargaId(eventoId);
+    }
+
+    /**
+     * Reporte CSV (separado por ';', para Excel en español): una línea por
+     * muestra, con el total del tipo repetido.
+     */
+    public String csv(Long eventoId) {
+        List<ErrorCarga> errores = errorCargaRepository.findByEventoCargaIdOrderByCantidadDesc(eventoId);
+
+        StringBuilder csv = new StringBuilder("tipo;columna;total;fila;valor;detalle\n");
+        for (ErrorCarga e : errores) {
+            String columna = e.getColumna() != null ? StockService.nombreColumna(e.getColumna()) : "";
+            String prefijo = campo(e.getTipo()) + ";" + campo(columna) + ";" + e.getCantidad() + ";";
+
+            if (e.getMuestras() == null || e.getMuestras().isBlank()) {
+                csv.append(prefijo).append(";;\n");
+                continue;
+            }
+            for (String muestra : e.getMuestras().split("\n")) {
+                String[] partes = muestra.split("\t", -1);
+                csv.append(prefijo)
+                        .append(campo(partes.length > 0 ? partes[0] : "")).append(';')
+                        .append(campo(partes.length > 1 ? partes[1] : "")).append(';')
+                        .append(campo(partes.length > 2 ? partes[2] : "")).append('\n');
+            }
+        }
+        return csv.toString();
+    }
+
+    private String campo(String valor) {
+        if (valor == null) {
+            return "";
+        }
+        if (valor.contains(";") || valor.contains("\"")) {
+            return "\"" + valor.replace("\"", "\"\"") + "\"";
+        }
+        return valor;
+    }
+}
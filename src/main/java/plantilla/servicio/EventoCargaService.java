@@ -1,17 +1,44 @@
 package plantilla.servicio;
 
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 import plantilla.dominio.EventoCarga;
 import plantilla.dominio.Sucursal;
+import plantilla.repositorios.ErrorCargaRepository;
 import plantilla.repositorios.EventoCargaRepository;
+import plantilla.repositorios.FilaRechazadaRepository;
+import plantilla.repositorios.StockActualRepository;
+import plantilla.repositorios.StockHistoricoRepository;
+import plantilla.repositorios.SucursalRepository;
 import plantilla.util.TiempoUtils;
 
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
 @Service
+@Slf4j
 public class EventoCargaService {
     @Autowired
     private EventoCargaRepository eventoCargaRepository;
+    @Autowired
+    private SucursalRepository sucursalRepository;
+    @Autowired
+    private StockHistoricoRepository stockHistoricoRepository;
+    @Autowired
+    private ProgresoCargaService progresoCargaService;
+    @Autowired
+    private FilaRechazadaRepository filaRechazadaRepository;
+    @Autowired
+    private ErrorCargaRepository errorCargaRepository;
+    @Autowired
+    private StockActualRepository stockActualRepository;
+    @Autowired
+    private StockResumenDiarioService stockResumenDiarioService;
 
     public EventoCarga buscarPorId(Long id) {
         return eventoCargaRepository.findById(id)
@@ -20,29 +47,274 @@ public class EventoCargaService {
                 ));
     }
 
-    public void marcarCompletado(EventoCarga evento) {
-        evento.setEstado("COMPLETADO");
-        eventoCargaRepository.save(evento);
-    }
-
     public void marcarFallido(Long eventoId, String error) {
         EventoCarga evento = buscarPorId(eventoId);
         evento.setEstado("FALLIDO");
         evento.setObservaciones(error);
+        progresoCargaService.actualizar(eventoCargaRepository.save(evento));
+    }
+
+    /**
+     * El archivo ya está en S3: la carga queda disponible para la cola. Si la
+     * subida tardó tanto que ColaIngestaService la dio por abandonada, no se
+     * revive.
+     */
+    @Transactional
+    public void liberarParaCola(Long eventoId) {
+        EventoCarga evento = buscarPorId(eventoId);
+        if (!"SUBIENDO".equals(evento.getEstado())) {
+            throw new IllegalStateException("La subida del evento " + eventoId + " ya no está en curso (estado: "
+                    + evento.getEstado() + ")");
+        }
+        evento.setEstado("PENDIENTE");
         eventoCargaRepository.save(evento);
     }
-    public boolean existeArchivo(String nombreArchivo) {
-        return eventoCargaRepository.existsByNombreArchivo(nombreArchivo);
+
+    /**
+     * Vuelve a encolar una carga fallida. Al procesarse retoma después del
+     * último bloque confirmado (ver StockService.filaDeReanudacion).
+     * nodo es el que atiende el pedido (ver exigirArchivo).
+     */
+    @Transactional
+    public EventoCarga reanudar(Long eventoId, String nodo) {
+        EventoCarga evento = buscarPorId(eventoId);
+
+        if (evento.getEventoPadreId() != null) {
+            throw new IllegalStateException("Es una partición de un archivo consolidado: reanudá el evento "
+                    + evento.getEventoPadreId());
+        }
+        if (!"FALLIDO".equals(evento.getEstado())) {
+            throw new IllegalStateException("Sólo se puede reanudar una carga FALLIDA (estado actual: "
+                    + evento.getEstado() + ")");
+        }
+        if (evento.getRutaS3() == null && evento.getRutaLocal() == null) {
+            throw new IllegalStateException("La carga no tiene un archivo guardado para reanudar");
+        }
+        exigirArchivo(evento, nodo);
+
+        reservarSucursal(evento.getSucursal(), Boolean.TRUE.equals(evento.getCargaHistorica()));
+
+        evento.setEstado("PENDIENTE");
+        evento.setIntentos(0);
+        evento.setObservaciones(evento.getFilaConfirmada() != null
+                ? "Reanudada después de la fila " + evento.getFilaConfirmada()
+                : "Reanudada desde el inicio");
+        return eventoCargaRepository.save(evento);
+    }
+
+    /**
+     * Deshace una carga terminada (o fallida): borra sus filas por rango de ids
+     * y repara el diffAnterior / nuevoIngreso de los registros que las seguían.
+     * Un consolidado se revierte entero, con sus particiones. Todo en una
+     * transacción: o se revierte la carga completa o nada.
+     */
+    @Transactional
+    public EventoCarga revertir(Long eventoId) {
+        EventoCarga evento = buscarPorId(eventoId);
+
+        if (evento.getEventoPadreId() != null) {
+            throw new IllegalStateException("Es una partición de un archivo consolidado: revertí el evento "
+                    + evento.getEventoPadreId());
+        }
+        if (!"COMPLETADO".equals(evento.getEstado()) && !"FALLIDO".equals(evento.getEstado())) {
+            throw new IllegalStateException("Sólo se puede revertir una carga COMPLETADA o FALLIDA (estado actual: "
+                    + evento.getEstado() + ")");
+        }
+
+        List<EventoCarga> eventos = new ArrayList<>();
+        eventos.add(evento);
+        eventos.addAll(eventoCargaRepository.findByEventoPadreIdOrderByIdAsc(eventoId));
+
+        int borrados = 0;
+        for (EventoCarga e : eventos) {
+            borrados += borrarFilas(e);
+        }
+
+        for (EventoCarga e : eventos) {
+            e.setEstado("REVERTIDO");
+            e.setIdStockInicial(null);
+            e.setIdStockFinal(null);
+            e.setProcesados(0);
+            e.setPorcentaje(0);
+            e.setFilasRechazadas(0);
+            e.setErroresDatos(0);
+            e.setObservaciones("Revertida: " + borrados + " registros borrados");
+            eventoCargaRepository.reiniciarCheckpoint(e.getId());
+            progresoCargaService.actualizar(eventoCargaRepository.save(e));
+        }
+        log.info("⏪ Evento {} revertido: {} registros borrados ({} eventos)", eventoId, borrados, eventos.size());
+        return evento;
     }
 
+    /**
+     * Revierte la carga y la vuelve a encolar con el mismo archivo: la copia
+     * de S3 (o la del spool de este nodo, mientras no la borre la limpieza).
+     */
+    @Transactional
+    public EventoCarga reprocesar(Long eventoId, String nodo) {
+        EventoCarga evento = buscarPorId(eventoId);
+        if (evento.getRutaS3() == null && evento.getRutaLocal() == null) {
+            throw new IllegalStateException("El archivo ya no está guardado: volvé a subirlo");
+        }
+        exigirArchivo(evento, nodo);
+
+        evento = revertir(eventoId);
+        reservarSucursal(evento.getSucursal(), Boolean.TRUE.equals(evento.getCargaHistorica()));
+
+        evento.setEstado("PENDIENTE");
+        evento.setIntentos(0);
+        evento.setObservaciones("Reproceso: " + evento.getObservaciones());
+        return eventoCargaRepository.save(evento);
+    }
+
+    /**
+     * Una carga sin copia en S3 sólo se puede retomar si su archivo sigue en
+     * el spool (la limpieza lo borra al vencer stock.spool.retencion-horas).
+     * Sólo el nodo que la recibió puede comprobarlo; en otro nodo lo comprueba
+     * la cola al tomarla (StockAsyncService.procesarDesdeLocal).
+     */
+    private void exigirArchivo(EventoCarga evento, String nodo) {
+        if (evento.getRutaS3() != null || !Objects.equals(nodo, evento.getNodo())) {
+            return;
+        }
+        if (!Files.exists(Paths.get(evento.getRutaLocal()))) {
+            throw new IllegalStateException("El archivo de la carga ya no está en el spool de " + nodo
+                    + " (se borra al vencer la retención): volvé a subirlo");
+        }
+    }
+
+    private int borrarFilas(EventoCarga evento) {
+        sucursalRepository.bloquearPorId(evento.getSucursal().getId());
+        if (eventoCargaRepository.existeCargaEnConflicto(evento.getSucursal().getId(),
+                List.of("EN_PROCESO"), evento.getId(), false)) {
+            throw new IllegalStateException("Hay una carga de stock en proceso para la sucursal "
+                    + evento.getSucursal().getNombre() + ": esperá a que termine");
+        }
+
+        filaRechazadaRepository.deleteByEventoCargaId(evento.getId());
+        errorCargaRepository.deleteByEventoCargaId(evento.getId());
+
+        Long desde = evento.getIdStockInicial();
+        Long hasta = evento.getIdStockFinal();
+        if (desde == null || hasta == null || !"COMPLETADO".equals(evento.getEstado())) {
+            // una carga cortada pudo escribir más de lo que llegó a guardar en el evento
+            for (Object[] rango : stockHistoricoRepository.findRangoIdsByEventoCargaId(evento.getId())) {
+                desde = rango[0] != null ? ((Number) rango[0]).longValue() : null;
+                hasta = rango[1] != null ? ((Number) rango[1]).longValue() : null;
+            }
+        }
+        if (desde == null || hasta == null) {
+            return 0;
+        }
+
+        Long sucursalId = evento.getSucursal().getId();
+        stockHistoricoRepository.repararSucesoresDeEvento(evento.getId(), desde, hasta, sucursalId);
+        int borrados = stockHistoricoRepository.deleteByEventoCargaIdEnRango(evento.getId(), desde, hasta);
+
+        // los productos cuyo stock vigente venía de esta carga vuelven a su registro anterior
+        stockActualRepository.recalcularBorrados(sucursalId, desde, hasta);
+        stockActualRepository.borrarHuerfanos(sucursalId);
+        if (evento.getFechaArchivo() != null) {
+            stockResumenDiarioService.alConfirmar(sucursalId, evento.getFechaArchivo());
+        }
+        return borrados;
+    }
+
+    /**
+     * Evento propio para las filas de otro depósito dentro de un archivo
+     * consolidado: mismo archivo, fecha y lote que el padre. Si el padre se
+     * reanuda, se reutiliza la partición que ya tenía esa sucursal y sigue
+     * desde su checkpoint.
+     * Las cargas pendientes de la sucursal esperan a la partición (la cola no
+     * toma una sucursal con algo EN_PROCESO); sólo otra carga ya en proceso
+     * impide abrirla.
+     */
+    @Transactional
+    public EventoCarga abrirParticion(EventoCarga padre, Sucursal sucursal) {
+        sucursalRepository.bloquearPorId(sucursal.getId())
+                .orElseThrow(() -> new IllegalStateException(
+                        "Sucursal no encontrada: " + sucursal.getId()));
+
+        EventoCarga particion = eventoCargaRepository
+                .findFirstByEventoPadreIdAndSucursal_Id(padre.getId(), sucursal.getId())
+                .orElseGet(EventoCarga::new);
+
+        if (eventoCargaRepository.existeCargaEnConflicto(sucursal.getId(), List.of("EN_PROCESO"),
+                particion.getId() != null ? particion.getId() : -1L,
+                Boolean.TRUE.equals(padre.getCargaHistorica()))) {
+            throw new IllegalStateException(
+                    "Ya existe una carga de stock en proceso para la sucursal " + sucursal.getNombre());
+        }
+
+        if (particion.getId() == null) {
+            particion.setNombreArchivo(padre.getNombreArchivo());
+            particion.setSucursal(sucursal);
+            particion.setFecha(TiempoUtils.ahora());
+            particion.setFechaArchivo(padre.getFechaArchivo());
+            particion.setModulo("Stock");
+            particion.setUsuario(padre.getUsuario());
+            particion.setLote(padre.getLote());
+            particion.setEventoPadreId(padre.getId());
+            particion.setCargaHistorica(padre.getCargaHistorica());
+            particion.setProcesados(0);
+            particion.setPorcentaje(0);
+        }
+        particion.setNodo(padre.getNodo());
+        particion.setIntentos(padre.getIntentos());
+        particion.setObservaciones(null);
+        particion.setEstado("EN_PROCESO");
+
+        return eventoCargaRepository.save(particion);
+    }
+
+    /**
+     * Una sola carga en curso (pendiente o en proceso) por sucursal, salvo
+     * entre cargas históricas. Toma el lock de fila de la sucursal, así dos
+     * altas simultáneas para la misma sucursal no pasan ambas el chequeo.
+     * Debe llamarse dentro de la transacción que crea el evento.
+     */
+    private void reservarSucursal(Sucursal sucursal, boolean cargaHistorica) {
+        sucursalRepository.bloquearPorId(sucursal.getId())
+                .orElseThrow(() -> new IllegalStateException(
+                        "Sucursal no encontrada: " + sucursal.getId()));
+
+        if (eventoCargaRepository.existeCargaEnConflicto(sucursal.getId(),
+                List.of("SUBIENDO", "PENDIENTE", "EN_PROCESO"), -1L, cargaHistorica)) {
+            throw new IllegalStateException(
+                    "Ya existe una carga de stock en proceso para la sucursal " + sucursal.getNombre());
+        }
+    }
+
+    /**
+     * El mismo contenido no se carga dos veces, aunque venga con otro nombre.
+     * Corre después de reservarSucursal: con el lock de la sucursal tomado, dos
+     * subidas simultáneas del mismo archivo no pasan ambas.
+     */
+    private void rechazarDuplicado(String hashContenido) {
+        if (hashContenido == null) {
+            return;
+        }
+        eventoCargaRepository.findFirstByHashContenidoAndEstadoNotIn(hashContenido, List.of("FALLIDO", "REVERTIDO"))
+                .ifPresent(previo -> {
+                    throw new IllegalStateException("El contenido ya fue cargado como '"
+                            + previo.getNombreArchivo() + "' (evento " + previo.getId() + ")");
+                });
+    }
+
+    @Transactional
     public EventoCarga crearEventoInicialS3(
             String nombreArchivo,
             Sucursal sucursal,
             LocalDate fechaStock,
             String usuario,
-            int totalRegistros,
+            Integer totalRegistros,
             String s3Key,
-            String observaciones) {
+            String nodo,
+            String observaciones,
+            String hashContenido) {
+
+        reservarSucursal(sucursal, false);
+        rechazarDuplicado(hashContenido);
 
         EventoCarga evento = new EventoCarga();
         evento.setNombreArchivo(nombreArchivo);
@@ -51,9 +323,11 @@ public class EventoCargaService {
         evento.setFechaArchivo(fechaStock);
         evento.setModulo("Stock");
         evento.setRutaS3(s3Key);
+        evento.setHashContenido(hashContenido);
         evento.setUsuario(usuario);
         evento.setObservaciones(observaciones);
-        evento.setEstado("EN_PROCESO");
+        evento.setNodo(nodo); // el que sube: si deja de latir, la subida se da por perdida
+        evento.setEstado("SUBIENDO"); // pasa a PENDIENTE cuando el archivo está en S3
         evento.setTotalRegistros(totalRegistros);
         evento.setProcesados(0);
         evento.setPorcentaje(0);
@@ -61,12 +335,21 @@ public class EventoCargaService {
         return eventoCargaRepository.save(evento);
     }
 
+    @Transactional
     public EventoCarga crearEventoInicial(
             String nombreArchivo,
             Sucursal sucursal,
             LocalDate fechaStock,
             String usuario,
-            int totalRegistros) {
+            Integer totalRegistros,
+            String rutaLocal,
+            String nodo,
+            String hashContenido,
+            String lote,
+            boolean cargaHistorica) {
+
+        reservarSucursal(sucursal, cargaHistorica);
+        rechazarDuplicado(hashContenido);
 
         EventoCarga evento = new EventoCarga();
         evento.setNombreArchivo(nombreArchivo);
@@ -76,8 +359,14 @@ public class EventoCargaService {
         evento.setModulo("Stock");
 
         evento.setUsuario(usuario);
+        // el archivo sólo existe en este nodo: sólo este nodo puede tomarla
+        evento.setRutaLocal(rutaLocal);
+        evento.setHashContenido(hashContenido);
+        evento.setLote(lote);
+        evento.setCargaHistorica(cargaHistorica);
+        evento.setNodo(nodo);
 
-        evento.setEstado("EN_PROCESO");
+        evento.setEstado("PENDIENTE"); // lo toma ColaIngestaService
         evento.setTotalRegistros(totalRegistros);
         evento.setProcesados(0);
         evento.setPorcentaje(0);
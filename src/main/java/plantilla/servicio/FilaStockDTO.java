@@ -0,0 +1,59 @@
+package plantilla.servicio;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import plantilla.util.ErroresCelda;
+import plantilla.util.Validadores;
+
+import static plantilla.servicio.StockService.*;
+
+/**
+ * Fila de un archivo de inventario ya decodificada.
+ * Desacopla el procesamiento por bloques del modelo de celdas de POI: la
+ * arma la lectura streaming (LectorExcelStreaming) a partir de los valores.
+ */
+@Data
+@NoArgsConstructor
+public class FilaStockDTO {
+    private int numeroFila;
+
+    private String deposito;
+    private String codDeposito;
+    private Long idDeposito;
+
+    private String masterId;
+    private String sku;
+    private String color;
+    private String descripcion;
+    private String ambiente;
+    private String familia;
+    private String nivel3;
+    private String nivel4;
+    private Integer cantidad;
+
+    public static FilaStockDTO desdeValores(int numeroFila, Object[] valores) {
+        return desdeValores(numeroFila, valores, Validadores.LOG);
+    }
+
+    public static FilaStockDTO desdeValores(int numeroFila, Object[] valores, ErroresCelda errores) {
+        FilaStockDTO f = new FilaStockDTO();
+        f.setNumeroFila(numeroFila);
+        f.setDeposito(Validadores.safeString(valor(valores, IDX_DEPOSITO), IDX_DEPOSITO, errores));
+        f.setCodDeposito(Validadores.safeString(valor(valores, IDX_COD_DEPOSITO), IDX_COD_DEPOSITO, errores));
+        f.setIdDeposito(Validadores.safeLong(valor(valores, IDX_ID_DEPOSITO), IDX_ID_DEPOSITO, errores));
+        f.setMasterId(Validadores.safeString(valor(valores, IDX_MASTER_ID), IDX_MASTER_ID, errores));
+        f.setSku(Validadores.safeString(valor(valores, IDX_SKU), IDX_SKU, errores));
+        f.setColor(Validadores.safeString(valor(valores, IDX_COLOR), IDX_COLOR, errores));
+        f.setDescripcion(Validadores.safeString(valor(valores, IDX_DESCRIPCION), IDX_DESCRIPCION, errores));
+        f.setAmbiente(Validadores.safeString(valor(valores, IDX_AMBIENTE), IDX_AMBIENTE, errores));
+        f.setFamilia(Validadores.safeString(valor(valores, IDX_FAMILIA), IDX_FAMILIA, errores));
+        f.setNivel3(Validadores.safeString(valor(valores, IDX_NIVEL3), IDX_NIVEL3, errores));
+        f.setNivel4(Validadores.safeString(valor(valores, IDX_NIVEL4), IDX_NIVEL4, errores));
+        f.setCantidad(Validadores.safeInt(valor(valores, IDX_CANTIDAD), IDX_CANTIDAD, errores));
+        return f;
+    }
+
+    private static Object valor(Object[] valores, int index) {
+        return index < valores.length ? valores[index] : null;
+    }
+}
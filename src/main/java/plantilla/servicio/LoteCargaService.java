@@ -0,0 +1,270 @@
+package plantilla.servicio;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+import plantilla.dominio.EventoCarga;
+import plantilla.dominio.Sucursal;
+import plantilla.repositorios.EventoCargaRepository;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Subida de varios inventarios juntos (un ZIP y/o varios archivos): un
+ * EventoCarga por archivo, todos con el mismo lote. La cola los procesa en
+ * paralelo entre sucursales con los hilos de ingestaExecutor.
+ * En una carga histórica (backfill) cada archivo toma la fecha de su nombre,
+ * varios archivos de una misma sucursal pueden ir en el mismo lote y las filas
+ * se escriben en crudo hasta que CargaHistoricaService recalcula el lote.
+ */
+@Service
+@Slf4j
+public class LoteCargaService {
+
+    @Autowired
+    private StockService stockService;
+
+    @Autowired
+    private EventoCargaService eventoCargaService;
+
+    @Autowired
+    private EventoCargaRepository eventoCargaRepository;
+
+    @Autowired
+    private SpoolArchivosService spoolArchivosService;
+
+    @Autowired
+    private ColaIngestaService colaIngestaService;
+
+    @Autowired
+    private ProgresoCargaService progresoCargaService;
+
+    @Value("${stock.lote.max-archivos:200}")
+    private int maxArchivos;
+
+    private static final Pattern FECHA_EN_NOMBRE =
+            Pattern.compile("(?<!\\d)(20\\d{2})[-_.]?(\\d{2})[-_.]?(\\d{2})(?!\\d)");
+
+    public List<ArchivoLoteDTO> recibirLote(
+            String lote,
+            List<MultipartFile> archivos,
+            LocalDate fechaStock,
+            String usuario,
+            boolean cargaHistorica) throws IOException {
+
+        List<ArchivoLoteDTO> resultados = new ArrayList<>();
+
+        for (MultipartFile archivo : archivos) {
+            String nombre = archivo.getOriginalFilename();
+            if (nombre == null || archivo.isEmpty()) {
+                continue;
+            }
+
+            if (nombre.toLowerCase().endsWith(".zip")) {
+                try (ZipInputStream zip = new ZipInputStream(archivo.getInputStream())) {
+                    ZipEntry entrada;
+                    while ((entrada = zip.getNextEntry()) != null) {
+                        String nombreEntrada = nombreEntrada(entrada);
+                        if (nombreEntrada == null) {
+                            continue;
+                        }
+                        if (lleno(resultados)) {
+                            resultados.add(excedente(nombreEntrada));
+                            continue;
+                        }
+                        resultados.add(recibir(zip, nombreEntrada, entrada.getSize(), fechaStock, usuario, lote, cargaHistorica));
+                    }
+                }
+            } else {
+                if (lleno(resultados)) {
+                    resultados.add(excedente(nombre));
+                    continue;
+                }
+                try (InputStream in = archivo.getInputStream()) {
+                    resultados.add(recibir(in, nombre, archivo.getSize(), fechaStock, usuario, lote, cargaHistorica));
+                }
+            }
+        }
+
+        long encolados = resultados.stream().filter(r -> r.getEventoId() != null).count();
+        log.info("📦 Lote {}: {} de {} archivos encolados", lote, encolados, resultados.size());
+
+        colaIngestaService.reclamarPendientes();
+        return resultados;
+    }
+
+    private ArchivoLoteDTO recibir(
+            InputStream contenido,
+            String nombreArchivo,
+            long tamanio,
+            LocalDate fechaStock,
+            String usuario,
+            String lote,
+            boolean cargaHistorica) {
+
+        if (!esExcel(nombreArchivo)) {
+            return new ArchivoLoteDTO(nombreArchivo, "warn", "⚠️ No es un Excel, se ignora.", null);
+        }
+        if (!nombreArchivo.toLowerCase().contains("inventory")) {
+            return new ArchivoLoteDTO(nombreArchivo, "warn", "⚠️ Tipo de archivo no reconocido.", null);
+        }
+
+        // en una carga histórica cada archivo trae su propia fecha
+        LocalDate fecha = cargaHistorica ? fechaDesdeNombre(nombreArchivo, fechaStock) : fechaStock;
+        if (fecha.isAfter(LocalDate.now())) {
+            return new ArchivoLoteDTO(nombreArchivo, "error", "📅 La fecha del stock no puede ser futura.", null);
+        }
+
+        ArchivoSpoolDTO spool = null;
+        boolean encolado = false;
+        try {
+            spool = spoolArchivosService.guardar(contenido, nombreArchivo, tamanio);
+
+            PreflightStockDTO preflight = stockService.leerEncabezado(spool.getArchivo());
+            if (preflight.getPrimeraFila() == null) {
+                return new ArchivoLoteDTO(nombreArchivo, "error", "⚠️ El archivo no contiene datos.", null);
+            }
+
+            Sucursal sucursal = stockService.resolverSucursalDesdeFila(preflight.getPrimeraFila(), nombreArchivo);
+
+            EventoCarga evento = eventoCargaService.crearEventoInicial(
+                    nombreArchivo,
+                    sucursal,
+                    fecha,
+                    usuario,
+                    preflight.getTotalRegistros(),
+                    spool.getArchivo().getAbsolutePath(),
+                    colaIngestaService.getNodo(),
+                    spool.getSha256(),
+                    lote,
+                    cargaHistorica);
+            encolado = true;
+
+            return new ArchivoLoteDTO(nombreArchivo, "ok",
+                    "📦 Encolado para " + sucursal.getNombre()
+                            + (cargaHistorica ? " (" + fecha + ")" : ""), evento.getId());
+
+        } catch (IllegalStateException | IllegalArgumentException e) {
+            // duplicado, sucursal ocupada, formato viejo, etc.: sólo afecta a este archivo
+            return new ArchivoLoteDTO(nombreArchivo, "error", "⚠️ " + e.getMessage(), null);
+        } catch (IOException e) {
+            log.error("❌ Error al recibir {} del lote {}", nombreArchivo, lote, e);
+            return new ArchivoLoteDTO(nombreArchivo, "error", "❌ Error al leer el archivo: " + e.getMessage(), null);
+        } finally {
+            if (!encolado && spool != null) {
+                spoolArchivosService.liberar(spool.getArchivo());
+            }
+        }
+    }
+
+    /**
+     * Progreso agregado del lote. Las cargas que corren en este nodo se toman
+     * de ProgresoCargaService; el resto, de la base.
+     * Las particiones de un archivo consolidado se listan pero no suman filas:
+     * el porcentaje de su evento padre ya es el del archivo completo.
+     */
+    public ProgresoLoteDTO progresoLote(String lote) {
+        List<EventoCarga> eventos = eventoCargaRepository.findByLoteOrderByIdAsc(lote);
+        if (eventos.isEmpty()) {
+            return null;
+        }
+
+        List<ProgresoCargaDTO> progresos = new ArrayList<>(eventos.size());
+        int completados = 0;
+        int fallidos = 0;
+        long procesados = 0;
+        long total = 0;
+
+        for (EventoCarga e : eventos) {
+            ProgresoCargaDTO p = progresoCargaService.buscar(e.getId());
+            if (p == null) {
+                p = ProgresoCargaDTO.desdeEvento(e);
+            }
+            progresos.add(p);
+
+            if ("COMPLETADO".equals(p.getEstado())) {
+                completados++;
+            } else if (p.isFinalizado()) { // fallida o revertida
+                fallidos++;
+            }
+            if (e.getEventoPadreId() != null) {
+                continue;
+            }
+
+            int filas = p.getTotal() != null ? p.getTotal() : (p.getProcesados() != null ? p.getProcesados() : 0);
+            int hechos = p.getPorcentaje() != null ? filas * p.getPorcentaje() / 100 : 0;
+            // una carga terminada (bien o mal) ya no suma trabajo pendiente
+            procesados += p.isFinalizado() ? filas : hechos;
+            total += filas;
+        }
+
+        int porcentaje = total > 0 ? (int) Math.min(100, procesados * 100 / total) : 0;
+        boolean finalizado = completados + fallidos == eventos.size();
+
+        return new ProgresoLoteDTO(
+                lote,
+                eventos.size(),
+                completados,
+                fallidos,
+                eventos.size() - completados - fallidos,
+                procesados,
+                total,
+                finalizado ? 100 : porcentaje,
+                finalizado,
+                progresos);
+    }
+
+    private boolean lleno(List<ArchivoLoteDTO> resultados) {
+        return resultados.size() >= maxArchivos;
+    }
+
+    private ArchivoLoteDTO excedente(String nombreArchivo) {
+        return new ArchivoLoteDTO(nombreArchivo, "error",
+                "⚠️ Se superó el máximo de " + maxArchivos + " archivos por lote, no se cargó.", null);
+    }
+
+    /** Nombre del archivo dentro del ZIP, o null si la entrada no es un archivo a cargar */
+    private String nombreEntrada(ZipEntry entrada) {
+        if (entrada.isDirectory() || entrada.getName().startsWith("__MACOSX/")) {
+            return null;
+        }
+        String nombre = entrada.getName();
+        nombre = nombre.substring(nombre.lastIndexOf('/') + 1);
+        return nombre.isBlank() || nombre.startsWith(".") ? null : nombre;
+    }
+
+    /**
+     * Fecha del inventario en el nombre del archivo (2024-03-15, 2024_03_15 o
+     * 20240315); si no la tiene, la fecha elegida en el formulario.
+     */
+    static LocalDate fechaDesdeNombre(String nombre, LocalDate porDefecto) {
+        Matcher m = FECHA_EN_NOMBRE.matcher(nombre);
+        while (m.find()) {
+            try {
+                return LocalDate.of(
+                        Integer.parseInt(m.group(1)),
+                        Integer.parseInt(m.group(2)),
+                        Integer.parseInt(m.group(3)));
+            } catch (DateTimeException e) {
+                // no era una fecha (ej. un código de depósito): seguir buscando
+            }
+        }
+        return porDefecto;
+    }
+
+    private boolean esExcel(String nombre) {
+        String lower = nombre.toLowerCase();
+        return lower.endsWith(".xlsx") || lower.endsWith(".xls");
+    }
+}
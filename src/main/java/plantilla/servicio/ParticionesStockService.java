@@ -0,0 +1,279 @@
+package plantilla.servicio;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import plantilla.repositorios.StockActualRepository;
+import plantilla.util.TiempoUtils;
+
+import javax.annotation.PostConstruct;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Particionado mensual de stock_historico por fecha_stock: una partición por
+ * mes (stock_historico_pAAAA_MM), así las consultas acotadas por fecha sólo
+ * leen los meses del rango y los meses viejos se pueden sacar sin borrar filas.
+ * Las migraciones (db/migration) la crean sin particionar: al arrancar se
+ * convierte en una transacción, automáticamente si está vacía (una base
+ * nueva), con historia sólo si stock.particiones.migrar=true (copia toda la
+ * tabla).
+ * Las particiones de los meses siguientes se crean por adelantado; una carga
+ * de un mes sin partición (ej. una histórica) la crea antes de escribir.
+ * Los meses desacoplados quedan en stock_meses_desacoplados, siempre desde el
+ * más viejo: ni las cargas ni las reconstrucciones del resumen diario llegan
+ * a fechas anteriores a primerDiaAcoplado().
+ */
+@Service
+@Slf4j
+public class ParticionesStockService {
+
+    private static final String TABLA = "stock_historico";
+    private static final String TABLA_ANTERIOR = "stock_historico_sin_particionar";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    /** También asegura que Flyway ya migró el esquema antes de preparar() */
+    @Autowired
+    private StockActualRepository stockActualRepository;
+
+    /** Convertir una tabla con historia: copia todas las filas, con la tabla bloqueada */
+    @Value("${stock.particiones.migrar:false}")
+    private boolean migrar;
+
+    /** Meses siguientes al actual que se crean por adelantado */
+    @Value("${stock.particiones.meses-adelante:3}")
+    private int mesesAdelante;
+
+    private final TransactionTemplate transactionTemplate;
+
+    /** Meses con partición ya verificada, para no consultar el catálogo en cada carga */
+    private final Set<YearMonth> existentes = ConcurrentHashMap.newKeySet();
+
+    private volatile boolean particionada;
+
+    public ParticionesStockService(PlatformTransactionManager transactionManager) {
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    /** Antes de que arranquen la cola y los @Scheduled: nadie escribe stock todavía */
+    @PostConstruct
+    void preparar() {
+        particionada = Boolean.TRUE.equals(jdbcTemplate.queryForObject(
+                "SELECT EXISTS (SELECT 1 FROM pg_class WHERE oid = to_regclass(?) AND relkind = 'p')", Boolean.class, TABLA));
+        if (particionada) {
+            return;
+        }
+        if (!migrar && stockActualRepository.hayHistoria()) {
+            log.warn("⚠️ {} no está particionada. Para convertirla (copia toda la historia) "
+                    + "arrancar una vez con stock.particiones.migrar=true", TABLA);
+            return;
+        }
+        transactionTemplate.executeWithoutResult(status -> convertir());
+        particionada = true;
+    }
+
+    /**
+     * Renombra la tabla actual, crea la particionada con las mismas columnas
+     * (y la misma secuencia de ids), copia las filas y rearma la PK, los
+     * mismos índices que tenía (incluidos los parciales de las migraciones) y las FKs.
+     * La PK pasa a ser (id, fecha_stock): una tabla particionada sólo admite
+     * claves únicas que incluyan la columna de partición. Los ids siguen
+     * saliendo de la secuencia, así que id sigue siendo único.
+     */
+    private void convertir() {
+        long inicio = System.currentTimeMillis();
+
+        jdbcTemplate.execute("ALTER TABLE " + TABLA + " RENAME TO " + TABLA_ANTERIOR);
+        List<String> indices = jdbcTemplate.queryForList("""
+                SELECT pg_get_indexdef(indexrelid)
+                FROM pg_index
+                WHERE indrelid = to_regclass(?)
+                  AND NOT EXISTS (SELECT 1 FROM pg_constraint WHERE conindid = indexrelid)
+                """, String.class, TABLA_ANTERIOR);
+        String secuencia = jdbcTemplate.queryForObject(
+                "SELECT pg_get_serial_sequence(?, 'id')", String.class, TABLA_ANTERIOR);
+        if (secuencia == null) {
+            throw new IllegalStateException("No se encontró la secuencia de ids de " + TABLA);
+        }
+
+        jdbcTemplate.execute("CREATE TABLE " + TABLA + " (LIKE " + TABLA_ANTERIOR + " INCLUDING DEFAULTS)"
+                + " PARTITION BY RANGE (fecha_stock)");
+        // sin esto la secuencia se borraría con la tabla anterior
+        jdbcTemplate.execute("ALTER SEQUENCE " + secuencia + " OWNED BY " + TABLA + ".id");
+
+        YearMonth desde = YearMonth.from(TiempoUtils.ahora());
+        YearMonth hasta = desde.plusMonths(mesesAdelante);
+        for (Map<String, Object> rango : jdbcTemplate.queryForList(
+                "SELECT MIN(fecha_stock) AS minima, MAX(fecha_stock) AS maxima FROM " + TABLA_ANTERIOR)) {
+            LocalDate minima = TiempoUtils.aFecha(rango.get("minima"));
+            LocalDate maxima = TiempoUtils.aFecha(rango.get("maxima"));
+            if (minima != null && YearMonth.from(minima).isBefore(desde)) {
+                desde = YearMonth.from(minima);
+            }
+            if (maxima != null && YearMonth.from(maxima).isAfter(hasta)) {
+                hasta = YearMonth.from(maxima);
+            }
+        }
+        for (YearMonth mes = desde; !mes.isAfter(hasta); mes = mes.plusMonths(1)) {
+            crear(mes);
+        }
+
+        int filas = jdbcTemplate.update("INSERT INTO " + TABLA + " SELECT * FROM " + TABLA_ANTERIOR);
+        jdbcTemplate.execute("DROP TABLE " + TABLA_ANTERIOR);
+
+        // los índices se borraron con la tabla anterior: mismos nombres, ahora en cada partición
+        jdbcTemplate.execute("ALTER TABLE " + TABLA + " ADD CONSTRAINT stock_historico_pkey PRIMARY KEY (id, fecha_stock)");
+        for (String indice : indices) {
+            jdbcTemplate.execute(indice.replaceFirst(
+                    " ON (\\S+\\.)?" + TABLA_ANTERIOR + " ", " ON " + TABLA + " "));
+        }
+        jdbcTemplate.execute("ALTER TABLE " + TABLA + " ADD CONSTRAINT fk_stock_historico_producto"
+                + " FOREIGN KEY (producto_id) REFERENCES productos (id)");
+        jdbcTemplate.execute("ALTER TABLE " + TABLA + " ADD CONSTRAINT fk_stock_historico_sucursal"
+                + " FOREIGN KEY (sucursal_id) REFERENCES sucursales (id)");
+        jdbcTemplate.execute("ALTER TABLE " + TABLA + " ADD CONSTRAINT fk_stock_historico_evento_carga"
+                + " FOREIGN KEY (evento_carga_id) REFERENCES eventos_carga (id)");
+
+        log.info("🗂️ {} particionada por mes ({} a {}): {} filas copiadas en {} ms",
+                TABLA, desde, hasta, filas, System.currentTimeMillis() - inicio);
+    }
+
+    /** Partición del mes actual y de los siguientes, por adelantado */
+    @Scheduled(fixedDelayString = "${stock.particiones.mantenimiento-ms:86400000}")
+    public void mantener() {
+        if (!particionada) {
+            return;
+        }
+        LocalDate hoy = TiempoUtils.ahora().toLocalDate();
+        for (int i = 0; i <= mesesAdelante; i++) {
+            asegurar(hoy.plusMonths(i));
+        }
+    }
+
+    /**
+     * Crea la partición del mes de la fecha si falta. Llamar antes de abrir
+     * la transacción que escribe: crear una partición bloquea stock_historico.
+     * Un mes ya desacoplado no se vuelve a crear: la carga se rechaza.
+     */
+    public void asegurar(LocalDate fecha) {
+        if (!particionada || fecha == null) {
+            return;
+        }
+        YearMonth mes = YearMonth.from(fecha);
+        if (existentes.contains(mes)) {
+            return;
+        }
+        LocalDate primerDia = primerDiaAcoplado();
+        if (primerDia != null && fecha.isBefore(primerDia)) {
+            throw new IllegalStateException("El stock de " + mes + " fue desacoplado de " + TABLA
+                    + ": no se pueden cargar fechas anteriores al " + primerDia);
+        }
+        try {
+            transactionTemplate.executeWithoutResult(status -> crear(mes));
+        } catch (DataAccessException e) {
+            // otro nodo pudo crearla al mismo tiempo
+            if (!existe(nombre(mes))) {
+                throw e;
+            }
+        }
+        existentes.add(mes);
+    }
+
+    /** Returns: una fila por partición con nombre, rango y filas estimadas (estadísticas) */
+    public List<Map<String, Object>> listar() {
+        return jdbcTemplate.queryForList("""
+                SELECT c.relname AS nombre,
+                       pg_get_expr(c.relpartbound, c.oid) AS rango,
+                       GREATEST(c.reltuples, 0)::bigint AS filas_estimadas
+                FROM pg_inherits i
+                JOIN pg_class c ON c.oid = i.inhrelid
+                WHERE i.inhparent = to_regclass(?)
+                ORDER BY c.relname
+                """, TABLA);
+    }
+
+    /**
+     * Primer día que sigue en stock_historico: el siguiente al último mes
+     * desacoplado, o null si no se desacopló ninguno. Se lee de la base en
+     * cada llamada: otro nodo pudo desacoplar un mes.
+     */
+    public LocalDate primerDiaAcoplado() {
+        LocalDate ultimo = TiempoUtils.aFecha(jdbcTemplate.queryForObject(
+                "SELECT MAX(mes) FROM stock_meses_desacoplados", Object.class));
+        return ultimo != null ? ultimo.plusMonths(1) : null;
+    }
+
+    /**
+     * Saca un mes viejo de stock_historico sin copiar ni borrar filas: queda
+     * como tabla suelta (stock_historico_pAAAA_MM_archivo) que se puede
+     * respaldar y borrar. El resumen diario y los cierres semanales de ese mes
+     * no se tocan y ya no se rearman. Los meses se desacoplan del más viejo al
+     * más nuevo, y no se permite si algún stock vigente (stock_actual) sale de
+     * ese mes.
+     */
+    public long desacoplar(YearMonth mes) {
+        if (!particionada) {
+            throw new IllegalStateException(TABLA + " no está particionada");
+        }
+        if (!mes.isBefore(YearMonth.from(TiempoUtils.ahora()))) {
+            throw new IllegalStateException("Sólo se pueden desacoplar meses anteriores al actual");
+        }
+        String particion = nombre(mes);
+        if (!existe(particion)) {
+            throw new IllegalStateException("No hay partición para " + mes);
+        }
+        for (Map<String, Object> anterior : listar()) {
+            // los nombres (stock_historico_pAAAA_MM) ordenan por mes
+            if (anterior.get("nombre").toString().compareTo(particion) < 0) {
+                throw new IllegalStateException("Los meses se desacoplan del más viejo al más nuevo: primero "
+                        + anterior.get("nombre"));
+            }
+        }
+        Boolean vigente = jdbcTemplate.queryForObject(
+                "SELECT EXISTS (SELECT 1 FROM stock_actual WHERE fecha_stock >= ? AND fecha_stock < ?)",
+                Boolean.class, mes.atDay(1), mes.plusMonths(1).atDay(1));
+        if (Boolean.TRUE.equals(vigente)) {
+            throw new IllegalStateException("Hay productos cuyo stock vigente es de " + mes
+                    + ": desacoplarlo los dejaría sin registro");
+        }
+
+        Long filas = transactionTemplate.execute(status -> {
+            Long contadas = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM " + particion, Long.class);
+            jdbcTemplate.execute("ALTER TABLE " + TABLA + " DETACH PARTITION " + particion);
+            jdbcTemplate.execute("ALTER TABLE " + particion + " RENAME TO " + particion + "_archivo");
+            jdbcTemplate.update("INSERT INTO stock_meses_desacoplados (mes, tabla, filas, fecha) VALUES (?, ?, ?, ?)",
+                    mes.atDay(1), particion + "_archivo", contadas, TiempoUtils.ahora());
+            return contadas;
+        });
+        existentes.remove(mes);
+        log.info("🗂️ Partición {} desacoplada ({} filas) como {}_archivo", particion, filas, particion);
+        return filas != null ? filas : 0L;
+    }
+
+    private void crear(YearMonth mes) {
+        jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS " + nombre(mes)
+                + " PARTITION OF " + TABLA
+                + " FOR VALUES FROM ('" + mes.atDay(1) + "') TO ('" + mes.plusMonths(1).atDay(1) + "')");
+    }
+
+    private boolean existe(String tabla) {
+        return Boolean.TRUE.equals(jdbcTemplate.queryForObject(
+                "SELECT to_regclass(?) IS NOT NULL", Boolean.class, tabla));
+    }
+
+    private static String nombre(YearMonth mes) {
+        return String.format("%s_p%04d_%02d", TABLA, mes.getYear(), mes.getMonthValue());
+    }
+}
@@ -0,0 +1,17 @@
+package plantilla.servicio;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Lo que se valida de un archivo antes de encolarlo: la primera fila de datos
+ * (para resolver la sucursal) y la cantidad de registros que declara la hoja.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class PreflightStockDTO {
+    private FilaStockDTO primeraFila;   // null si el archivo no tiene datos
+    private Integer totalRegistros;     // null si la hoja no declara su dimensión
+}
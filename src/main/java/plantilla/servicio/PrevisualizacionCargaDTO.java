@@ -0,0 +1,35 @@
+package plantilla.servicio;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Resultado de una previsualización (dry-run) de un archivo de stock: qué
+ * cambiaría en cada sucursal sin escribir nada, y si los números parecen
+ * razonables para cargarlo.
+ */
+@Data
+@NoArgsConstructor
+public class PrevisualizacionCargaDTO {
+    private String nombreArchivo;
+    private LocalDate fechaStock;
+
+    private int filas;                  // filas de datos leídas
+    private int filasSinSku;
+    private int filasSinCantidad;
+    private int skusRepetidos;          // filas con un SKU que ya apareció en el mismo depósito
+    private long problemasDatos;        // celdas ilegibles y filas incompletas
+    private List<String> problemas = new ArrayList<>(); // "tipo (columna): cantidad"
+
+    private PrevisualizacionDepositoDTO totales = new PrevisualizacionDepositoDTO();
+    private List<PrevisualizacionDepositoDTO> depositos = new ArrayList<>();
+
+    private boolean plausible = true; // false si hay alguna advertencia grave
+    private List<String> advertencias = new ArrayList<>();
+
+    private long milisegundos;
+}
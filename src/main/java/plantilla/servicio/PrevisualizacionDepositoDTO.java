@@ -0,0 +1,48 @@
+package plantilla.servicio;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Lo que cambiaría en una sucursal si se cargara el archivo: cada SKU del
+ * archivo comparado contra su stock vigente a la fecha de la carga.
+ */
+@Data
+@NoArgsConstructor
+public class PrevisualizacionDepositoDTO {
+    private Long idDeposito;
+    private String sucursal;
+    private boolean sucursalNueva;      // el depósito todavía no tiene sucursal: se crearía al cargar
+    private boolean cargaAtrasada;      // ya hay stock posterior a la fecha elegida
+
+    private int skus;                   // SKUs distintos del archivo
+    private int sinCambio;              // misma cantidad que la vigente: no se escribirían
+    private int cambios;                // se escribiría un registro nuevo
+    private int aumentos;
+    private int bajas;
+    private int nuevosEnSucursal;       // sin stock previo en la sucursal
+    private int productosNuevos;        // tampoco están en el catálogo
+    private int quiebres;               // tenían stock y pasan a 0 (o menos)
+    private int reposiciones;           // estaban en 0 (o menos) y vuelven a tener stock
+    private int ausentes;               // con stock vigente en la sucursal pero no vienen en el archivo
+    private int conStockVigente;        // SKUs de la sucursal con stock > 0 antes de la carga
+
+    private long unidadesAnteriores;    // stock vigente total de la sucursal
+    private long unidadesArchivo;       // stock total según el archivo (los ausentes conservan el suyo)
+
+    void sumar(PrevisualizacionDepositoDTO d) {
+        skus += d.skus;
+        sinCambio += d.sinCambio;
+        cambios += d.cambios;
+        aumentos += d.aumentos;
+        bajas += d.bajas;
+        nuevosEnSucursal += d.nuevosEnSucursal;
+        productosNuevos += d.productosNuevos;
+        quiebres += d.quiebres;
+        reposiciones += d.reposiciones;
+        ausentes += d.ausentes;
+        conStockVigente += d.conStockVigente;
+        unidadesAnteriores += d.unidadesAnteriores;
+        unidadesArchivo += d.unidadesArchivo;
+    }
+}
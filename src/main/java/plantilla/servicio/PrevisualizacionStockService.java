@@ -0,0 +1,328 @@
+package plantilla.servicio;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import plantilla.dominio.ErrorCarga;
+import plantilla.dominio.Sucursal;
+import plantilla.repositorios.ProductoRepository;
+import plantilla.repositorios.StockActualRepository;
+import plantilla.repositorios.StockHistoricoRepository;
+import plantilla.repositorios.SucursalRepository;
+import plantilla.util.ErroresCelda;
+import plantilla.util.LectorExcelStreaming;
+import plantilla.util.TiempoUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Previsualización (dry-run) de una carga de stock: lee el archivo en
+ * streaming igual que la ingesta, lo compara en memoria contra el stock
+ * vigente de cada sucursal a la fecha elegida y devuelve qué cambiaría, sin
+ * escribir nada (ni sucursales, ni productos, ni stock_historico).
+ * El stock vigente sale de stock_actual (una consulta por sucursal); sólo una
+ * carga atrasada lo busca en la historia. El catálogo se consulta una vez por
+ * cada mil SKUs, así un archivo completo se revisa en segundos.
+ */
+@Service
+@Slf4j
+public class PrevisualizacionStockService {
+
+    @Autowired
+    private SucursalRepository sucursalRepository;
+
+    @Autowired
+    private StockHistoricoRepository stockHistoricoRepository;
+
+    @Autowired
+    private ProductoRepository productoRepository;
+
+    @Autowired
+    private StockActualRepository stockActualRepository;
+
+    /** Variación del stock total de una sucursal a partir de la cual se advierte */
+    @Value("${stock.previsualizacion.umbral-variacion:0.5}")
+    private double umbralVariacion;
+
+    /** Proporción de SKUs con stock que faltan en el archivo a partir de la cual se advierte */
+    @Value("${stock.previsualizacion.umbral-ausentes:0.3}")
+    private double umbralAusentes;
+
+    /** Proporción de SKUs con stock que quedarían en 0 a partir de la cual se advierte */
+    @Value("${stock.previsualizacion.umbral-quiebres:0.2}")
+    private double umbralQuiebres;
+
+    /** Con menos SKUs que estos las proporciones no dicen nada */
+    private static final int MIN_SKUS = 20;
+
+    private static final int LOTE_CATALOGO = 1000;
+
+    public PrevisualizacionCargaDTO previsualizar(File archivo, String nombreArchivo, LocalDate fechaStock)
+            throws IOException {
+
+        long inicio = System.currentTimeMillis();
+
+        PrevisualizacionCargaDTO resultado = new PrevisualizacionCargaDTO();
+        resultado.setNombreArchivo(nombreArchivo);
+        resultado.setFechaStock(fechaStock);
+
+        RegistroErroresCarga errores = new RegistroErroresCarga(1); // sólo interesan los conteos
+        Map<Long, Grupo> rutas = new HashMap<>();
+        Map<Object, Grupo> grupos = new LinkedHashMap<>();
+
+        // -----------------------
+        // Lectura: cantidad final de cada SKU por sucursal
+        // -----------------------
+        LectorExcelStreaming.leer(archivo, (numeroFila, valores) -> {
+            if (numeroFila == 0) {
+                return true;
+            }
+            resultado.setFilas(resultado.getFilas() + 1);
+
+            ErroresCelda erroresFila = errores.paraFila(numeroFila);
+            FilaStockDTO fila = FilaStockDTO.desdeValores(numeroFila, valores, erroresFila);
+            StockService.revisarFila(fila, erroresFila);
+
+            Grupo grupo = grupo(fila, rutas, grupos);
+
+            if (fila.getSku() == null || fila.getSku().isBlank()) {
+                resultado.setFilasSinSku(resultado.getFilasSinSku() + 1);
+                return true;
+            }
+            if (fila.getCantidad() == null) {
+                resultado.setFilasSinCantidad(resultado.getFilasSinCantidad() + 1);
+                return true;
+            }
+            // un SKU repetido termina con la cantidad de su última fila, como en la carga
+            if (grupo.archivo.put(fila.getSku(), fila.getCantidad()) != null) {
+                resultado.setSkusRepetidos(resultado.getSkusRepetidos() + 1);
+            }
+            return true;
+        });
+
+        // -----------------------
+        // Catálogo: SKUs que hoy no existen
+        // -----------------------
+        Set<String> existentes = skusExistentes(grupos.values());
+
+        // -----------------------
+        // Comparación contra el stock vigente de cada sucursal
+        // -----------------------
+        for (Grupo grupo : grupos.values()) {
+            PrevisualizacionDepositoDTO d = comparar(grupo, fechaStock, existentes);
+            resultado.getDepositos().add(d);
+            resultado.getTotales().sumar(d);
+            revisar(d, resultado);
+        }
+
+        resultado.setProblemasDatos(errores.getTotal());
+        for (ErrorCarga e : errores.aEntidades(null)) {
+            resultado.getProblemas().add(e.getTipo()
+                    + (e.getColumna() != null ? " (" + StockService.nombreColumna(e.getColumna()) + ")" : "")
+                    + ": " + e.getCantidad());
+        }
+
+        if (resultado.getFilas() == 0) {
+            advertir(resultado, "⚠️ El archivo no contiene datos.", true);
+        } else if (errores.getTotal() > resultado.getFilas() * 0.05) {
+            advertir(resultado, "⚠️ " + errores.getTotal() + " problemas de datos en "
+                    + resultado.getFilas() + " filas.", true);
+        }
+
+        resultado.setMilisegundos(System.currentTimeMillis() - inicio);
+        log.info("🔍 Previsualización de {}: {} filas, {} cambios, {} advertencias en {} ms",
+                nombreArchivo, resultado.getFilas(), resultado.getTotales().getCambios(),
+                resultado.getAdvertencias().size(), resultado.getMilisegundos());
+
+        return resultado;
+    }
+
+    /**
+     * Grupo de la fila según su depósito, con el mismo criterio que la
+     * ingesta: las filas sin depósito van con la primera y los depósitos de
+     * una misma sucursal se juntan. Nunca crea sucursales.
+     */
+    private Grupo grupo(FilaStockDTO fila, Map<Long, Grupo> rutas, Map<Object, Grupo> grupos) {
+        Long idDeposito = fila.getIdDeposito();
+
+        if (rutas.containsKey(idDeposito)) {
+            return rutas.get(idDeposito);
+        }
+        if (idDeposito == null && !grupos.isEmpty()) {
+            Grupo primero = grupos.values().iterator().next();
+            rutas.put(null, primero);
+            return primero;
+        }
+
+        List<Sucursal> existentes = sucursalRepository.findAllByIdDeposito(idDeposito);
+        Sucursal sucursal = existentes.isEmpty() ? null : existentes.get(0);
+        Object clave = sucursal != null ? sucursal.getId() : "deposito-" + idDeposito;
+
+        Grupo grupo = grupos.computeIfAbsent(clave, k -> {
+            Grupo g = new Grupo();
+            g.sucursalId = sucursal != null ? sucursal.getId() : null;
+            g.dto.setIdDeposito(idDeposito);
+            g.dto.setSucursalNueva(sucursal == null);
+            g.dto.setSucursal(sucursal != null
+                    ? sucursal.getNombre()
+                    : (fila.getDeposito() != null ? fila.getDeposito() : "Depósito " + idDeposito));
+            return g;
+        });
+
+        rutas.put(idDeposito, grupo);
+        return grupo;
+    }
+
+    private PrevisualizacionDepositoDTO comparar(Grupo grupo, LocalDate fechaStock, Set<String> existentes) {
+        PrevisualizacionDepositoDTO d = grupo.dto;
+
+        Map<String, Integer> vigente = new HashMap<>();
+        if (grupo.sucursalId != null) {
+            for (Object[] row : stockActualRepository.findBySucursal(grupo.sucursalId)) {
+                vigente.put((String) row[0], row[1] != null ? ((Number) row[1]).intValue() : null);
+                if (TiempoUtils.aFecha(row[2]).isAfter(fechaStock)) {
+                    d.setCargaAtrasada(true);
+                }
+            }
+            if (d.isCargaAtrasada()) {
+                // hay stock posterior: se compara contra lo que había a la fecha de la carga
+                vigente.clear();
+                for (Object[] row : stockHistoricoRepository.findStockVigente(grupo.sucursalId, fechaStock)) {
+                    vigente.put((String) row[0], row[1] != null ? ((Number) row[1]).intValue() : null);
+                }
+            }
+        }
+
+        d.setSkus(grupo.archivo.size());
+
+        for (Map.Entry<String, Integer> e : grupo.archivo.entrySet()) {
+            String sku = e.getKey();
+            int cantidad = e.getValue();
+            d.setUnidadesArchivo(d.getUnidadesArchivo() + cantidad);
+
+            if (!vigente.containsKey(sku)) {
+                d.setCambios(d.getCambios() + 1);
+                d.setNuevosEnSucursal(d.getNuevosEnSucursal() + 1);
+                if (!existentes.contains(sku)) {
+                    d.setProductosNuevos(d.getProductosNuevos() + 1);
+                }
+                continue;
+            }
+
+            Integer registrada = vigente.get(sku);
+            if (registrada != null && registrada == cantidad) {
+                d.setSinCambio(d.getSinCambio() + 1);
+                continue;
+            }
+
+            int anterior = registrada != null ? registrada : 0;
+            d.setCambios(d.getCambios() + 1);
+            if (cantidad > anterior) {
+                d.setAumentos(d.getAumentos() + 1);
+            } else if (cantidad < anterior) {
+                d.setBajas(d.getBajas() + 1);
+            }
+            if (anterior > 0 && cantidad <= 0) {
+                d.setQuiebres(d.getQuiebres() + 1);
+            } else if (anterior <= 0 && cantidad > 0) {
+                d.setReposiciones(d.getReposiciones() + 1);
+            }
+        }
+
+        for (Map.Entry<String, Integer> e : vigente.entrySet()) {
+            int anterior = e.getValue() != null ? e.getValue() : 0;
+            d.setUnidadesAnteriores(d.getUnidadesAnteriores() + anterior);
+            if (anterior <= 0) {
+                continue;
+            }
+            d.setConStockVigente(d.getConStockVigente() + 1);
+            if (!grupo.archivo.containsKey(e.getKey())) {
+                // la carga no toca lo que no viene en el archivo: conserva su stock
+                d.setAusentes(d.getAusentes() + 1);
+                d.setUnidadesArchivo(d.getUnidadesArchivo() + anterior);
+            }
+        }
+
+        return d;
+    }
+
+    /** Advertencias de una sucursal; las informativas no hacen implausible la carga */
+    private void revisar(PrevisualizacionDepositoDTO d, PrevisualizacionCargaDTO resultado) {
+        String suc = d.getSucursal();
+
+        if (d.isSucursalNueva()) {
+            advertir(resultado, "🏬 " + suc + ": el depósito " + d.getIdDeposito()
+                    + " no tiene sucursal, se crearía una nueva.", false);
+        }
+        if (d.isCargaAtrasada()) {
+            advertir(resultado, "📅 " + suc + ": ya hay stock posterior al " + resultado.getFechaStock()
+                    + ", la carga quedaría en el medio de la historia.", false);
+        }
+
+        long antes = d.getUnidadesAnteriores();
+        long despues = d.getUnidadesArchivo();
+        if (antes > 0 && Math.abs(despues - antes) > antes * umbralVariacion) {
+            advertir(resultado, (despues > antes ? "📈 " : "📉 ") + suc + ": el stock total pasaría de "
+                    + antes + " a " + despues + " unidades ("
+                    + Math.round((despues - antes) * 100.0 / antes) + "%).", true);
+        }
+
+        int base = d.getConStockVigente();
+        if (base >= MIN_SKUS && d.getAusentes() > base * umbralAusentes) {
+            advertir(resultado, "🧩 " + suc + ": no vienen " + d.getAusentes() + " de " + base
+                    + " SKUs con stock, el archivo podría estar incompleto.", true);
+        }
+        if (base >= MIN_SKUS && d.getQuiebres() > base * umbralQuiebres) {
+            advertir(resultado, "🚫 " + suc + ": " + d.getQuiebres() + " de " + base
+                    + " SKUs con stock quedarían en 0.", true);
+        }
+        if (base >= MIN_SKUS && d.getSkus() >= MIN_SKUS && d.getNuevosEnSucursal() > d.getSkus() / 2) {
+            advertir(resultado, "🆕 " + suc + ": " + d.getNuevosEnSucursal() + " de " + d.getSkus()
+                    + " SKUs nunca tuvieron stock en la sucursal, ¿es el depósito correcto?", true);
+        }
+    }
+
+    private void advertir(PrevisualizacionCargaDTO resultado, String mensaje, boolean grave) {
+        resultado.getAdvertencias().add(mensaje);
+        if (grave) {
+            resultado.setPlausible(false);
+        }
+    }
+
+    private Set<String> skusExistentes(Iterable<Grupo> grupos) {
+        Set<String> skus = new HashSet<>();
+        for (Grupo g : grupos) {
+            skus.addAll(g.archivo.keySet());
+        }
+
+        Set<String> existentes = new HashSet<>();
+        List<String> lote = new ArrayList<>(LOTE_CATALOGO);
+        for (String sku : skus) {
+            lote.add(sku);
+            if (lote.size() == LOTE_CATALOGO) {
+                existentes.addAll(productoRepository.findSkusExistentes(lote));
+                lote.clear();
+            }
+        }
+        if (!lote.isEmpty()) {
+            existentes.addAll(productoRepository.findSkusExistentes(lote));
+        }
+        return existentes;
+    }
+
+    private static class Grupo {
+        Long sucursalId;
+        final PrevisualizacionDepositoDTO dto = new PrevisualizacionDepositoDTO();
+        final Map<String, Integer> archivo = new HashMap<>();
+    }
+}
@@ -0,0 +1,20 @@
+package plantilla.servicio;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Entrada del catálogo en memoria: SKU, id de producto y jerarquía
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ProductoCatalogoDTO {
+    private Long id;
+    private String sku;
+    private String ambiente;
+    private String familia;
+    private String nivel3;
+    private String nivel4;
+}
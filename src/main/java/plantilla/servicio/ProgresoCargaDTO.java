@@ -0,0 +1,42 @@
+package plantilla.servicio;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import plantilla.dominio.EventoCarga;
+
+/**
+ * Foto del progreso de una carga: los campos de /eventosCarga/{id}/estado
+ * más archivo y sucursal, para las vistas de lote.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ProgresoCargaDTO {
+    private Long id;
+    private String nombreArchivo;
+    private String sucursal;
+    private String estado;
+    private Integer procesados;
+    private Integer total;
+    private Integer porcentaje;
+    private Long idStockInicial;
+    private Long idStockFinal;
+
+    public static ProgresoCargaDTO desdeEvento(EventoCarga e) {
+        return new ProgresoCargaDTO(
+                e.getId(),
+                e.getNombreArchivo(),
+                e.getSucursal() != null ? e.getSucursal().getNombre() : null,
+                e.getEstado(),
+                e.getProcesados(),
+                e.getTotalRegistros(),
+                e.getPorcentaje(),
+                e.getIdStockInicial(),
+                e.getIdStockFinal());
+    }
+
+    public boolean isFinalizado() {
+        return "COMPLETADO".equals(estado) || "FALLIDO".equals(estado) || "REVERTIDO".equals(estado);
+    }
+}
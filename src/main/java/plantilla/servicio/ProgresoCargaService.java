@@ -0,0 +1,132 @@
+package plantilla.servicio;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import plantilla.dominio.EventoCarga;
+import plantilla.repositorios.EventoCargaRepository;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Progreso en memoria de las cargas que corren en este nodo, publicado por
+ * SSE. El pipeline sólo actualiza el mapa; los cambios se empujan a los
+ * suscriptores cada stock.progreso.intervalo-sse-ms, así un cliente lento no
+ * frena la escritura de bloques.
+ * Si la carga no corre en este nodo (pendiente, terminada o en otro nodo) se
+ * manda la foto de la base y se cierra el stream: EventSource reconecta solo.
+ */
+@Service
+@Slf4j
+public class ProgresoCargaService {
+
+    @Autowired
+    private EventoCargaRepository eventoCargaRepository;
+
+    @Value("${stock.progreso.sse-timeout-ms:300000}")
+    private long timeoutMs;
+
+    @Value("${stock.progreso.reconexion-ms:3000}")
+    private long reconexionMs;
+
+    private final Map<Long, ProgresoCargaDTO> progresos = new ConcurrentHashMap<>();
+    private final Map<Long, List<SseEmitter>> suscriptores = new ConcurrentHashMap<>();
+    private final Set<Long> cambiados = ConcurrentHashMap.newKeySet();
+
+    public void actualizar(EventoCarga evento) {
+        ProgresoCargaDTO progreso = ProgresoCargaDTO.desdeEvento(evento);
+        if (progreso.isFinalizado()) {
+            finalizar(progreso);
+            return;
+        }
+        progresos.put(progreso.getId(), progreso);
+        cambiados.add(progreso.getId());
+    }
+
+    /** Último progreso conocido en este nodo, o null si la carga no corre acá */
+    public ProgresoCargaDTO buscar(Long eventoId) {
+        return progresos.get(eventoId);
+    }
+
+    public SseEmitter suscribir(Long eventoId) {
+        SseEmitter emitter = new SseEmitter(timeoutMs);
+
+        ProgresoCargaDTO actual = progresos.get(eventoId);
+        if (actual == null) {
+            ProgresoCargaDTO foto = eventoCargaRepository.findById(eventoId)
+                    .map(ProgresoCargaDTO::desdeEvento)
+                    .orElse(null);
+            if (foto != null) {
+                enviar(emitter, foto);
+            }
+            emitter.complete();
+            return emitter;
+        }
+
+        List<SseEmitter> lista = suscriptores.computeIfAbsent(eventoId, id -> new CopyOnWriteArrayList<>());
+        lista.add(emitter);
+        emitter.onCompletion(() -> lista.remove(emitter));
+        emitter.onTimeout(() -> lista.remove(emitter));
+        emitter.onError(e -> lista.remove(emitter));
+
+        if (!enviar(emitter, actual)) {
+            lista.remove(emitter);
+        }
+        return emitter;
+    }
+
+    @Scheduled(fixedDelayString = "${stock.progreso.intervalo-sse-ms:500}")
+    public void emitir() {
+        for (Long id : Set.copyOf(cambiados)) {
+            cambiados.remove(id);
+            ProgresoCargaDTO progreso = progresos.get(id);
+            List<SseEmitter> lista = suscriptores.get(id);
+            if (progreso == null || lista == null) {
+                continue;
+            }
+            for (SseEmitter emitter : lista) {
+                if (!enviar(emitter, progreso)) {
+                    lista.remove(emitter);
+                }
+            }
+        }
+    }
+
+    private void finalizar(ProgresoCargaDTO progreso) {
+        Long id = progreso.getId();
+        progresos.remove(id);
+        cambiados.remove(id);
+
+        List<SseEmitter> lista = suscriptores.remove(id);
+        if (lista == null) {
+            return;
+        }
+        for (SseEmitter emitter : lista) {
+            if (enviar(emitter, progreso)) {
+                emitter.complete();
+            }
+        }
+    }
+
+    private boolean enviar(SseEmitter emitter, ProgresoCargaDTO progreso) {
+        try {
+            emitter.send(SseEmitter.event()
+                    .name("progreso")
+                    .reconnectTime(reconexionMs)
+                    .data(progreso));
+            return true;
+        } catch (IOException | IllegalStateException e) {
+            log.debug("Suscriptor SSE desconectado del evento {}", progreso.getId());
+            emitter.completeWithError(e);
+            return false;
+        }
+    }
+}
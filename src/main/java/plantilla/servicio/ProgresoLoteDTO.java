@@ -0,0 +1,26 @@
+package plantilla.servicio;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * Progreso agregado de los eventos de un lote.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ProgresoLoteDTO {
+    private String lote;
+    private int archivos;
+    private int completados;
+    private int fallidos;
+    private int enCurso;
+    private long procesados;
+    private long total;
+    private int porcentaje;
+    private boolean finalizado;
+    private List<ProgresoCargaDTO> eventos;
+}
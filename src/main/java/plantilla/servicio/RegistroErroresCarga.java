@@ -0,0 +1,113 @@
+package plantilla.servicio;
+
+import plantilla.dominio.ErrorCarga;
+import plantilla.util.ErroresCelda;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Problemas de datos de una carga, acotados: por cada (tipo, columna) la
+ * cantidad total y las primeras maxMuestras apariciones. En la ingesta lo
+ * llenan los escritores a medida que confirman filas (ver ErroresBloque), así
+ * al retomar una carga no se cuentan dos veces las filas que se vuelven a
+ * leer; se guarda una sola vez al terminar la carga con ErroresCargaService.
+ */
+public class RegistroErroresCarga {
+
+    /** Tipos distintos como máximo; el resto se cuenta junto */
+    private static final int MAX_TIPOS = 100;
+    private static final String OTROS = "Otros problemas";
+
+    private final int maxMuestras;
+    private final Map<String, ErrorCarga> entradas = new LinkedHashMap<>();
+    private final Map<String, List<String>> muestras = new LinkedHashMap<>();
+    private long total = 0;
+
+    public RegistroErroresCarga(int maxMuestras) {
+        this.maxMuestras = maxMuestras;
+    }
+
+    /** Problemas de celdas de una fila, para Validadores */
+    public ErroresCelda paraFila(int numeroFila) {
+        return (tipo, columna, valor, detalle) -> registrar(tipo, columna, numeroFila, valor, detalle);
+    }
+
+    public synchronized void registrar(String tipo, Integer columna, int numeroFila, Object valor, String detalle) {
+        total++;
+
+        String clave = tipo + "|" + columna;
+        ErrorCarga entrada = entradas.get(clave);
+        if (entrada == null) {
+            if (entradas.size() >= MAX_TIPOS) {
+                tipo = OTROS;
+                columna = null;
+                clave = tipo + "|null";
+                entrada = entradas.get(clave);
+            }
+            if (entrada == null) {
+                entrada = nueva(tipo, columna);
+                entradas.put(clave, entrada);
+            }
+        }
+        entrada.setCantidad(entrada.getCantidad() + 1);
+
+        List<String> lista = muestras.computeIfAbsent(clave, k -> new ArrayList<>());
+        if (lista.size() < maxMuestras) {
+            lista.add(numeroFila + "\t" + limpiar(valor) + "\t" + limpiar(detalle));
+        }
+    }
+
+    /** Al retomar una carga se parte de lo que ya había registrado el intento anterior */
+    public synchronized void agregarPrevios(List<ErrorCarga> previos) {
+        for (ErrorCarga p : previos) {
+            String clave = p.getTipo() + "|" + p.getColumna();
+            ErrorCarga entrada = entradas.computeIfAbsent(clave, k -> nueva(p.getTipo(), p.getColumna()));
+            entrada.setCantidad(entrada.getCantidad() + p.getCantidad());
+            total += p.getCantidad();
+
+            List<String> lista = muestras.computeIfAbsent(clave, k -> new ArrayList<>());
+            if (p.getMuestras() != null) {
+                for (String m : p.getMuestras().split("\n")) {
+                    if (lista.size() < maxMuestras && !m.isBlank()) {
+                        lista.add(m);
+                    }
+                }
+            }
+        }
+    }
+
+    public synchronized long getTotal() {
+        return total;
+    }
+
+    public synchronized List<ErrorCarga> aEntidades(Long eventoId) {
+        List<ErrorCarga> lista = new ArrayList<>(entradas.size());
+        entradas.forEach((clave, e) -> {
+            ErrorCarga copia = nueva(e.getTipo(), e.getColumna());
+            copia.setEventoCargaId(eventoId);
+            copia.setCantidad(e.getCantidad());
+            copia.setMuestras(String.join("\n", muestras.getOrDefault(clave, List.of())));
+            lista.add(copia);
+        });
+        return lista;
+    }
+
+    private ErrorCarga nueva(String tipo, Integer columna) {
+        ErrorCarga e = new ErrorCarga();
+        e.setTipo(tipo);
+        e.setColumna(columna);
+        e.setCantidad(0L);
+        return e;
+    }
+
+    private String limpiar(Object valor) {
+        if (valor == null) {
+            return "";
+        }
+        String s = valor.toString().replace('\t', ' ').replace('\n', ' ').replace('\r', ' ');
+        return s.length() > 200 ? s.substring(0, 200) : s;
+    }
+}
@@ -0,0 +1,23 @@
+package plantilla.servicio;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDate;
+
+/**
+ * Fila a insertar en stock_historico por el camino de escritura masiva
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class RegistroStockDTO {
+    private Long productoId;
+    private Long sucursalId;
+    private LocalDate fechaStock;
+    private Integer cantidad;
+    private Integer diffAnterior;
+    private Boolean nuevoIngreso;
+    private Boolean esInicial;
+}
@@ -6,7 +6,9 @@ import org.apache.poi.xssf.usermodel.XSSFWorkbook;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import plantilla.dominio.StockHistorico;
+import plantilla.repositorios.StockActualRepository;
 import plantilla.repositorios.StockHistoricoRepository;
+import plantilla.repositorios.StockResumenDiarioRepository;
 import plantilla.repositorios.ProductoRepository;
 import org.springframework.data.domain.PageRequest;
 
@@ -16,6 +18,8 @@ import java.time.DayOfWeek;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.function.Function;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
 /**
@@ -32,36 +36,39 @@ public class ReporteStockService {
         @Autowired
         private ProductoRepository productoRepository;
 
-        /**
-         * Get current stock snapshot grouped by ambiente and familia
-         * For treemap and summary statistics
-         */
+        @Autowired
+        private StockActualRepository stockActualRepository;
+
+        /** Deltas diarios y consumo por jerarquía (hasta nivel 4); el detalle por SKU sigue en stock_historico */
+        @Autowired
+        private StockResumenDiarioRepository stockResumenDiarioRepository;
+
+        /** Stock por jerarquía a una fecha (base de evolución y variación) */
+        @Autowired
+        private StockCheckpointService stockCheckpointService;
+
         /**
          * Get current stock snapshot grouped by hierarchy
-         * Returns flat list for frontend processing
+         * Returns flat list for frontend processing.
+         * Reads stock_actual (one row per producto/sucursal), already summed per hierarchy.
          */
         public List<StockSnapshotDTO> getStockSnapshot(Long sucursalId) {
                 log.info("Getting stock snapshot for sucursal: {}", sucursalId);
 
                 Long sucursalIdParam = sucursalId != null ? sucursalId : -1L;
-                List<StockHistorico> latestStock = stockHistoricoRepository.findLatestStockBySucursal(sucursalIdParam);
+                List<Object[]> rows = stockActualRepository.findSnapshotPorJerarquia(sucursalIdParam);
 
-                // Map to DTOs while aggregating quantities
-                // Key: Ambiente-Familia-Nivel3-Nivel4
+                // Key: Ambiente-Familia-Nivel3-Nivel4 (null levels merge with their "Sin ..." label)
                 Map<String, StockSnapshotDTO> aggregated = new HashMap<>();
 
-                for (StockHistorico sh : latestStock) {
-                        String ambiente = sh.getProducto().getAmbiente() != null ? sh.getProducto().getAmbiente()
-                                        : "Sin Ambiente";
-                        String familia = sh.getProducto().getFamilia() != null ? sh.getProducto().getFamilia()
-                                        : "Sin Familia";
-                        String nivel3 = sh.getProducto().getNivel3() != null ? sh.getProducto().getNivel3()
-                                        : "Sin Nivel 3";
-                        String nivel4 = sh.getProducto().getNivel4() != null ? sh.getProducto().getNivel4()
-                                        : "Sin Nivel 4";
+                for (Object[] row : rows) {
+                        String ambiente = row[0] != null ? (String) row[0] : "Sin Ambiente";
+                        String familia = row[1] != null ? (String) row[1] : "Sin Familia";
+                        String nivel3 = row[2] != null ? (String) row[2] : "Sin Nivel 3";
+                        String nivel4 = row[3] != null ? (String) row[3] : "Sin Nivel 4";
 
                         String key = String.format("%s|%s|%s|%s", ambiente, familia, nivel3, nivel4);
-                        Long qty = sh.getCantidad() != null ? sh.getCantidad() : 0L;
+                        Long qty = row[4] != null ? ((Number) row[4]).longValue() : 0L;
 
                         aggregated.compute(key, (k, v) -> {
                                 if (v == null) {
@@ -76,6 +83,27 @@ public class ReporteStockService {
                 return new ArrayList<>(aggregated.values());
         }
 
+        /**
+         * Get stock grouped by hierarchy as of the close of a given day
+         * Same shape as the snapshot; reads the nearest weekly checkpoint plus the daily deltas since.
+         */
+        public List<StockSnapshotDTO> getStockAlDia(LocalDate fecha, Long sucursalId) {
+                log.info("Getting stock as of {} for sucursal: {}", fecha, sucursalId);
+
+                List<StockSnapshotDTO> result = stockCheckpointService.stockAl(fecha, sucursalId);
+                for (StockSnapshotDTO nodo : result) {
+                        if (nodo.getAmbiente() == null)
+                                nodo.setAmbiente("Sin Ambiente");
+                        if (nodo.getFamilia() == null)
+                                nodo.setFamilia("Sin Familia");
+                        if (nodo.getNivel3() == null)
+                                nodo.setNivel3("Sin Nivel 3");
+                        if (nodo.getNivel4() == null)
+                                nodo.setNivel4("Sin Nivel 4");
+                }
+                return result;
+        }
+
         /**
          * Get stock evolution over time by ambiente
          * For line chart visualization
@@ -87,18 +115,13 @@ public class ReporteStockService {
 
                 Long sucursalIdParam = sucursalId != null ? sucursalId : -1L;
 
-                // 1. Get initial baseline (stock before fechaInicio)
-                List<Object[]> initialData = stockHistoricoRepository.findInitialStockByAmbiente(fechaInicio,
-                                sucursalIdParam);
-                Map<String, Long> currentStockByAmbiente = new HashMap<>();
-                for (Object[] row : initialData) {
-                        String ambiente = row[0] != null ? (String) row[0] : "Sin Ambiente";
-                        Long qty = row[1] != null ? ((Number) row[1]).longValue() : 0L;
-                        currentStockByAmbiente.put(ambiente, qty);
-                }
+                // 1. Get initial baseline (stock at the close of the day before fechaInicio)
+                Map<String, Long> currentStockByAmbiente = stockAlAgrupado(fechaInicio.minusDays(1),
+                                sucursalIdParam, n -> true,
+                                n -> n.getAmbiente() != null ? n.getAmbiente() : "Sin Ambiente");
 
                 // 2. Get all deltas in range
-                List<Object[]> deltaData = stockHistoricoRepository.findDailyStockDeltasByAmbiente(fechaInicio,
+                List<Object[]> deltaData = stockResumenDiarioRepository.findDailyDeltasByAmbiente(fechaInicio,
                                 fechaFin,
                                 sucursalIdParam);
 
@@ -156,17 +179,12 @@ public class ReporteStockService {
                 Long sucursalIdParam = sucursalId != null ? sucursalId : -1L;
 
                 // 1. Initial baseline by familia
-                List<Object[]> initialData = stockHistoricoRepository.findInitialStockByFamilia(fechaInicio,
-                                sucursalIdParam, ambiente);
-                Map<String, Long> currentStockByFamilia = new HashMap<>();
-                for (Object[] row : initialData) {
-                        String familia = row[0] != null ? (String) row[0] : "Sin Familia";
-                        Long qty = row[1] != null ? ((Number) row[1]).longValue() : 0L;
-                        currentStockByFamilia.put(familia, qty);
-                }
+                Map<String, Long> currentStockByFamilia = stockAlAgrupado(fechaInicio.minusDays(1),
+                                sucursalIdParam, n -> ambiente.equals(n.getAmbiente()),
+                                n -> n.getFamilia() != null ? n.getFamilia() : "Sin Familia");
 
                 // 2. Daily deltas by familia
-                List<Object[]> deltaData = stockHistoricoRepository.findDailyStockDeltasByFamilia(fechaInicio, fechaFin,
+                List<Object[]> deltaData = stockResumenDiarioRepository.findDailyDeltasByFamilia(fechaInicio, fechaFin,
                                 sucursalIdParam, ambiente);
 
                 Map<LocalDate, Map<String, Long>> deltasByDate = new HashMap<>();
@@ -202,15 +220,12 @@ public class ReporteStockService {
                 log.info("Stock evolution by nivel3 for ambiente='{}', familia='{}'", ambiente, familia);
                 Long sid = sucursalId != null ? sucursalId : -1L;
 
-                Map<String, Long> current = new HashMap<>();
-                for (Object[] row : stockHistoricoRepository.findInitialStockByNivel3(fechaInicio, sid, ambiente,
-                                familia)) {
-                        current.put(row[0] != null ? (String) row[0] : "Sin Nivel 3",
-                                        row[1] != null ? ((Number) row[1]).longValue() : 0L);
-                }
+                Map<String, Long> current = stockAlAgrupado(fechaInicio.minusDays(1), sid,
+                                n -> ambiente.equals(n.getAmbiente()) && familia.equals(n.getFamilia()),
+                                n -> n.getNivel3() != null ? n.getNivel3() : "Sin Nivel 3");
 
                 Map<LocalDate, Map<String, Long>> deltas = new HashMap<>();
-                for (Object[] row : stockHistoricoRepository.findDailyStockDeltasByNivel3(fechaInicio, fechaFin, sid,
+                for (Object[] row : stockResumenDiarioRepository.findDailyDeltasByNivel3(fechaInicio, fechaFin, sid,
                                 ambiente, familia)) {
                         String cat = row[0] != null ? (String) row[0] : "Sin Nivel 3";
                         LocalDate fecha = convertToLocalDate(row[1]);
@@ -237,15 +252,13 @@ public class ReporteStockService {
                 log.info("Stock evolution by nivel4 for nivel3='{}'", nivel3);
                 Long sid = sucursalId != null ? sucursalId : -1L;
 
-                Map<String, Long> current = new HashMap<>();
-                for (Object[] row : stockHistoricoRepository.findInitialStockByNivel4(fechaInicio, sid, ambiente,
-                                familia, nivel3)) {
-                        current.put(row[0] != null ? (String) row[0] : "Sin Nivel 4",
-                                        row[1] != null ? ((Number) row[1]).longValue() : 0L);
-                }
+                Map<String, Long> current = stockAlAgrupado(fechaInicio.minusDays(1), sid,
+                                n -> ambiente.equals(n.getAmbiente()) && familia.equals(n.getFamilia())
+                                                && nivel3.equals(n.getNivel3()),
+                                n -> n.getNivel4() != null ? n.getNivel4() : "Sin Nivel 4");
 
                 Map<LocalDate, Map<String, Long>> deltas = new HashMap<>();
-                for (Object[] row : stockHistoricoRepository.findDailyStockDeltasByNivel4(fechaInicio, fechaFin, sid,
+                for (Object[] row : stockResumenDiarioRepository.findDailyDeltasByNivel4(fechaInicio, fechaFin, sid,
                                 ambiente, familia, nivel3)) {
                         String cat = row[0] != null ? (String) row[0] : "Sin Nivel 4";
                         LocalDate fecha = convertToLocalDate(row[1]);
@@ -348,23 +361,11 @@ public class ReporteStockService {
                 log.info("Stock variacion by ambiente/familia: {} to {}", fechaInicio, fechaFin);
                 Long sid = sucursalId != null ? sucursalId : -1L;
 
-                // Build initial stock map: key = "ambiente|familia"
-                Map<String, Long> inicial = new LinkedHashMap<>();
-                for (Object[] row : stockHistoricoRepository.findInitialStockByAmbienteFamilia(fechaInicio, sid)) {
-                        String amb = row[0] != null ? (String) row[0] : "";
-                        String fam = row[1] != null ? (String) row[1] : "";
-                        Long qty = row[2] != null ? ((Number) row[2]).longValue() : 0L;
-                        inicial.put(amb + "|" + fam, qty);
-                }
-
-                // Build final stock map: key = "ambiente|familia"
-                Map<String, Long> final_ = new LinkedHashMap<>();
-                for (Object[] row : stockHistoricoRepository.findFinalStockByAmbienteFamilia(fechaFin, sid)) {
-                        String amb = row[0] != null ? (String) row[0] : "";
-                        String fam = row[1] != null ? (String) row[1] : "";
-                        Long qty = row[2] != null ? ((Number) row[2]).longValue() : 0L;
-                        final_.put(amb + "|" + fam, qty);
-                }
+                // Stock maps keyed by "ambiente|familia": close of the day before fechaInicio and of fechaFin
+                Function<StockSnapshotDTO, String> ambienteFamilia = n -> (n.getAmbiente() != null ? n.getAmbiente() : "")
+                                + "|" + (n.getFamilia() != null ? n.getFamilia() : "");
+                Map<String, Long> inicial = stockAlAgrupado(fechaInicio.minusDays(1), sid, n -> true, ambienteFamilia);
+                Map<String, Long> final_ = stockAlAgrupado(fechaFin, sid, n -> true, ambienteFamilia);
 
                 // Combine keys from both maps
                 Set<String> allKeys = new LinkedHashSet<>();
@@ -531,7 +532,7 @@ public class ReporteStockService {
 
                 // Get consumption data
                 Long sucursalIdParam = sucursalId != null ? sucursalId : -1L;
-                List<Object[]> consumoData = stockHistoricoRepository.findConsumoAnalysis(fechaInicio, fechaFin,
+                List<Object[]> consumoData = stockResumenDiarioRepository.findConsumo(fechaInicio, fechaFin,
                                 sucursalIdParam);
 
                 // Group by date - handle potential java.sql.Date, java.sql.Timestamp or
@@ -795,4 +796,19 @@ public class ReporteStockService {
                 }
                 return LocalDate.now();
         }
+
+        /**
+         * Stock at the close of a day (checkpoint + daily deltas), summed by the given
+         * key over the hierarchy nodes accepted by the filter.
+         */
+        private Map<String, Long> stockAlAgrupado(LocalDate fecha, Long sucursalId,
+                        Predicate<StockSnapshotDTO> filtro, Function<StockSnapshotDTO, String> clave) {
+                Map<String, Long> result = new LinkedHashMap<>();
+                for (StockSnapshotDTO nodo : stockCheckpointService.stockAl(fecha, sucursalId)) {
+                        if (filtro.test(nodo)) {
+                                result.merge(clave.apply(nodo), nodo.getCantidad(), Long::sum);
+                        }
+                }
+                return result;
+        }
 }
@@ -1,135 +1,217 @@
 package plantilla.servicio;
 
-import org.apache.poi.ss.usermodel.Row;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import plantilla.dominio.EventoCarga;
-import plantilla.dominio.Producto;
-import plantilla.dominio.StockHistorico;
+import plantilla.dominio.FilaRechazada;
 import plantilla.dominio.Sucursal;
-import plantilla.repositorios.ProductoRepository;
+import plantilla.repositorios.EventoCargaRepository;
+import plantilla.repositorios.FilaRechazadaRepository;
+import plantilla.repositorios.StockActualRepository;
 import plantilla.repositorios.StockHistoricoRepository;
 import plantilla.repositorios.SucursalRepository;
 import plantilla.util.TiempoUtils;
-import plantilla.util.Validadores;
 
-import javax.persistence.EntityManager;
-import javax.persistence.PersistenceContext;
 import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
-import java.util.Optional;
-
-import static plantilla.servicio.StockService.*;
-import static plantilla.util.Validadores.safeStringCell;
+import java.util.Set;
 
 @Service
 
 public class ResultadoBloqueService {
 
     @Autowired
-    ProductoRepository productoRepository;
+    CatalogoProductoService catalogoProductoService;
     @Autowired
     StockHistoricoRepository stockHistoricoRepository;
     @Autowired
     SucursalRepository sucursalRepository;
 
-    @PersistenceContext
-    private EntityManager entityManager;
+    @Autowired
+    StockHistoricoCopyService stockHistoricoCopyService;
+
+    @Autowired
+    EventoCargaRepository eventoCargaRepository;
+
+    @Autowired
+    FilaRechazadaRepository filaRechazadaRepository;
+
+    @Autowired
+    StockActualRepository stockActualRepository;
 
     @Transactional
     public ResultadoBloqueDTO procesarBloque(
-            List<Row> rows,
+            List<FilaStockDTO> filas,
             Sucursal sucursal,
             LocalDate fechaStock,
             EventoCarga evento) {
 
-        EventoCarga eventoManaged = entityManager.merge(evento);
+        // Carga histórica: las filas van en crudo y diffAnterior / nuevoIngreso /
+        // esInicial los recalcula CargaHistoricaService al cerrar el lote
+        boolean historica = Boolean.TRUE.equals(evento.getCargaHistorica());
 
-        Long stockInicial = null;
-        Long stockFinal = null;
+        // -----------------------
+        // Último stock de todo el bloque (una sola consulta)
+        // -----------------------
+        Map<String, Integer> ultimoStock = historica ? Map.of() : buscarUltimoStock(filas, sucursal, fechaStock);
 
-        int i = 0;
+        // -----------------------
+        // Productos del bloque: catálogo en memoria + alta masiva de los nuevos
+        // -----------------------
+        Set<String> nuevos = new HashSet<>();
+        Map<String, ProductoCatalogoDTO> catalogo = catalogoProductoService.resolverBloque(filas, nuevos);
 
-        for (Row row : rows) {
+        List<RegistroStockDTO> registros = new ArrayList<>(filas.size());
 
-            String sku = safeStringCell(row, IDX_SKU);
+        for (FilaStockDTO fila : filas) {
+
+            String sku = fila.getSku();
             if (sku == null || sku.isBlank())
                 continue;
 
-            Integer cantidad = Validadores.safeIntCell(row, IDX_CANTIDAD);
+            Integer cantidad = fila.getCantidad();
 
             // -----------------------
             // Producto
             // -----------------------
-            Optional<Producto> productoOpt = productoRepository.findBySku(sku);
-
-            boolean productoNuevo = productoOpt.isEmpty();
-
-            Producto producto = productoOpt.orElseGet(() -> {
-                Producto nuevo = new Producto();
-                nuevo.setSku(sku);
-                nuevo.setMasterId(safeStringCell(row, IDX_MASTER_ID));
-                nuevo.setDescripcion(safeStringCell(row, IDX_DESCRIPCION));
-                nuevo.setColor(safeStringCell(row, IDX_COLOR));
-                nuevo.setAmbiente(safeStringCell(row, IDX_AMBIENTE));
-                nuevo.setFamilia(safeStringCell(row, IDX_FAMILIA));
-                nuevo.setNivel3(safeStringCell(row, IDX_NIVEL3));
-                nuevo.setNivel4(safeStringCell(row, IDX_NIVEL4));
-                return productoRepository.save(nuevo);
-            });
+            ProductoCatalogoDTO producto = catalogo.get(sku);
+
+            // sólo la primera aparición del SKU cuenta como alta
+            boolean productoNuevo = nuevos.remove(sku);
+
+            if (historica) {
+                registros.add(new RegistroStockDTO(
+                        producto.getId(),
+                        sucursal.getId(),
+                        fechaStock,
+                        cantidad,
+                        null,
+                        null,
+                        null));
+                continue;
+            }
 
             // -----------------------
             // Último stock
             // -----------------------
-            Optional<StockHistorico> ultimoOpt = stockHistoricoRepository
-                    .findTopByProducto_SkuAndSucursalOrderByFechaStockDescIdDesc(
-                            sku, sucursal);
+            boolean hayAnterior = ultimoStock.containsKey(sku);
+            Integer diffAnterior = ultimoStock.get(sku);
 
-            boolean hayCambio = ultimoOpt
-                    .map(u -> !Objects.equals(u.getCantidad(), cantidad))
-                    .orElse(true);
+            boolean hayCambio = !hayAnterior || !Objects.equals(diffAnterior, cantidad);
 
             if (!hayCambio)
                 continue;
 
-            StockHistorico stock = new StockHistorico();
-            stock.setProducto(producto);
-            stock.setSucursal(sucursal);
-            stock.setCantidad(cantidad);
-
-            Integer diffAnterior = ultimoOpt.map(StockHistorico::getCantidad).orElse(null);
-            stock.setDiffAnterior(diffAnterior);
-
             // nuevoIngreso = true si cantidad > diffAnterior o si es el primer registro del
             // producto (productoNuevo)
             boolean nuevoIngreso = (diffAnterior != null && cantidad > diffAnterior) || productoNuevo;
-            stock.setNuevoIngreso(nuevoIngreso);
 
-            stock.setFechaStock(fechaStock);
-            stock.setFechaCarga(TiempoUtils.ahora());
-            stock.setEventoCarga(eventoManaged);
-            stock.setEsInicial(productoNuevo);
+            registros.add(new RegistroStockDTO(
+                    producto.getId(),
+                    sucursal.getId(),
+                    fechaStock,
+                    cantidad,
+                    diffAnterior,
+                    nuevoIngreso,
+                    productoNuevo));
 
-            entityManager.persist(stock);
+            ultimoStock.put(sku, cantidad); // un SKU repetido en el bloque compara contra esta fila
+        }
 
-            if (stockInicial == null) {
-                entityManager.flush();
-                stockInicial = stock.getId();
-            }
-            stockFinal = stock.getId();
+        // -----------------------
+        // COPY + INSERT set-based, devuelve el rango de ids del bloque
+        // -----------------------
+        ResultadoBloqueDTO resultado = stockHistoricoCopyService.escribir(registros, evento.getId(), TiempoUtils.ahora());
+
+        // -----------------------
+        // Stock vigente: lo escrito pasa a stock_actual en la misma transacción
+        // -----------------------
+        if (resultado.getStockInicial() != null) {
+            stockActualRepository.actualizarDesdeBloque(
+                    evento.getId(), fechaStock, resultado.getStockInicial(), resultado.getStockFinal());
+        }
 
-            if (++i % 50 == 0) {
-                entityManager.flush();
-                entityManager.clear();
+        // -----------------------
+        // Carga atrasada: reparar el registro siguiente de cada producto escrito
+        // -----------------------
+        if (!historica && resultado.getStockInicial() != null
+                && stockHistoricoRepository.existeStockPosterior(sucursal.getId(), fechaStock)) {
+            stockHistoricoRepository.repararSiguientes(
+                    evento.getId(),
+                    resultado.getStockInicial(),
+                    resultado.getStockFinal(),
+                    sucursal.getId(),
+                    fechaStock);
+        }
+
+        // checkpoint en la misma transacción: o quedan el bloque y el checkpoint, o ninguno
+        eventoCargaRepository.registrarCheckpoint(evento.getId(), filas.get(filas.size() - 1).getNumeroFila());
+
+        return resultado;
+    }
+
+    /**
+     * Fila que no se pudo escribir ni sola: queda en filas_rechazadas y el
+     * checkpoint la pasa, así al retomar no se vuelve a intentar.
+     */
+    @Transactional
+    public void rechazarFila(FilaStockDTO fila, EventoCarga evento, String error) {
+        FilaRechazada rechazada = new FilaRechazada();
+        rechazada.setEventoCargaId(evento.getId());
+        rechazada.setNumeroFila(fila.getNumeroFila());
+        rechazada.setIdDeposito(fila.getIdDeposito());
+        rechazada.setSku(fila.getSku());
+        rechazada.setCantidad(fila.getCantidad());
+        rechazada.setDatos(recortar(fila.toString()));
+        rechazada.setError(recortar(error));
+        rechazada.setFecha(TiempoUtils.ahora());
+        filaRechazadaRepository.save(rechazada);
+
+        eventoCargaRepository.registrarCheckpoint(evento.getId(), fila.getNumeroFila());
+    }
+
+    private String recortar(String texto) {
+        return texto != null && texto.length() > 1000 ? texto.substring(0, 1000) : texto;
+    }
+
+    private Map<String, Integer> buscarUltimoStock(List<FilaStockDTO> filas, Sucursal sucursal, LocalDate fechaStock) {
+        Set<String> skus = new HashSet<>();
+        for (FilaStockDTO fila : filas) {
+            if (fila.getSku() != null && !fila.getSku().isBlank()) {
+                skus.add(fila.getSku());
             }
         }
 
-        entityManager.flush();
-        entityManager.clear();
+        Map<String, Integer> ultimoStock = new HashMap<>();
+        if (skus.isEmpty()) {
+            return ultimoStock;
+        }
+
+        // stock_actual alcanza salvo para los productos con stock posterior a
+        // esta carga (carga atrasada): esos se buscan en la historia a su fecha
+        Set<String> atrasados = new HashSet<>();
+        for (Object[] row : stockActualRepository.findBySkus(skus, sucursal.getId())) {
+            String sku = (String) row[0];
+            if (TiempoUtils.aFecha(row[2]).isAfter(fechaStock)) {
+                atrasados.add(sku);
+            } else {
+                ultimoStock.put(sku, row[1] != null ? ((Number) row[1]).intValue() : null);
+            }
+        }
 
-        return new ResultadoBloqueDTO(stockInicial, stockFinal);
+        if (!atrasados.isEmpty()) {
+            for (Object[] row : stockHistoricoRepository.findUltimoStockBySkus(atrasados, sucursal.getId(), fechaStock)) {
+                Integer cantidad = row[1] != null ? ((Number) row[1]).intValue() : null;
+                ultimoStock.put((String) row[0], cantidad);
+            }
+        }
+        return ultimoStock;
     }
 
 }
@@ -1,44 +1,237 @@
 package plantilla.servicio;
 
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
-import org.springframework.web.multipart.MultipartFile;
 import software.amazon.awssdk.core.sync.RequestBody;
 import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompletedMultipartUpload;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadRequest;
 import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
 import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartRequest;
 
+import javax.annotation.PreDestroy;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * Archivos de stock en S3. Los archivos grandes se suben en multipart y se
+ * bajan con GETs por rango en paralelo directo al spool, donde quedan como
+ * caché para reprocesos (las claves llevan un UUID, nunca cambian de contenido).
+ */
 @Service
+@Slf4j
 public class S3Service {
 
     private final S3Client s3Client;
     private final String bucket;
 
+    @Autowired
+    private SpoolArchivosService spoolArchivosService;
+
+    /** Por encima de este tamaño se sube en multipart y se baja por rangos */
+    @Value("${aws.s3.umbral-multipart-mb:16}")
+    private long umbralMb;
+
+    /** Tamaño de cada parte/rango (S3 exige al menos 5 MB por parte) */
+    @Value("${aws.s3.parte-mb:8}")
+    private long parteMb;
+
+    private final ExecutorService transferencias;
+
+    private static final AtomicInteger CONTADOR_HILOS = new AtomicInteger();
+
     public S3Service(
             S3Client s3Client,
-            @Value("${aws.s3.bucket}") String bucket) {
+            @Value("${aws.s3.bucket}") String bucket,
+            @Value("${aws.s3.hilos:4}") int hilos) {
         this.s3Client = s3Client;
         this.bucket = bucket;
+        this.transferencias = Executors.newFixedThreadPool(Math.max(1, hilos), r -> {
+            Thread t = new Thread(r, "s3-transferencia-" + CONTADOR_HILOS.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
     }
 
-    public void subirArchivo(String key, MultipartFile file) throws IOException {
+    @PreDestroy
+    void detenerTransferencias() {
+        transferencias.shutdownNow();
+    }
+
+    /** Sube un archivo ya guardado en disco (el spool de la subida) */
+    public void subirArchivo(String key, File archivo, String contentType) throws IOException {
+
+        long tamanio = archivo.length();
+        if (tamanio <= umbralMb * 1024 * 1024) {
+            PutObjectRequest request = PutObjectRequest.builder()
+                    .bucket(bucket)
+                    .key(key)
+                    .contentType(contentType)
+                    .build();
+
+            s3Client.putObject(request, RequestBody.fromFile(archivo));
+        } else {
+            subirMultipart(key, archivo, contentType, tamanio);
+        }
+    }
 
-        PutObjectRequest request = PutObjectRequest.builder()
+    private void subirMultipart(String key, File archivo, String contentType, long tamanio) throws IOException {
+        String uploadId = s3Client.createMultipartUpload(CreateMultipartUploadRequest.builder()
                 .bucket(bucket)
                 .key(key)
-                .contentType(file.getContentType())
+                .contentType(contentType)
+                .build()).uploadId();
+
+        long parte = tamanioParte();
+        List<Future<CompletedPart>> partes = new ArrayList<>();
+        try {
+            int numero = 1;
+            for (long desde = 0; desde < tamanio; desde += parte, numero++) {
+                int nroParte = numero;
+                long inicio = desde;
+                int largo = (int) Math.min(parte, tamanio - desde);
+
+                partes.add(transferencias.submit(() -> {
+                    String etag = s3Client.uploadPart(UploadPartRequest.builder()
+                            .bucket(bucket)
+                            .key(key)
+                            .uploadId(uploadId)
+                            .partNumber(nroParte)
+                            .build(),
+                            RequestBody.fromBytes(leerRango(archivo.toPath(), inicio, largo))).eTag();
+                    return CompletedPart.builder().partNumber(nroParte).eTag(etag).build();
+                }));
+            }
+
+            List<CompletedPart> completadas = new ArrayList<>(partes.size());
+            for (Future<CompletedPart> f : partes) {
+                completadas.add(esperar(f));
+            }
+            completadas.sort(Comparator.comparing(CompletedPart::partNumber));
+
+            s3Client.completeMultipartUpload(CompleteMultipartUploadRequest.builder()
+                    .bucket(bucket)
+                    .key(key)
+                    .uploadId(uploadId)
+                    .multipartUpload(CompletedMultipartUpload.builder().parts(completadas).build())
+                    .build());
+
+            log.info("☁️ {} subido en {} partes", key, completadas.size());
+
+        } catch (IOException | RuntimeException e) {
+            partes.forEach(f -> f.cancel(true));
+            s3Client.abortMultipartUpload(AbortMultipartUploadRequest.builder()
+                    .bucket(bucket)
+                    .key(key)
+                    .uploadId(uploadId)
+                    .build());
+            throw e;
+        }
+    }
+
+    /**
+     * Deja el objeto en el spool y devuelve el archivo local. Si ya se bajó
+     * (o se subió desde este nodo) se usa la copia en caché.
+     */
+    public File descargarConCache(String key) throws IOException {
+        Path cache = spoolArchivosService.rutaCacheS3(key);
+        if (Files.exists(cache)) {
+            spoolArchivosService.tocar(cache);
+            log.info("📦 {} tomado de la caché local", key);
+            return cache.toFile();
+        }
+
+        Path parcial = cache.resolveSibling(cache.getFileName() + ".parcial");
+        try {
+            descargarA(key, parcial);
+            Files.move(parcial, cache, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(parcial);
+        }
+        return cache.toFile();
+    }
+
+    private void descargarA(String key, Path destino) throws IOException {
+        long tamanio = s3Client.headObject(HeadObjectRequest.builder()
+                .bucket(bucket)
+                .key(key)
+                .build()).contentLength();
+
+        if (tamanio <= umbralMb * 1024 * 1024) {
+            try (InputStream is = descargar(key)) {
+                Files.copy(is, destino, StandardCopyOption.REPLACE_EXISTING);
+            }
+            return;
+        }
+
+        try (RandomAccessFile raf = new RandomAccessFile(destino.toFile(), "rw")) {
+            raf.setLength(tamanio);
+        }
+
+        long parte = tamanioParte();
+        List<Future<?>> rangos = new ArrayList<>();
+        try (FileChannel canal = FileChannel.open(destino, StandardOpenOption.WRITE)) {
+            for (long desde = 0; desde < tamanio; desde += parte) {
+                long inicio = desde;
+                long fin = Math.min(desde + parte, tamanio) - 1;
+
+                rangos.add(transferencias.submit(() -> {
+                    descargarRango(key, canal, inicio, fin);
+                    return null;
+                }));
+            }
+            for (Future<?> f : rangos) {
+                esperar(f);
+            }
+        } catch (IOException | RuntimeException e) {
+            rangos.forEach(f -> f.cancel(true));
+            throw e;
+        }
+
+        log.info("☁️ {} descargado en {} rangos", key, rangos.size());
+    }
+
+    private void descargarRango(String key, FileChannel canal, long inicio, long fin) throws IOException {
+        GetObjectRequest request = GetObjectRequest.builder()
+                .bucket(bucket)
+                .key(key)
+                .range("bytes=" + inicio + "-" + fin)
                 .build();
 
-        s3Client.putObject(
-                request,
-                RequestBody.fromInputStream(
-                        file.getInputStream(),
-                        file.getSize()
-                )
-        );
+        byte[] buffer = new byte[64 * 1024];
+        long posicion = inicio;
+        try (InputStream is = s3Client.getObject(request)) {
+            int leidos;
+            while ((leidos = is.read(buffer)) != -1) {
+                ByteBuffer bb = ByteBuffer.wrap(buffer, 0, leidos);
+                while (bb.hasRemaining()) {
+                    posicion += canal.write(bb, posicion);
+                }
+            }
+        }
     }
 
     public InputStream descargar(String key) {
@@ -49,4 +242,37 @@ public class S3Service {
 
         return s3Client.getObject(request);
     }
+
+    private long tamanioParte() {
+        return Math.max(5, parteMb) * 1024 * 1024;
+    }
+
+    private static byte[] leerRango(Path archivo, long inicio, int largo) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(largo);
+        try (FileChannel canal = FileChannel.open(archivo, StandardOpenOption.READ)) {
+            while (buffer.hasRemaining()) {
+                if (canal.read(buffer, inicio + buffer.position()) < 0) {
+                    throw new IOException("Fin de archivo inesperado en " + archivo);
+                }
+            }
+        }
+        return buffer.array();
+    }
+
+    private static <T> T esperar(Future<T> tarea) throws IOException {
+        try {
+            return tarea.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Transferencia interrumpida", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException io) {
+                throw io;
+            }
+            if (e.getCause() instanceof RuntimeException re) {
+                throw re;
+            }
+            throw new IOException(e.getCause());
+        }
+    }
 }
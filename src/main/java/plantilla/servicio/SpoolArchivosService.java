@@ -0,0 +1,257 @@
+package plantilla.servicio;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+import plantilla.repositorios.EventoCargaRepository;
+
+import javax.annotation.PostConstruct;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+/**
+ * Directorio donde quedan los archivos subidos hasta que la cola los procesa.
+ * Al guardar se calcula el SHA-256 en el mismo recorrido del stream, así el
+ * chequeo de duplicados no vuelve a leer el archivo.
+ * La limpieza borra lo vencido (stock.spool.retencion-horas) y, si el spool
+ * supera la cuota, lo más viejo; nunca un archivo de una carga activa. El de
+ * una carga fallida se conserva hasta que vence, para poder reanudarla.
+ * Las copias locales de objetos de S3 (ver S3Service) viven acá también y
+ * entran en la misma limpieza.
+ */
+@Service
+@Slf4j
+public class SpoolArchivosService {
+
+    @Autowired
+    private EventoCargaRepository eventoCargaRepository;
+
+    @Value("${stock.spool.directorio:${java.io.tmpdir}/stock-spool}")
+    private String directorioConfigurado;
+
+    @Value("${stock.spool.cuota-mb:2048}")
+    private long cuotaMb;
+
+    @Value("${stock.spool.retencion-horas:72}")
+    private long retencionHoras;
+
+    /** Un archivo recién guardado puede no tener todavía su evento creado */
+    private static final Duration GRACIA = Duration.ofMinutes(10);
+
+    private Path directorio;
+
+    @PostConstruct
+    void crearDirectorio() throws IOException {
+        directorio = Paths.get(directorioConfigurado).toAbsolutePath();
+        Files.createDirectories(directorio);
+        log.info("📂 Spool de archivos en {}", directorio);
+    }
+
+    /**
+     * Guarda el archivo subido en el spool calculando su SHA-256.
+     * Si no hay lugar ni después de limpiar, rechaza la subida.
+     */
+    public ArchivoSpoolDTO guardar(MultipartFile file) throws IOException {
+        try (InputStream in = file.getInputStream()) {
+            return guardar(in, file.getOriginalFilename(), file.getSize());
+        }
+    }
+
+    /**
+     * Igual que guardar(MultipartFile), para contenido que no llega como
+     * archivo subido (ej. una entrada de un ZIP). tamanio puede ser -1 si no
+     * se conoce de antemano; el stream no se cierra.
+     */
+    public ArchivoSpoolDTO guardar(InputStream contenido, String nombre, long tamanio) throws IOException {
+        long esperado = Math.max(tamanio, 0);
+        if (usoActual() + esperado > cuotaBytes()) {
+            limpiar();
+            if (usoActual() + esperado > cuotaBytes()) {
+                throw new IllegalStateException(
+                        "No hay espacio para más archivos pendientes. Intentá de nuevo más tarde.");
+            }
+        }
+
+        Path destino = directorio.resolve(UUID.randomUUID() + "-" + nombreSeguro(nombre));
+        MessageDigest sha256 = nuevoDigest();
+        long disponible = cuotaBytes() - usoActual();
+
+        try (OutputStream out = Files.newOutputStream(destino)) {
+            InputStream in = new DigestInputStream(contenido, sha256);
+            byte[] buffer = new byte[64 * 1024];
+            long bytes = 0;
+            int leidos;
+            while ((leidos = in.read(buffer)) != -1) {
+                bytes += leidos;
+                if (bytes > disponible) {
+                    // un tamaño declarado falso (ej. ZIP comprimido) no puede llenar el disco
+                    throw new IllegalStateException("El archivo " + nombre + " supera el espacio disponible");
+                }
+                out.write(buffer, 0, leidos);
+            }
+            return new ArchivoSpoolDTO(destino.toFile(), HexFormat.of().formatHex(sha256.digest()), bytes);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(destino);
+            throw e;
+        }
+    }
+
+    /** Borra un archivo del spool que ya no se necesita */
+    public void liberar(File archivo) {
+        if (archivo == null || !archivo.toPath().toAbsolutePath().startsWith(directorio)) {
+            return; // sólo se borra lo que está en el spool
+        }
+        try {
+            Files.deleteIfExists(archivo.toPath());
+        } catch (IOException e) {
+            log.warn("No se pudo borrar {} del spool", archivo, e);
+        }
+    }
+
+    /** Dónde queda en el spool la copia local de un objeto de S3 */
+    public Path rutaCacheS3(String key) {
+        MessageDigest sha256 = nuevoDigest();
+        return directorio.resolve("s3-" + HexFormat.of().formatHex(
+                sha256.digest(key.getBytes(StandardCharsets.UTF_8))));
+    }
+
+    /**
+     * Deja un archivo del spool como caché del objeto que se acaba de subir,
+     * así el nodo que lo recibió no lo vuelve a bajar si le toca procesarlo.
+     */
+    public void moverACache(File archivo, String key) {
+        try {
+            Files.move(archivo.toPath(), rutaCacheS3(key),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.warn("No se pudo dejar {} en la caché de S3", archivo, e);
+        }
+    }
+
+    /** Marca un archivo como recién usado: la limpieza borra primero lo más viejo */
+    public void tocar(Path archivo) {
+        try {
+            Files.setLastModifiedTime(archivo, FileTime.from(Instant.now()));
+        } catch (IOException e) {
+            log.debug("No se pudo actualizar la fecha de {}", archivo);
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${stock.spool.limpieza-ms:3600000}")
+    public synchronized void limpiar() {
+        Set<Path> activos = new HashSet<>();
+        for (String ruta : eventoCargaRepository.findRutasLocalesActivas()) {
+            activos.add(Paths.get(ruta).toAbsolutePath());
+        }
+        // una carga larga desde S3 lee su copia mucho después de la GRACIA
+        for (String key : eventoCargaRepository.findRutasS3Activas()) {
+            Path cache = rutaCacheS3(key);
+            activos.add(cache);
+            activos.add(cache.resolveSibling(cache.getFileName() + ".parcial"));
+        }
+        Set<Path> fallidos = new HashSet<>();
+        for (String ruta : eventoCargaRepository.findRutasLocalesFallidas()) {
+            fallidos.add(Paths.get(ruta).toAbsolutePath());
+        }
+
+        List<Path> archivos = new ArrayList<>();
+        try (Stream<Path> s = Files.list(directorio)) {
+            s.filter(Files::isRegularFile).forEach(archivos::add);
+        } catch (IOException e) {
+            log.warn("No se pudo recorrer el spool {}", directorio, e);
+            return;
+        }
+        archivos.sort(Comparator.comparing(this::modificado)); // más viejos primero
+
+        Instant vencimiento = Instant.now().minus(Duration.ofHours(retencionHoras));
+        Instant recientes = Instant.now().minus(GRACIA);
+        long uso = archivos.stream().mapToLong(this::tamanio).sum();
+        int borrados = 0;
+
+        for (Path p : archivos) {
+            if (activos.contains(p) || modificado(p).isAfter(recientes)) {
+                continue;
+            }
+            boolean vencido = modificado(p).isBefore(vencimiento);
+            if (!vencido && (uso <= cuotaBytes() || fallidos.contains(p))) {
+                continue;
+            }
+            long bytes = tamanio(p);
+            try {
+                Files.deleteIfExists(p);
+                uso -= bytes;
+                borrados++;
+            } catch (IOException e) {
+                log.warn("No se pudo borrar {} del spool", p, e);
+            }
+        }
+
+        if (borrados > 0) {
+            log.info("🧹 Spool: {} archivos borrados, {} MB en uso", borrados, uso / (1024 * 1024));
+        }
+    }
+
+    private long usoActual() {
+        try (Stream<Path> s = Files.list(directorio)) {
+            return s.filter(Files::isRegularFile).mapToLong(this::tamanio).sum();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private long cuotaBytes() {
+        return cuotaMb * 1024 * 1024;
+    }
+
+    private long tamanio(Path p) {
+        try {
+            return Files.size(p);
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private Instant modificado(Path p) {
+        try {
+            return Files.getLastModifiedTime(p).toInstant();
+        } catch (IOException e) {
+            return Instant.EPOCH;
+        }
+    }
+
+    private String nombreSeguro(String nombre) {
+        return nombre == null ? "archivo" : nombre.replaceAll("[^A-Za-z0-9._-]", "_");
+    }
+
+    private MessageDigest nuevoDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 no disponible", e);
+        }
+    }
+}
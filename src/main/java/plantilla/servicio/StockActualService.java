@@ -0,0 +1,61 @@
+package plantilla.servicio;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import plantilla.dominio.Sucursal;
+import plantilla.repositorios.StockActualRepository;
+import plantilla.repositorios.SucursalRepository;
+
+import javax.annotation.PostConstruct;
+
+/**
+ * Mantenimiento de stock_actual fuera de la ingesta: la carga inicial de la
+ * tabla (la primera vez que arranca con historia) y la reconstrucción de
+ * una sucursal. El día a día lo hace ResultadoBloqueService en cada bloque.
+ */
+@Service
+@Slf4j
+public class StockActualService {
+
+    @Autowired
+    private StockActualRepository stockActualRepository;
+
+    @Autowired
+    private SucursalRepository sucursalRepository;
+
+    private final TransactionTemplate transactionTemplate;
+
+    public StockActualService(PlatformTransactionManager transactionManager) {
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    /**
+     * Antes de que arranquen los @Scheduled: la cola toma cargas apenas se
+     * refresca el contexto y la ingesta ya compara contra stock_actual. Con
+     * la tabla vacía cada fila parecería nueva, y después del primer bloque
+     * hayDatos() ya no dejaría inicializarla.
+     */
+    @PostConstruct
+    void inicializar() {
+        if (stockActualRepository.hayDatos() || !stockActualRepository.hayHistoria()) {
+            return;
+        }
+        long inicio = System.currentTimeMillis();
+        int filas = 0;
+        for (Sucursal s : sucursalRepository.findAll()) {
+            filas += transactionTemplate.execute(status -> reconstruir(s.getId()));
+        }
+        log.info("📊 stock_actual inicializado: {} productos por sucursal en {} ms",
+                filas, System.currentTimeMillis() - inicio);
+    }
+
+    /** Debe correr dentro de una transacción (una por sucursal) */
+    public int reconstruir(Long sucursalId) {
+        int filas = stockActualRepository.reconstruir(sucursalId);
+        stockActualRepository.borrarHuerfanos(sucursalId);
+        return filas;
+    }
+}
@@ -1,15 +1,11 @@
 package plantilla.servicio;
 
 import lombok.extern.slf4j.Slf4j;
-import org.apache.poi.ss.usermodel.Sheet;
-import org.apache.poi.ss.usermodel.Workbook;
-import org.apache.poi.xssf.usermodel.XSSFWorkbook;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
 import plantilla.dominio.EventoCarga;
 
-import java.io.InputStream;
+import java.io.File;
 import java.time.LocalDate;
 
 @Service
@@ -23,86 +19,100 @@ public class StockAsyncService {
     private EventoCargaService eventoCargaService;
     @Autowired
     S3Service s3Service;
+    @Autowired
+    private SpoolArchivosService spoolArchivosService;
+    @Autowired
+    private CargaHistoricaService cargaHistoricaService;
+    @Autowired
+    private StockResumenDiarioService stockResumenDiarioService;
+
+    /**
+     * Procesa una carga reclamada de la cola (ver ColaIngestaService), desde S3
+     * o desde el archivo local. Corre en un hilo de ingestaExecutor.
+     */
+    public void procesar(Long eventoId) {
+        // Un intento anterior pudo dejar bloques confirmados: StockService retoma
+        // cada partición desde su checkpoint
+        EventoCarga evento = eventoCargaService.buscarPorId(eventoId);
 
-    @Async
-    public void procesarAsync(
-            Sheet sheet,
-            String nombreArchivo,
-            LocalDate fechaStock,
-            Long eventoId) {
-        try {
-            log.info("🚀 Inicio procesamiento async evento {}", eventoId);
-
-            EventoCarga evento = eventoCargaService.buscarPorId(eventoId);
-
-            stockService.procesarStock(
-                    sheet,
-                    nombreArchivo,
-                    fechaStock,
-                    evento);
-
-            EventoCarga eventoFinal = eventoCargaService.buscarPorId(eventoId);
-
-            eventoCargaService.marcarCompletado(eventoFinal);
-
-            log.info("✅ Procesamiento finalizado evento {}", eventoFinal);
-
-        } catch (Exception e) {
-
-            log.error("❌ Error en procesamiento async evento {}", eventoId, e);
+        if (evento.getRutaS3() != null) {
+            procesarDesdeS3(eventoId, evento.getFechaArchivo());
+        } else if (evento.getRutaLocal() != null) {
+            procesarDesdeLocal(eventoId, evento.getRutaLocal(), evento.getFechaArchivo());
+        } else {
+            eventoCargaService.marcarFallido(eventoId, "La carga no tiene archivo asociado");
+            return;
+        }
 
-            eventoCargaService.marcarFallido(eventoId, e.getMessage());
+        EventoCarga eventoFinal = eventoCargaService.buscarPorId(eventoId);
+        if ("COMPLETADO".equals(eventoFinal.getEstado())) {
+            try {
+                cargaHistoricaService.alCompletar(eventoFinal);
+            } catch (RuntimeException e) {
+                // las filas ya están: el recálculo se puede pedir de nuevo para el lote
+                log.error("❌ Error recalculando el lote histórico {}", eventoFinal.getLote(), e);
+            }
+            try {
+                stockResumenDiarioService.alCompletar(eventoFinal);
+            } catch (RuntimeException e) {
+                // se puede reconstruir el rango desde /eventosCarga/resumen/reconstruir
+                log.error("❌ Error actualizando el resumen diario del evento {}", eventoId, e);
+            }
+        } else if ("FALLIDO".equals(eventoFinal.getEstado())) {
+            try {
+                stockResumenDiarioService.alFallar(eventoFinal);
+            } catch (RuntimeException e) {
+                log.error("❌ Error actualizando el resumen diario del evento fallido {}", eventoId, e);
+            }
         }
     }
 
-    @Async
     public void procesarDesdeS3(Long eventoId, LocalDate fechaStock) {
 
         EventoCarga evento = eventoCargaService.buscarPorId(eventoId);
 
-        try (InputStream is = s3Service.descargar(evento.getRutaS3());
-                Workbook workbook = new XSSFWorkbook(is)) {
-
-            Sheet sheet = workbook.getSheetAt(0);
+        try {
+            // rangos en paralelo al spool; un reproceso usa la copia ya bajada
+            File archivo = s3Service.descargarConCache(evento.getRutaS3());
 
             stockService.procesarStock(
-                    sheet,
+                    archivo,
                     evento.getNombreArchivo(),
                     fechaStock,
                     evento);
 
         } catch (Exception e) {
+            // corre en un hilo de ingestaExecutor, sin manejador de @Async: se
+            // registra acá, igual que en procesarDesdeLocal
+            log.error("❌ Error en procesamiento S3 evento {}", eventoId, e);
             eventoCargaService.marcarFallido(eventoId, e.getMessage());
-            throw new RuntimeException(e);
         }
     }
 
-    @Async
     public void procesarDesdeLocal(Long eventoId, String filePath, LocalDate fechaStock) {
 
         // 1. Buscar el evento (igual que en S3)
         EventoCarga evento = eventoCargaService.buscarPorId(eventoId);
 
-        try (InputStream is = new java.io.FileInputStream(filePath);
-                Workbook workbook = new XSSFWorkbook(is)) { // Abrir archivo local
+        if (!new File(filePath).exists()) {
+            eventoCargaService.marcarFallido(eventoId,
+                    "El archivo de la carga ya no está en el spool (se borra al vencer la retención): volvé a subirlo");
+            return;
+        }
 
-            // 2. Crear Workbook y Sheet (igual que en S3)
-            Sheet sheet = workbook.getSheetAt(0);
+        try {
 
-            // 3. Llamar al servicio de stock con el sheet abierto
+            // 2. Leer el archivo en streaming, sin armar el workbook completo
             stockService.procesarStock(
-                    sheet,
+                    new File(filePath),
                     evento.getNombreArchivo(),
                     fechaStock,
                     evento);
 
-            // 4. Marcar completado
-            EventoCarga eventoFinal = eventoCargaService.buscarPorId(eventoId);
-            eventoCargaService.marcarCompletado(eventoFinal);
-            log.info("✅ Procesamiento local finalizado evento {}", eventoFinal);
+            log.info("✅ Procesamiento local finalizado evento {}", eventoId);
 
-            // Opcional: Borrar archivo temporal si ya no se necesita
-            // new File(filePath).delete();
+            // el archivo queda en el spool para un reproceso hasta que lo
+            // borre la limpieza (stock.spool.retencion-horas)
 
         } catch (Exception e) {
             log.error("❌ Error en procesamiento local evento {}", eventoId, e);
@@ -0,0 +1,114 @@
+package plantilla.servicio;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import plantilla.dominio.Sucursal;
+import plantilla.repositorios.StockCheckpointRepository;
+import plantilla.repositorios.SucursalRepository;
+import plantilla.util.TiempoUtils;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.temporal.TemporalAdjusters;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Cierres semanales de stock por jerarquía (stock_checkpoint) y el stock a
+ * una fecha. Cada cierre es el anterior más una semana de deltas del
+ * resumen diario, así que la consulta a una fecha lee a lo sumo un cierre y
+ * siete días de resumen por sucursal, sin importar cuánta historia haya.
+ * Se mantienen desde StockResumenDiarioService cada vez que cambia el resumen.
+ */
+@Service
+@Slf4j
+public class StockCheckpointService {
+
+    @Autowired
+    private StockCheckpointRepository checkpointRepository;
+
+    @Autowired
+    private SucursalRepository sucursalRepository;
+
+    private final TransactionTemplate transactionTemplate;
+
+    public StockCheckpointService(PlatformTransactionManager transactionManager) {
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    /**
+     * Stock por jerarquía al cierre del día (sucursalId null o -1 = todas).
+     * Los niveles vacíos vienen en null.
+     */
+    public List<StockSnapshotDTO> stockAl(LocalDate fecha, Long sucursalId) {
+        Long sid = sucursalId != null ? sucursalId : -1L;
+        List<StockSnapshotDTO> result = new ArrayList<>();
+        for (Object[] row : checkpointRepository.findStockAl(fecha, sid)) {
+            result.add(new StockSnapshotDTO(
+                    (String) row[0],
+                    (String) row[1],
+                    (String) row[2],
+                    (String) row[3],
+                    row[4] != null ? ((Number) row[4]).longValue() : 0L));
+        }
+        return result;
+    }
+
+    public boolean hayDatos() {
+        return checkpointRepository.hayDatos();
+    }
+
+    /**
+     * Rearma los cierres de la sucursal desde la fecha: se conservan los
+     * anteriores y se encadenan los domingos siguientes hasta el último día
+     * del resumen. Llamar con el resumen ya actualizado; fecha null rearma
+     * todos los cierres de la sucursal.
+     */
+    public int actualizarDesde(Long sucursalId, LocalDate fecha) {
+        return transactionTemplate.execute(status -> {
+            LocalDate anterior = fecha != null
+                    ? TiempoUtils.aFecha(checkpointRepository.findCierreAnterior(sucursalId, fecha))
+                    : null;
+            if (anterior != null) {
+                checkpointRepository.borrarDesde(sucursalId, anterior.plusDays(1));
+            } else {
+                checkpointRepository.borrar(sucursalId);
+            }
+
+            LocalDate primera = null;
+            LocalDate ultima = null;
+            for (Object[] rango : checkpointRepository.findRangoResumen(sucursalId)) {
+                primera = TiempoUtils.aFecha(rango[0]);
+                ultima = TiempoUtils.aFecha(rango[1]);
+            }
+            if (ultima == null) {
+                return 0;
+            }
+
+            // el primer cierre sin anterior suma desde el comienzo del resumen
+            LocalDate cierre = anterior != null
+                    ? anterior.plusWeeks(1)
+                    : primera.with(TemporalAdjusters.nextOrSame(DayOfWeek.SUNDAY));
+            int filas = 0;
+            for (; !cierre.isAfter(ultima); cierre = cierre.plusWeeks(1)) {
+                filas += checkpointRepository.insertarCierre(sucursalId, cierre, cierre.minusWeeks(1));
+            }
+            return filas;
+        });
+    }
+
+    /** Todos los cierres de todas las sucursales, ej. la primera vez que hay resumen */
+    public int reconstruir() {
+        long inicio = System.currentTimeMillis();
+        int filas = 0;
+        for (Sucursal s : sucursalRepository.findAll()) {
+            filas += actualizarDesde(s.getId(), null);
+        }
+        log.info("📌 Cierres semanales de stock reconstruidos: {} filas en {} ms",
+                filas, System.currentTimeMillis() - inicio);
+        return filas;
+    }
+}
@@ -0,0 +1,136 @@
+package plantilla.servicio;
+
+import lombok.extern.slf4j.Slf4j;
+import org.postgresql.PGConnection;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.datasource.DataSourceUtils;
+import org.springframework.jdbc.support.SQLErrorCodeSQLExceptionTranslator;
+import org.springframework.jdbc.support.SQLExceptionTranslator;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.annotation.PostConstruct;
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.io.StringReader;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Escritura masiva de stock_historico.
+ * StockHistorico usa IDENTITY, lo que desactiva el batch de Hibernate, así que
+ * cada bloque se copia con COPY a una tabla temporal y se pasa a
+ * stock_historico con un único INSERT ... SELECT que devuelve el rango de ids.
+ * Corre sobre la conexión de la transacción del bloque. Los SQLException se
+ * traducen a DataAccessException, como en el camino JPA, para que
+ * StockService.esErrorDeDatos decida si se parte el bloque.
+ */
+@Service
+@Slf4j
+public class StockHistoricoCopyService {
+
+    private static final String CREAR_STAGING = """
+            CREATE TEMP TABLE IF NOT EXISTS stock_historico_staging (
+                orden         INT,
+                producto_id   BIGINT,
+                sucursal_id   BIGINT,
+                fecha_stock   DATE,
+                cantidad      INT,
+                diff_anterior INT,
+                nuevo_ingreso BOOLEAN,
+                es_inicial    BOOLEAN
+            ) ON COMMIT DELETE ROWS
+            """;
+
+    private static final String COPY_STAGING = """
+            COPY stock_historico_staging
+                (orden, producto_id, sucursal_id, fecha_stock, cantidad, diff_anterior, nuevo_ingreso, es_inicial)
+            FROM STDIN WITH (FORMAT csv)
+            """;
+
+    private static final String MERGE = """
+            WITH ins AS (
+                INSERT INTO stock_historico
+                    (producto_id, sucursal_id, fecha_stock, cantidad, diff_anterior, nuevo_ingreso, es_inicial,
+                     fecha_carga, evento_carga_id)
+                SELECT producto_id, sucursal_id, fecha_stock, cantidad, diff_anterior, nuevo_ingreso, es_inicial,
+                       ?, ?
+                FROM stock_historico_staging
+                ORDER BY orden
+                RETURNING id
+            )
+            SELECT MIN(id), MAX(id), COUNT(*) FROM ins
+            """;
+
+    @Autowired
+    private DataSource dataSource;
+
+    // los mismos DataAccessException que da JdbcTemplate (23505 → DuplicateKeyException, ...)
+    private SQLExceptionTranslator traductor;
+
+    @PostConstruct
+    void crearTraductor() {
+        traductor = new SQLErrorCodeSQLExceptionTranslator(dataSource);
+    }
+
+    @Transactional(propagation = Propagation.MANDATORY)
+    public ResultadoBloqueDTO escribir(List<RegistroStockDTO> registros, Long eventoId, LocalDateTime fechaCarga) {
+        if (registros.isEmpty()) {
+            return new ResultadoBloqueDTO(null, null);
+        }
+
+        // La conexión es la de la transacción en curso: no se cierra acá
+        Connection con = DataSourceUtils.getConnection(dataSource);
+        try {
+            try (Statement st = con.createStatement()) {
+                st.execute(CREAR_STAGING);
+            }
+
+            long copiados = con.unwrap(PGConnection.class)
+                    .getCopyAPI()
+                    .copyIn(COPY_STAGING, new StringReader(aCsv(registros)));
+
+            try (var ps = con.prepareStatement(MERGE)) {
+                ps.setObject(1, fechaCarga);
+                ps.setLong(2, eventoId);
+                try (ResultSet rs = ps.executeQuery()) {
+                    rs.next();
+                    Long idInicial = rs.getObject(1, Long.class);
+                    Long idFinal = rs.getObject(2, Long.class);
+                    log.debug("COPY de {} filas en stock_historico (ids {}..{})", copiados, idInicial, idFinal);
+                    return new ResultadoBloqueDTO(idInicial, idFinal);
+                }
+            }
+        } catch (SQLException e) {
+            throw traductor.translate("COPY stock_historico", null, e);
+        } catch (IOException e) {
+            throw new IllegalStateException("Error en escritura masiva de stock: " + e.getMessage(), e);
+        }
+    }
+
+    private String aCsv(List<RegistroStockDTO> registros) {
+        StringBuilder csv = new StringBuilder(registros.size() * 48);
+        int orden = 0;
+        for (RegistroStockDTO r : registros) {
+            csv.append(orden++).append(',')
+                    .append(r.getProductoId()).append(',')
+                    .append(r.getSucursalId()).append(',')
+                    .append(r.getFechaStock()).append(',')
+                    .append(valor(r.getCantidad())).append(',')
+                    .append(valor(r.getDiffAnterior())).append(',')
+                    .append(valor(r.getNuevoIngreso())).append(',')
+                    .append(valor(r.getEsInicial())).append('\n');
+        }
+        return csv.toString();
+    }
+
+    // en CSV de COPY un campo vacío sin comillas es NULL
+    private String valor(Object v) {
+        return v != null ? v.toString() : "";
+    }
+}
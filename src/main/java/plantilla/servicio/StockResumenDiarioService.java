@@ -0,0 +1,277 @@
+package plantilla.servicio;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import plantilla.dominio.EventoCarga;
+import plantilla.dominio.Sucursal;
+import plantilla.repositorios.EventoCargaRepository;
+import plantilla.repositorios.StockHistoricoRepository;
+import plantilla.repositorios.StockResumenDiarioRepository;
+import plantilla.repositorios.SucursalRepository;
+import plantilla.util.TiempoUtils;
+
+import javax.annotation.PreDestroy;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Mantiene stock_resumen_diario. Cada (sucursal, rango de fechas) se rearma
+ * entero desde stock_historico en una transacción: borrar + insertar agrupado.
+ * Al completar una carga se rearma sólo su día; una carga atrasada o una
+ * reversión también cambian los registros siguientes, así que se rearma
+ * desde su fecha hasta el último día de la sucursal.
+ * La reconstrucción de un rango se parte en tramos (sucursal × días) que
+ * corren en paralelo, cada uno en su propia transacción.
+ * Los meses desacoplados de stock_historico (ParticionesStockService) no se
+ * rearman: sus filas ya no están y el resumen es lo único que queda de ellos.
+ */
+@Service
+@Slf4j
+public class StockResumenDiarioService {
+
+    @Autowired
+    private StockResumenDiarioRepository resumenRepository;
+
+    @Autowired
+    private StockHistoricoRepository stockHistoricoRepository;
+
+    @Autowired
+    private EventoCargaRepository eventoCargaRepository;
+
+    @Autowired
+    private SucursalRepository sucursalRepository;
+
+    @Autowired
+    private StockCheckpointService stockCheckpointService;
+
+    @Autowired
+    private ParticionesStockService particionesStockService;
+
+    /** Días de cada tramo de la reconstrucción */
+    @Value("${stock.resumen.dias-por-tramo:31}")
+    private int diasPorTramo;
+
+    private final TransactionTemplate transactionTemplate;
+
+    private final ExecutorService tramosExecutor;
+
+    private static final AtomicInteger CONTADOR_HILOS = new AtomicInteger();
+
+    public StockResumenDiarioService(
+            PlatformTransactionManager transactionManager,
+            @Value("${stock.resumen.hilos:4}") int hilos) {
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.tramosExecutor = Executors.newFixedThreadPool(Math.max(1, hilos), r -> {
+            Thread t = new Thread(r, "resumen-diario-" + CONTADOR_HILOS.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    @PreDestroy
+    void detener() {
+        tramosExecutor.shutdownNow();
+    }
+
+    /**
+     * Primera vez con historia y sin resumen: se arma todo (con los cierres
+     * semanales) en segundo plano. Con resumen y sin cierres, sólo los cierres.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void inicializar() {
+        if (resumenRepository.hayDatos()) {
+            if (!stockCheckpointService.hayDatos()) {
+                Thread t = new Thread(() -> {
+                    try {
+                        stockCheckpointService.reconstruir();
+                    } catch (RuntimeException e) {
+                        log.error("❌ No se pudieron inicializar los cierres semanales", e);
+                    }
+                }, "resumen-diario-inicial");
+                t.setDaemon(true);
+                t.start();
+            }
+            return;
+        }
+        for (Object[] rango : resumenRepository.findRangoHistoria()) {
+            if (rango[0] == null) {
+                return;
+            }
+            LocalDate primerDia = particionesStockService.primerDiaAcoplado();
+            LocalDate minima = TiempoUtils.aFecha(rango[0]);
+            LocalDate desde = primerDia != null && minima.isBefore(primerDia) ? primerDia : minima;
+            LocalDate hasta = TiempoUtils.aFecha(rango[1]);
+            // hilo propio: reconstruir espera a los tramos del executor
+            Thread t = new Thread(() -> {
+                try {
+                    reconstruir(desde, hasta, null);
+                } catch (RuntimeException e) {
+                    log.error("❌ No se pudo inicializar el resumen diario", e);
+                }
+            }, "resumen-diario-inicial");
+            t.setDaemon(true);
+            t.start();
+        }
+    }
+
+    /**
+     * Una carga completa: su día en cada sucursal que tocó (el evento y sus
+     * particiones). Las cargas históricas se resumen al recalcular el lote.
+     */
+    public void alCompletar(EventoCarga evento) {
+        recalcularEventos(evento, false);
+    }
+
+    /**
+     * Una carga fallida deja confirmados los bloques que llegó a escribir: se
+     * rearma igual que al completar, sólo en las sucursales donde el evento o
+     * sus particiones escribieron filas.
+     */
+    public void alFallar(EventoCarga evento) {
+        recalcularEventos(evento, true);
+    }
+
+    private void recalcularEventos(EventoCarga evento, boolean soloConFilas) {
+        if (Boolean.TRUE.equals(evento.getCargaHistorica())) {
+            return;
+        }
+        List<EventoCarga> eventos = new ArrayList<>();
+        eventos.add(evento);
+        eventos.addAll(eventoCargaRepository.findByEventoPadreIdOrderByIdAsc(evento.getId()));
+
+        for (EventoCarga e : eventos) {
+            if (soloConFilas && e.getIdStockInicial() == null) {
+                continue;
+            }
+            if (e.getSucursal() != null && e.getFechaArchivo() != null) {
+                recalcularDesde(e.getSucursal().getId(), e.getFechaArchivo());
+            }
+        }
+    }
+
+    /**
+     * Para llamar dentro de la transacción que borra filas de la sucursal:
+     * el resumen se rearma cuando esa transacción confirma.
+     */
+    public void alConfirmar(Long sucursalId, LocalDate fecha) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            recalcularDesde(sucursalId, fecha);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                try {
+                    recalcularDesde(sucursalId, fecha);
+                } catch (RuntimeException e) {
+                    log.error("❌ No se pudo actualizar el resumen diario de la sucursal {} desde {}",
+                            sucursalId, fecha, e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Rearma el día de la sucursal, o desde ese día hasta el último si hay
+     * stock posterior (lo que cambió en la fecha repara registros siguientes).
+     * Después, los cierres semanales desde esa fecha.
+     */
+    public void recalcularDesde(Long sucursalId, LocalDate fecha) {
+        LocalDate primerDia = particionesStockService.primerDiaAcoplado();
+        if (primerDia != null && fecha.isBefore(primerDia)) {
+            log.warn("⚠️ Resumen de la sucursal {}: {} es de un mes desacoplado, se rearma desde {}",
+                    sucursalId, fecha, primerDia);
+            fecha = primerDia;
+        }
+        if (!stockHistoricoRepository.existeStockPosterior(sucursalId, fecha)) {
+            recalcular(sucursalId, fecha, fecha);
+            stockCheckpointService.actualizarDesde(sucursalId, fecha);
+            return;
+        }
+        LocalDate ultima = TiempoUtils.aFecha(resumenRepository.findUltimaFecha(sucursalId));
+        reconstruir(fecha, ultima, sucursalId);
+    }
+
+    /** Un tramo: (sucursal, rango de fechas) en una transacción */
+    public int recalcular(Long sucursalId, LocalDate desde, LocalDate hasta) {
+        return transactionTemplate.execute(status -> {
+            resumenRepository.borrar(sucursalId, desde, hasta);
+            return resumenRepository.insertar(sucursalId, desde, hasta);
+        });
+    }
+
+    /**
+     * Reconstruye el rango para una sucursal (o todas con sucursalId null)
+     * en tramos paralelos, y los cierres semanales desde el comienzo del
+     * rango. Devuelve las filas de resumen escritas. Un rango que empieza en
+     * un mes desacoplado se rechaza: borraría su resumen sin poder rearmarlo.
+     */
+    public int reconstruir(LocalDate desde, LocalDate hasta, Long sucursalId) {
+        LocalDate primerDia = particionesStockService.primerDiaAcoplado();
+        if (primerDia != null && desde.isBefore(primerDia)) {
+            throw new IllegalStateException("El stock anterior al " + primerDia
+                    + " fue desacoplado de stock_historico: reconstruí desde esa fecha");
+        }
+        long inicio = System.currentTimeMillis();
+
+        List<Long> sucursales = new ArrayList<>();
+        if (sucursalId != null) {
+            sucursales.add(sucursalId);
+        } else {
+            for (Sucursal s : sucursalRepository.findAll()) {
+                sucursales.add(s.getId());
+            }
+        }
+
+        List<Future<Integer>> tramos = new ArrayList<>();
+        for (Long id : sucursales) {
+            for (LocalDate d = desde; !d.isAfter(hasta); d = d.plusDays(diasPorTramo)) {
+                LocalDate tramoDesde = d;
+                LocalDate tramoHasta = d.plusDays(diasPorTramo - 1L).isAfter(hasta)
+                        ? hasta
+                        : d.plusDays(diasPorTramo - 1L);
+                tramos.add(tramosExecutor.submit(() -> recalcular(id, tramoDesde, tramoHasta)));
+            }
+        }
+
+        int filas = 0;
+        for (Future<Integer> tramo : tramos) {
+            filas += esperar(tramo);
+        }
+        for (Long id : sucursales) {
+            stockCheckpointService.actualizarDesde(id, desde);
+        }
+
+        log.info("📊 Resumen diario reconstruido del {} al {} ({} sucursales, {} tramos): {} filas en {} ms",
+                desde, hasta, sucursales.size(), tramos.size(), filas, System.currentTimeMillis() - inicio);
+        return filas;
+    }
+
+    private int esperar(Future<Integer> tramo) {
+        try {
+            return tramo.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Reconstrucción del resumen interrumpida", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException re) {
+                throw re;
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+}
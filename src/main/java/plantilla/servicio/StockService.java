@@ -1,23 +1,48 @@
 package plantilla.servicio;
 
 import lombok.extern.slf4j.Slf4j;
-import org.apache.poi.ss.usermodel.Row;
-import org.apache.poi.ss.usermodel.Sheet;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.NestedExceptionUtils;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.stereotype.Service;
 
 import plantilla.dominio.EventoCarga;
 
 import plantilla.dominio.Sucursal;
 import plantilla.repositorios.EventoCargaRepository;
+import plantilla.repositorios.StockHistoricoRepository;
 
 import plantilla.repositorios.SucursalRepository;
 
+import plantilla.util.ErroresCelda;
+import plantilla.util.LectorExcelStreaming;
 import plantilla.util.Validadores;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.File;
+import java.io.IOException;
+import java.sql.SQLException;
 import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
 
 @Service
 @Slf4j
@@ -32,6 +57,21 @@ public class StockService {
     @Autowired
     private ResultadoBloqueService resultadoBloqueService;
 
+    @Autowired
+    private StockHistoricoRepository stockHistoricoRepository;
+
+    @Autowired
+    private ProgresoCargaService progresoCargaService;
+
+    @Autowired
+    private EventoCargaService eventoCargaService;
+
+    @Autowired
+    private ErroresCargaService erroresCargaService;
+
+    @Autowired
+    private ParticionesStockService particionesStockService;
+
     public static final int IDX_DEPOSITO = 0;
     public static final int IDX_COD_DEPOSITO = 1;
     public static final int IDX_ID_DEPOSITO = 2;
@@ -47,143 +87,713 @@ public class StockService {
 
     public static final int BLOQUE_SIZE = 500;
 
-    // @Transactional
+    private static final String[] NOMBRES_COLUMNA = {
+            "Depósito", "Cód. depósito", "Id depósito", "Master id", "SKU", "Color",
+            "Descripción", "Ambiente", "Familia", "Nivel 3", "Nivel 4", "Cantidad"
+    };
+
+    /** Nombre de la columna del archivo de inventario, para los reportes de errores */
+    public static String nombreColumna(int indice) {
+        return indice >= 0 && indice < NOMBRES_COLUMNA.length
+                ? NOMBRES_COLUMNA[indice]
+                : "Columna " + (indice + 1);
+    }
+
+    /** Problemas de la fila completa; ResultadoBloqueService ignora las filas sin SKU */
+    static void revisarFila(FilaStockDTO fila, ErroresCelda errores) {
+        if (fila.getSku() == null || fila.getSku().isBlank()) {
+            errores.registrar("Fila sin SKU (se ignora)", IDX_SKU, null, null);
+        } else if (fila.getCantidad() == null) {
+            errores.registrar("Fila sin cantidad", IDX_CANTIDAD, fila.getSku(), null);
+        }
+    }
+
+    /** Marca de fin de archivo en las colas del pipeline */
+    private static final BloqueCarga FIN = new BloqueCarga(null, Collections.emptyList(), null);
+
+    /** Bloques leídos que pueden esperar en memoria a que los tome un escritor */
+    @Value("${stock.ingesta.cola-bloques:4}")
+    private int capacidadCola;
+
+    /**
+     * Escritores por carga. Cada depósito de un archivo consolidado se asigna
+     * a un escritor: con más de uno, los depósitos se escriben en paralelo.
+     */
+    @Value("${stock.ingesta.escritores:1}")
+    private int escritores;
+
+    /**
+     * Cada cuánto se guarda el progreso en eventos_carga. Entre medio sólo se
+     * actualiza ProgresoCargaService (SSE).
+     */
+    @Value("${stock.progreso.intervalo-db-ms:10000}")
+    private long intervaloProgresoDb;
+
+    /**
+     * Filas rechazadas (ver ResultadoBloqueService.rechazarFila) a partir de las
+     * cuales la carga falla: muchas filas malas suele ser un archivo equivocado.
+     */
+    @Value("${stock.ingesta.max-rechazos:1000}")
+    private int maxRechazos;
+
+    /** Cargas simultáneas: los hilos de ingestaExecutor (ver AsyncConfig) */
+    @Value("${stock.ingesta.hilos:4}")
+    private int hilosIngesta;
+
+    private static final AtomicInteger CONTADOR_HILOS = new AtomicInteger();
+
+    private ExecutorService pipelineExecutor;
+
+    /**
+     * Cada carga ocupa un hilo de ingestaExecutor (su primer escritor) y acá
+     * el lector más los escritores adicionales: con hilos × escritores ninguna
+     * carga espera por otra y el total queda acotado como el de la ingesta.
+     */
+    @PostConstruct
+    void iniciarPipeline() {
+        int hilos = Math.max(1, hilosIngesta) * Math.max(1, escritores);
+        pipelineExecutor = Executors.newFixedThreadPool(hilos, r -> {
+            Thread t = new Thread(r, "pipeline-carga-" + CONTADOR_HILOS.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Procesa el archivo leyéndolo en streaming (SAX para .xlsx, eventos HSSF
+     * para .xls): nunca se arma el workbook completo.
+     * La lectura corre en su propio hilo y deja bloques en colas acotadas que
+     * consumen los escritores, así el decode de celdas se solapa con la base y
+     * las colas frenan al lector si la base va más lenta.
+     * Un archivo consolidado (varios depósitos) se parte al vuelo: cada
+     * depósito distinto del de la primera fila va a su propio EventoCarga
+     * (mismo lote, evento_padre_id = este evento) y las particiones se
+     * escriben en paralelo.
+     * El total de registros se toma del evento (lo informa quien lo crea).
+     * Cada partición saltea las filas que ya confirmó (ver filaDeReanudacion).
+     */
     public void procesarStock(
-            Sheet sheet,
+            File archivo,
             String nombreArchivo,
             LocalDate fechaStock,
-            EventoCarga evento) {
+            EventoCarga evento) throws IOException {
 
-        int totalRegistros = sheet.getPhysicalNumberOfRows() - 1;
+        // antes de la primera transacción de bloque: crear la partición bloquea la tabla
+        particionesStockService.asegurar(fechaStock);
+
+        PipelineCarga pipeline = new PipelineCarga(archivo, nombreArchivo, fechaStock, evento);
+        try {
+            pipeline.ejecutar();
+            pipeline.finalizar();
+        } catch (IOException | RuntimeException ex) {
+            pipeline.fallar(ex);
+            throw ex;
+        }
+    }
 
-        evento.setTotalRegistros(totalRegistros);
-        evento.setProcesados(0);
-        evento.setPorcentaje(0);
-        evento.setEstado("EN_PROCESO");
+    /**
+     * Fila después de la cual se puede retomar una carga cortada, o 0 si hay
+     * que empezar de cero. Los bloques de una misma partición siempre los
+     * escribe el mismo escritor, en orden: el checkpoint marca un prefijo
+     * completo de sus filas.
+     */
+    public int filaDeReanudacion(EventoCarga evento) {
+        Integer fila = evento.getFilaConfirmada();
+        return fila != null && fila > 0 ? fila : 0;
+    }
 
-        evento = eventoCargaRepository.save(evento);
+    /**
+     * Un error que depende de las filas (dato inválido, restricción violada) se
+     * puede aislar partiendo el bloque: DataIntegrityViolationException o un
+     * SQLState de clase 22 (dato) o 23 (restricción). Cualquier otro (conexión,
+     * bloqueo, error de la base) fallaría igual con cualquier fila: se corta la
+     * carga, que se puede reanudar.
+     */
+    static boolean esErrorDeDatos(RuntimeException e) {
+        if (e instanceof DataIntegrityViolationException) {
+            return true;
+        }
+        for (Throwable causa = e; causa != null; causa = causa.getCause()) {
+            if (causa instanceof SQLException sql && sql.getSQLState() != null) {
+                return sql.getSQLState().startsWith("22") || sql.getSQLState().startsWith("23");
+            }
+        }
+        return false;
+    }
 
-        // Authentication auth = SecurityContextHolder.getContext().getAuthentication();
-        // String usuarioActual = auth != null ? auth.getName() : "sistema";
+    /**
+     * Escribe las filas en una transacción; si falla por los datos, parte el
+     * lote en mitades y reintenta cada una hasta aislar las filas que no se
+     * pueden escribir. Las mitades se confirman en orden, así el checkpoint
+     * sigue marcando un prefijo de la partición.
+     */
+    static ResultadoBloqueDTO escribirOBisecar(List<FilaStockDTO> filas,
+            Function<List<FilaStockDTO>, ResultadoBloqueDTO> escritura,
+            BiConsumer<FilaStockDTO, RuntimeException> rechazo) {
+        try {
+            return escritura.apply(filas);
+        } catch (RuntimeException e) {
+            if (!esErrorDeDatos(e)) {
+                throw e;
+            }
+            if (filas.size() == 1) {
+                rechazo.accept(filas.get(0), e);
+                return new ResultadoBloqueDTO(null, null);
+            }
+            log.debug("Falló el lote de filas {}..{}, se reintenta por mitades",
+                    filas.get(0).getNumeroFila(), filas.get(filas.size() - 1).getNumeroFila());
+
+            int mitad = filas.size() / 2;
+            ResultadoBloqueDTO a = escribirOBisecar(filas.subList(0, mitad), escritura, rechazo);
+            ResultadoBloqueDTO b = escribirOBisecar(filas.subList(mitad, filas.size()), escritura, rechazo);
+            return new ResultadoBloqueDTO(
+                    a.getStockInicial() != null ? a.getStockInicial() : b.getStockInicial(),
+                    b.getStockFinal() != null ? b.getStockFinal() : a.getStockFinal());
+        }
+    }
 
-        // ==========================
-        // Resolver sucursal
-        // ==========================
-        Row firstDataRow = obtenerPrimeraFilaDatos(sheet);
+    @PreDestroy
+    void detenerPipeline() {
+        pipelineExecutor.shutdownNow();
+    }
 
-        Long idDeposito = Validadores.safeLongCell(firstDataRow, IDX_ID_DEPOSITO);
-        String codDeposito = Validadores.safeStringCell(firstDataRow, IDX_COD_DEPOSITO);
-        String nombreDeposito = Validadores.safeStringCell(firstDataRow, IDX_DEPOSITO);
+    /** Bloque de filas de una partición, en viaje del lector a su escritor, con sus problemas de datos */
+    private record BloqueCarga(CargaEnCurso carga, List<FilaStockDTO> filas, ErroresBloque errores) {
+    }
 
-        Sucursal sucursal = resolverSucursal(
-                idDeposito, codDeposito, nombreDeposito, nombreArchivo);
+    /**
+     * Lector → una cola acotada por escritor → escritores.
+     * Cada partición (depósito) se asigna a un escritor fijo, así sus bloques
+     * se confirman en orden mientras particiones distintas se escriben en
+     * paralelo. El hilo que llama es uno de los escritores; el lector y los
+     * escritores adicionales corren en pipelineExecutor.
+     */
+    private class PipelineCarga {
 
-        Long stockInicial = null;
-        Long stockFinal = null;
+        private final File archivo;
+        private final String nombreArchivo;
+        private final LocalDate fechaStock;
 
-        // ==========================
-        // Procesamiento por bloques
-        // ==========================
-        List<Row> bloque = new ArrayList<>(BLOQUE_SIZE);
+        private final int cantidadEscritores = Math.max(1, escritores);
+        private final List<BlockingQueue<BloqueCarga>> colas = new ArrayList<>();
 
-        try {
-            for (Row row : sheet) {
-                if (row.getRowNum() == 0)
-                    continue;
+        /** Filas escritas (o salteadas) de todo el archivo, para el porcentaje */
+        private final AtomicInteger filasArchivo = new AtomicInteger();
 
-                bloque.add(row);
+        private final CargaEnCurso principal;
 
-                if (bloque.size() == BLOQUE_SIZE) {
-                    ResultadoBloqueDTO r = resultadoBloqueService.procesarBloque(
-                            bloque, sucursal, fechaStock, evento);
+        /** Particiones por idDeposito; null = depósito que no se pudo tomar. Sólo las toca el lector */
+        private final Map<Long, CargaEnCurso> rutas = new HashMap<>();
+        private final List<CargaEnCurso> particiones = new ArrayList<>();
+        private final Set<String> omitidas = new LinkedHashSet<>();
 
-                    int procesadosHastaAhora = evento.getProcesados() + bloque.size();
-                    evento.setProcesados(procesadosHastaAhora);
+        private volatile boolean cancelada = false;
 
-                    int porcentaje = (int) ((procesadosHastaAhora * 100.0) / evento.getTotalRegistros());
+        PipelineCarga(File archivo, String nombreArchivo, LocalDate fechaStock, EventoCarga evento) {
+            this.archivo = archivo;
+            this.nombreArchivo = nombreArchivo;
+            this.fechaStock = fechaStock;
 
-                    evento.setPorcentaje(Math.min(porcentaje, 100));
+            int capacidad = Math.max(1, capacidadCola / cantidadEscritores);
+            for (int i = 0; i < cantidadEscritores; i++) {
+                colas.add(new ArrayBlockingQueue<>(capacidad + 1)); // +1: lugar para el FIN
+            }
 
-                    eventoCargaRepository.save(evento);
+            this.principal = new CargaEnCurso(nombreArchivo, fechaStock, evento,
+                    filaDeReanudacion(evento), filasArchivo);
+            particiones.add(principal);
+        }
 
-                    if (r.getStockInicial() != null && stockInicial == null) {
+        void ejecutar() throws IOException {
+            List<Future<?>> tareas = new ArrayList<>();
+            tareas.add(pipelineExecutor.submit(() -> {
+                leer();
+                return null;
+            }));
+            for (int i = 1; i < cantidadEscritores; i++) {
+                BlockingQueue<BloqueCarga> cola = colas.get(i);
+                tareas.add(pipelineExecutor.submit(() -> {
+                    escribir(cola);
+                    return null;
+                }));
+            }
 
-                        stockInicial = r.getStockInicial();
+            Throwable error = null;
+            try {
+                escribir(colas.get(0));
+            } catch (RuntimeException e) {
+                error = e;
+            }
+
+            // Esperar siempre a los demás hilos: nadie debe seguir tocando los eventos
+            for (Future<?> tarea : tareas) {
+                try {
+                    tarea.get();
+                } catch (ExecutionException e) {
+                    if (error == null) {
+                        error = e.getCause();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    cancelada = true;
+                    if (error == null) {
+                        error = e;
                     }
+                }
+            }
+
+            if (error instanceof IOException io) {
+                throw io;
+            }
+            if (error instanceof RuntimeException re) {
+                throw re;
+            }
+            if (error != null) {
+                throw new IllegalStateException("Error en la carga: " + error.getMessage(), error);
+            }
+        }
 
-                    if (r.getStockFinal() != null) {
-                        stockFinal = r.getStockFinal();
+        /**
+         * Cierra las particiones secundarias y después la principal. Si algún
+         * depósito no se pudo cargar, la principal queda FALLIDA: al reanudarla
+         * las particiones terminadas saltean todo y sólo se reintenta lo omitido.
+         */
+        void finalizar() {
+            for (CargaEnCurso p : particiones) {
+                if (p != principal) {
+                    p.finalizar();
+                }
+            }
+            if (!omitidas.isEmpty()) {
+                throw new IllegalStateException("No se cargaron los depósitos " + omitidas
+                        + ": la sucursal tiene otra carga en curso. Reanudá esta carga cuando termine.");
+            }
+            principal.finalizar();
+        }
+
+        void fallar(Exception ex) {
+            for (CargaEnCurso p : particiones) {
+                if (!p.finalizada) {
+                    p.fallar(ex);
+                }
+            }
+        }
+
+        private void leer() throws IOException {
+            try {
+                LectorExcelStreaming.leer(archivo, (numeroFila, valores) -> {
+                    if (cancelada) {
+                        return false;
+                    }
+                    if (numeroFila == 0) {
+                        return true;
                     }
 
-                    bloque.clear();
+                    CargaEnCurso carga = particion(numeroFila, valores);
+                    if (carga == null) {
+                        return true; // depósito omitido
+                    }
+
+                    if (numeroFila <= carga.filaDesde) {
+                        carga.salteadas++;
+                        return true;
+                    }
+                    if (carga.salteadas > 0) {
+                        carga.registrarSalteadas(carga.salteadas);
+                        carga.salteadas = 0;
+                    }
+
+                    ErroresCelda erroresFila = carga.erroresBloque.paraFila(numeroFila);
+                    FilaStockDTO fila = FilaStockDTO.desdeValores(numeroFila, valores, erroresFila);
+                    revisarFila(fila, erroresFila);
+                    carga.bloque.add(fila);
 
+                    if (carga.bloque.size() == BLOQUE_SIZE) {
+                        encolar(carga.cerrarBloque());
+                    }
+                    return !cancelada;
+                });
+
+                for (CargaEnCurso carga : particiones) {
+                    if (!carga.bloque.isEmpty()) {
+                        encolar(carga.cerrarBloque());
+                    }
+                    if (carga.salteadas > 0) {
+                        carga.registrarSalteadas(carga.salteadas); // el checkpoint cubría toda la partición
+                        carga.salteadas = 0;
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                cancelada = true;
+                throw e;
+            } finally {
+                for (BlockingQueue<BloqueCarga> cola : colas) {
+                    if (cancelada) {
+                        cola.clear(); // los bloques pendientes ya no se escriben
+                    }
+                    encolarFin(cola);
                 }
             }
+        }
 
-            // último bloque incompleto
-            if (!bloque.isEmpty()) {
-                ResultadoBloqueDTO r = resultadoBloqueService.procesarBloque(
-                        bloque, sucursal, fechaStock, evento);
+        /**
+         * Partición de la fila según su depósito. La primera fila y las que no
+         * traen depósito van a la principal; cada depósito nuevo resuelve su
+         * sucursal una sola vez.
+         */
+        private CargaEnCurso particion(int numeroFila, Object[] valores) {
+            Long idDeposito = Validadores.safeLong(
+                    IDX_ID_DEPOSITO < valores.length ? valores[IDX_ID_DEPOSITO] : null, IDX_ID_DEPOSITO);
+
+            if (rutas.containsKey(idDeposito)) {
+                return rutas.get(idDeposito);
+            }
 
-                int procesadosHastaAhora = evento.getProcesados() + bloque.size();
-                evento.setProcesados(procesadosHastaAhora);
+            FilaStockDTO fila = FilaStockDTO.desdeValores(numeroFila, valores);
+            CargaEnCurso carga;
+
+            if (rutas.isEmpty() || idDeposito == null) {
+                principal.resolverSucursal(fila);
+                carga = principal;
+            } else {
+                Sucursal sucursal = resolverSucursalDesdeFila(fila, nombreArchivo);
+                carga = sucursal.getId().equals(principal.sucursal.getId())
+                        ? principal
+                        : abrirParticion(sucursal, fila);
+            }
 
-                int porcentaje = (int) ((procesadosHastaAhora * 100.0) / evento.getTotalRegistros());
+            rutas.put(idDeposito, carga);
+            return carga;
+        }
 
-                evento.setPorcentaje(Math.min(porcentaje, 100));
-                eventoCargaRepository.save(evento);
+        private CargaEnCurso abrirParticion(Sucursal sucursal, FilaStockDTO fila) {
+            for (CargaEnCurso p : particiones) {
+                if (p.sucursal.getId().equals(sucursal.getId())) {
+                    return p; // otro idDeposito de la misma sucursal
+                }
+            }
 
-                if (r.getStockInicial() != null && stockInicial == null) {
-                    stockInicial = r.getStockInicial();
+            EventoCarga hijo;
+            try {
+                hijo = eventoCargaService.abrirParticion(principal.asegurarLote(), sucursal);
+            } catch (IllegalStateException e) {
+                log.warn("⚠️ Evento {}: se omite el depósito {} ({})",
+                        principal.evento.getId(), fila.getIdDeposito(), e.getMessage());
+                omitidas.add(sucursal.getNombre());
+                return null;
+            }
+
+            CargaEnCurso carga = new CargaEnCurso(nombreArchivo, fechaStock, hijo,
+                    filaDeReanudacion(hijo), filasArchivo);
+            carga.sucursal = sucursal;
+            carga.totalArchivo = principal.evento.getTotalRegistros();
+            carga.escritor = particiones.size() % cantidadEscritores;
+            particiones.add(carga);
+
+            log.info("🔀 Evento {}: depósito {} → evento {} ({})",
+                    principal.evento.getId(), fila.getIdDeposito(), hijo.getId(), sucursal.getNombre());
+            return carga;
+        }
+
+        private void encolar(BloqueCarga bloque) {
+            BlockingQueue<BloqueCarga> cola = colas.get(bloque.carga().escritor);
+            try {
+                while (!cola.offer(bloque, 200, TimeUnit.MILLISECONDS)) {
+                    if (cancelada) {
+                        return;
+                    }
                 }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                cancelada = true;
+            }
+        }
 
-                if (r.getStockFinal() != null) {
-                    stockFinal = r.getStockFinal();
+        private void encolarFin(BlockingQueue<BloqueCarga> cola) {
+            // si la carga se canceló puede no quedar nadie consumiendo: se vacía la
+            // cola, que siempre tiene lugar para el FIN
+            try {
+                while (!cola.offer(FIN, 200, TimeUnit.MILLISECONDS)) {
+                    if (cancelada) {
+                        cola.clear();
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private void escribir(BlockingQueue<BloqueCarga> cola) {
+            while (true) {
+                BloqueCarga bloque;
+                try {
+                    bloque = cola.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    cancelada = true;
+                    throw new IllegalStateException("Carga interrumpida", e);
+                }
+
+                if (bloque == FIN) {
+                    return;
+                }
+                if (cancelada) {
+                    continue; // drenar hasta el FIN
+                }
+
+                try {
+                    bloque.carga().procesarBloque(bloque.filas(), bloque.errores());
+                } catch (RuntimeException e) {
+                    cancelada = true;
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /**
+     * Estado de una carga (o de una partición de un consolidado) mientras se
+     * recorren las filas: envía bloques de BLOQUE_SIZE a ResultadoBloqueService
+     * y lleva el progreso del evento: en memoria en cada bloque, en la base cada
+     * intervaloProgresoDb y al terminar. El porcentaje es el del archivo
+     * completo (filasArchivo se comparte entre particiones).
+     * Al retomar una carga, filaDesde es la última fila ya confirmada.
+     */
+    private class CargaEnCurso {
+
+        private final String nombreArchivo;
+        private final LocalDate fechaStock;
+        private final int filaDesde;
+        private final AtomicInteger filasArchivo;
+        private EventoCarga evento;
+
+        private volatile Sucursal sucursal;
+        private Integer totalArchivo;
+
+        // estado del lector (un solo hilo)
+        private final List<FilaStockDTO> bloque = new ArrayList<>(BLOQUE_SIZE);
+        private ErroresBloque erroresBloque = new ErroresBloque();
+        private int salteadas = 0;
+        private int escritor = 0;
+
+        private Long stockInicial = null;
+        private Long stockFinal = null;
+
+        private long ultimoGuardado = System.currentTimeMillis();
+        private volatile boolean finalizada = false;
+
+        // problemas de datos de las filas confirmadas; se guardan al terminar
+        private final RegistroErroresCarga errores;
+
+        // rechazos del bloque que está escribiendo la partición (un solo escritor)
+        private int rechazadasEnBloque = 0;
+
+        CargaEnCurso(String nombreArchivo, LocalDate fechaStock, EventoCarga evento, int filaDesde,
+                AtomicInteger filasArchivo) {
+            this.nombreArchivo = nombreArchivo;
+            this.fechaStock = fechaStock;
+            this.filaDesde = filaDesde;
+            this.filasArchivo = filasArchivo;
+            this.totalArchivo = evento.getTotalRegistros();
+            this.errores = erroresCargaService.abrir(evento.getId(), filaDesde > 0);
+
+            if (filaDesde > 0) {
+                // el rango de ids sigue desde lo que dejó el intento anterior
+                for (Object[] rango : stockHistoricoRepository.findRangoIdsByEventoCargaId(evento.getId())) {
+                    stockInicial = rango[0] != null ? ((Number) rango[0]).longValue() : null;
+                    stockFinal = rango[1] != null ? ((Number) rango[1]).longValue() : null;
                 }
+                log.info("⏩ Evento {}: se retoma después de la fila {}", evento.getId(), filaDesde);
+            }
+
+            evento.setProcesados(0);
+            evento.setPorcentaje(0);
+            if (filaDesde == 0 || evento.getFilasRechazadas() == null) {
+                evento.setFilasRechazadas(0); // al retomar siguen contando los rechazos ya confirmados
+            }
+            evento.setEstado("EN_PROCESO");
+            this.evento = eventoCargaRepository.save(evento);
+            progresoCargaService.actualizar(this.evento);
+        }
+
+        void resolverSucursal(FilaStockDTO fila) {
+            if (sucursal == null) {
+                // ==========================
+                // Resolver sucursal
+                // ==========================
+                sucursal = resolverSucursalDesdeFila(fila, nombreArchivo);
+            }
+        }
+
+        /** Las particiones se agrupan con la principal por lote */
+        synchronized EventoCarga asegurarLote() {
+            if (evento.getLote() == null) {
+                evento.setLote(UUID.randomUUID().toString());
+                eventoCargaRepository.save(evento);
+            }
+            return evento;
+        }
+
+        synchronized void registrarSalteadas(int filas) {
+            evento.setProcesados(evento.getProcesados() + filas);
+            actualizarPorcentaje(filasArchivo.addAndGet(filas));
+            progresoCargaService.actualizar(evento);
+        }
+
+        /** Entrega el bloque armado por el lector y empieza uno nuevo */
+        BloqueCarga cerrarBloque() {
+            BloqueCarga cerrado = new BloqueCarga(this, new ArrayList<>(bloque), erroresBloque);
+            bloque.clear();
+            erroresBloque = new ErroresBloque();
+            return cerrado;
+        }
+
+        void finalizar() {
+            if (sucursal == null) {
+                throw new IllegalStateException("El archivo no contiene filas de datos");
             }
 
             evento.setEstado("COMPLETADO");
+            if (evento.getTotalRegistros() == null) {
+                evento.setTotalRegistros(evento.getProcesados()); // la hoja no declaraba su dimensión
+            }
             evento.setIdStockInicial(stockInicial);
             evento.setIdStockFinal(stockFinal);
             evento.setPorcentaje(100);
+            guardarErrores();
+            if (evento.getFilasRechazadas() != null && evento.getFilasRechazadas() > 0) {
+                evento.setObservaciones("Completada con " + evento.getFilasRechazadas() + " filas rechazadas");
+            } else if (evento.getErroresDatos() > 0) {
+                evento.setObservaciones("Completada con " + evento.getErroresDatos() + " problemas de datos");
+            }
             EventoCarga e = eventoCargaRepository.save(evento);
-            log.info("stock inicial:  " + e.getIdStockInicial());
+            finalizada = true;
+            progresoCargaService.actualizar(e);
+            log.info("Evento {}: stock inicial {} final {}", e.getId(), e.getIdStockInicial(), e.getIdStockFinal());
+        }
 
-            log.info("stock inicial : " + e.getIdStockFinal());
-            log.info("stock id : " + e.getId());
-        } catch (Exception ex) {
+        synchronized void fallar(Exception ex) {
             evento.setEstado("FALLIDO");
             evento.setIdStockInicial(stockInicial);
             evento.setIdStockFinal(stockFinal);
             evento.setObservaciones(ex.getMessage());
+            try {
+                guardarErrores();
+            } catch (RuntimeException e) {
+                log.warn("No se pudo guardar el resumen de errores del evento {}", evento.getId(), e);
+            }
             eventoCargaRepository.save(evento);
-            throw ex;
+            progresoCargaService.actualizar(evento);
+            finalizada = true;
         }
-    }
 
-    public Sucursal resolverSucursalDesdeArchivo(
-            Sheet sheet,
-            String nombreArchivo) {
-        Row firstDataRow = obtenerPrimeraFilaDatos(sheet);
+        /** Una sola escritura del registro de errores, al final de la carga */
+        private void guardarErrores() {
+            erroresCargaService.guardar(evento.getId(), errores);
+            evento.setErroresDatos((int) Math.min(errores.getTotal(), Integer.MAX_VALUE));
+        }
 
-        Long idDeposito = Validadores.safeLongCell(firstDataRow, IDX_ID_DEPOSITO);
-        String codDeposito = Validadores.safeStringCell(firstDataRow, IDX_COD_DEPOSITO);
-        String nombreDeposito = Validadores.safeStringCell(firstDataRow, IDX_DEPOSITO);
+        void procesarBloque(List<FilaStockDTO> filas, ErroresBloque erroresFilas) {
+            rechazadasEnBloque = 0;
+            ResultadoBloqueDTO r = escribirOBisecar(filas, erroresFilas);
 
-        return resolverSucursal(
-                idDeposito,
-                codDeposito,
-                nombreDeposito,
-                nombreArchivo);
-    }
+            synchronized (this) {
+                evento.setProcesados(evento.getProcesados() + filas.size());
+                evento.setFilasRechazadas(evento.getFilasRechazadas() + rechazadasEnBloque);
+                actualizarPorcentaje(filasArchivo.addAndGet(filas.size()));
+
+                progresoCargaService.actualizar(evento);
+
+                long ahora = System.currentTimeMillis();
+                if (ahora - ultimoGuardado >= intervaloProgresoDb) {
+                    eventoCargaRepository.save(evento);
+                    ultimoGuardado = ahora;
+                }
 
-    private Row obtenerPrimeraFilaDatos(Sheet sheet) {
-        for (Row row : sheet) {
-            if (row.getRowNum() > 0) {
-                return row;
+                // los bloques de particiones distintas no terminan en orden
+                if (r.getStockInicial() != null
+                        && (stockInicial == null || r.getStockInicial() < stockInicial)) {
+                    stockInicial = r.getStockInicial();
+                }
+
+                if (r.getStockFinal() != null
+                        && (stockFinal == null || r.getStockFinal() > stockFinal)) {
+                    stockFinal = r.getStockFinal();
+                }
             }
         }
-        throw new IllegalStateException("El archivo no contiene filas de datos");
+
+        /**
+         * Ver StockService.escribirOBisecar. Los problemas de datos de las filas
+         * pasan al registro de la carga recién cuando esas filas se confirman.
+         */
+        private ResultadoBloqueDTO escribirOBisecar(List<FilaStockDTO> filas, ErroresBloque erroresFilas) {
+            return StockService.escribirOBisecar(filas,
+                    f -> {
+                        ResultadoBloqueDTO r = resultadoBloqueService.procesarBloque(f, sucursal, fechaStock, evento);
+                        erroresFilas.confirmarHasta(f.get(f.size() - 1).getNumeroFila(), errores);
+                        return r;
+                    },
+                    (fila, e) -> {
+                        rechazar(fila, e);
+                        erroresFilas.confirmarHasta(fila.getNumeroFila(), errores);
+                    });
+        }
+
+        private void rechazar(FilaStockDTO fila, RuntimeException e) {
+            if (evento.getFilasRechazadas() + rechazadasEnBloque >= maxRechazos) {
+                throw new IllegalStateException("Se superó el máximo de " + maxRechazos
+                        + " filas rechazadas; la última en la fila " + fila.getNumeroFila(), e);
+            }
+            String error = NestedExceptionUtils.getMostSpecificCause(e).getMessage();
+            resultadoBloqueService.rechazarFila(fila, evento, error);
+            errores.registrar("Fila rechazada", null, fila.getNumeroFila(), fila.getSku(), error);
+            rechazadasEnBloque++;
+        }
+
+        private void actualizarPorcentaje(int filasEscritas) {
+            int porcentaje = totalArchivo != null && totalArchivo > 0
+                    ? (int) ((filasEscritas * 100.0) / totalArchivo)
+                    : 0;
+            evento.setPorcentaje(Math.min(porcentaje, 100));
+        }
+    }
+
+    /**
+     * Preflight de la subida: lee sólo la dimensión de la hoja y la primera fila
+     * de datos, sin recorrer el resto del archivo. La lectura completa ocurre
+     * una sola vez, en la cola.
+     */
+    public PreflightStockDTO leerEncabezado(File archivo) throws IOException {
+        PreflightStockDTO preflight = new PreflightStockDTO();
+
+        LectorExcelStreaming.leer(archivo, new LectorExcelStreaming.ManejadorFila() {
+            @Override
+            public void dimension(int filas) {
+                preflight.setTotalRegistros(filas - 1);
+            }
+
+            @Override
+            public boolean procesar(int numeroFila, Object[] valores) {
+                if (numeroFila == 0) {
+                    return true;
+                }
+                preflight.setPrimeraFila(FilaStockDTO.desdeValores(numeroFila, valores));
+                return false;
+            }
+        });
+
+        return preflight;
+    }
+
+    public Sucursal resolverSucursalDesdeFila(
+            FilaStockDTO fila,
+            String nombreArchivo) {
+        return resolverSucursal(
+                fila.getIdDeposito(),
+                fila.getCodDeposito(),
+                fila.getDeposito(),
+                nombreArchivo);
     }
 
     private Sucursal resolverSucursal(
@@ -0,0 +1,11 @@
+package plantilla.util;
+
+/**
+ * Destino de los problemas de lectura de celdas (ver Validadores). La ingesta
+ * los junta por evento en lugar de loguear una línea por celda.
+ */
+@FunctionalInterface
+public interface ErroresCelda {
+
+    void registrar(String tipo, int columna, Object valor, String detalle);
+}
@@ -0,0 +1,340 @@
+package plantilla.util;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.poi.hssf.eventusermodel.HSSFEventFactory;
+import org.apache.poi.hssf.eventusermodel.HSSFListener;
+import org.apache.poi.hssf.eventusermodel.HSSFRequest;
+import org.apache.poi.hssf.record.BOFRecord;
+import org.apache.poi.hssf.record.BoolErrRecord;
+import org.apache.poi.hssf.record.CellValueRecordInterface;
+import org.apache.poi.hssf.record.DimensionsRecord;
+import org.apache.poi.hssf.record.EOFRecord;
+import org.apache.poi.hssf.record.FormulaRecord;
+import org.apache.poi.hssf.record.LabelRecord;
+import org.apache.poi.hssf.record.LabelSSTRecord;
+import org.apache.poi.hssf.record.NumberRecord;
+import org.apache.poi.hssf.record.Record;
+import org.apache.poi.hssf.record.SSTRecord;
+import org.apache.poi.hssf.record.StringRecord;
+import org.apache.poi.openxml4j.exceptions.OpenXML4JException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.poifs.filesystem.FileMagic;
+import org.apache.poi.poifs.filesystem.POIFSFileSystem;
+import org.apache.poi.ss.util.CellReference;
+import org.apache.poi.util.XMLHelper;
+import org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.apache.poi.xssf.model.SharedStrings;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Lectura de la primera hoja de un Excel fila por fila, sin construir el
+ * workbook completo en memoria.
+ * .xlsx se lee con el modelo SAX de XSSF y .xls con la API de eventos de HSSF.
+ * Cada fila se entrega como un arreglo de valores crudos indexado por columna:
+ * String, Double, Boolean o null si la celda está vacía.
+ */
+@Slf4j
+public class LectorExcelStreaming {
+
+    @FunctionalInterface
+    public interface ManejadorFila {
+        /**
+         * @param numeroFila índice 0-based de la fila (0 = encabezado)
+         * @param valores    valores crudos por columna
+         * @return false para dejar de leer el archivo
+         */
+        boolean procesar(int numeroFila, Object[] valores);
+
+        /**
+         * Cantidad de filas que declara la hoja (encabezado incluido), si el
+         * archivo la trae. Llega antes que la primera fila.
+         */
+        default void dimension(int filas) {
+        }
+    }
+
+    private LectorExcelStreaming() {
+    }
+
+    public static void leer(File archivo, ManejadorFila manejador) throws IOException {
+        FileMagic formato = FileMagic.valueOf(archivo);
+
+        try {
+            if (formato == FileMagic.OOXML) {
+                leerXlsx(archivo, manejador);
+            } else if (formato == FileMagic.OLE2) {
+                leerXls(archivo, manejador);
+            } else {
+                throw new IllegalArgumentException("Archivo no soportado: " + archivo.getName());
+            }
+        } catch (LecturaDetenida e) {
+            log.debug("Lectura detenida por el manejador en {}", archivo.getName());
+        }
+    }
+
+    // ==========================
+    // .xlsx (SAX)
+    // ==========================
+    private static void leerXlsx(File archivo, ManejadorFila manejador) throws IOException {
+        OPCPackage pkg;
+        try {
+            pkg = OPCPackage.open(archivo, PackageAccess.READ);
+        } catch (OpenXML4JException e) {
+            throw new IOException("No se pudo abrir el archivo " + archivo.getName(), e);
+        }
+
+        try {
+            XSSFReader reader = new XSSFReader(pkg);
+            SharedStrings strings = new ReadOnlySharedStringsTable(pkg);
+
+            Iterator<InputStream> hojas = reader.getSheetsData();
+            if (!hojas.hasNext()) {
+                throw new IllegalStateException("El archivo no contiene hojas");
+            }
+
+            try (InputStream hoja = hojas.next()) {
+                XMLReader parser = XMLHelper.newXMLReader();
+                parser.setContentHandler(new HojaXlsxHandler(strings, manejador));
+                parser.parse(new InputSource(hoja));
+            }
+        } catch (OpenXML4JException | SAXException | ParserConfigurationException e) {
+            throw new IOException("Error leyendo " + archivo.getName() + ": " + e.getMessage(), e);
+        } finally {
+            pkg.revert();
+        }
+    }
+
+    private static final class HojaXlsxHandler extends DefaultHandler {
+
+        private final SharedStrings strings;
+        private final ManejadorFila manejador;
+
+        private final StringBuilder texto = new StringBuilder();
+        private final List<Object> valores = new ArrayList<>();
+
+        private int filaActual = -1;
+        private int columnaActual = -1;
+        private String tipoCelda;
+        private boolean leyendoTexto;
+        private boolean celdaConValor;
+
+        HojaXlsxHandler(SharedStrings strings, ManejadorFila manejador) {
+            this.strings = strings;
+            this.manejador = manejador;
+        }
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes attrs) {
+            switch (localName) {
+                case "dimension" -> {
+                    int filas = filasDeclaradas(attrs.getValue("ref"));
+                    if (filas > 0) {
+                        manejador.dimension(filas);
+                    }
+                }
+                case "row" -> {
+                    String r = attrs.getValue("r");
+                    filaActual = r != null ? Integer.parseInt(r) - 1 : filaActual + 1;
+                    columnaActual = -1;
+                    valores.clear();
+                }
+                case "c" -> {
+                    String ref = attrs.getValue("r");
+                    columnaActual = ref != null ? new CellReference(ref).getCol() : columnaActual + 1;
+                    tipoCelda = attrs.getValue("t");
+                    texto.setLength(0);
+                    celdaConValor = false;
+                }
+                case "v" -> {
+                    leyendoTexto = true;
+                    celdaConValor = true;
+                }
+                case "t" -> {
+                    // texto de celdas inlineStr (<is><t>..</t></is>)
+                    if ("inlineStr".equals(tipoCelda)) {
+                        leyendoTexto = true;
+                        celdaConValor = true;
+                    }
+                }
+                default -> {
+                }
+            }
+        }
+
+        @Override
+        public void characters(char[] ch, int start, int length) {
+            if (leyendoTexto) {
+                texto.append(ch, start, length);
+            }
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) {
+            switch (localName) {
+                case "v", "t" -> leyendoTexto = false;
+                case "c" -> {
+                    if (celdaConValor) {
+                        while (valores.size() <= columnaActual) {
+                            valores.add(null);
+                        }
+                        valores.set(columnaActual, convertir(tipoCelda, texto.toString()));
+                    }
+                }
+                case "row" -> {
+                    if (!manejador.procesar(filaActual, valores.toArray())) {
+                        throw new LecturaDetenida();
+                    }
+                }
+                default -> {
+                }
+            }
+        }
+
+        /** "A1:L60001" → 60001; "A1" (hoja vacía o sin dimensión real) → 0 */
+        private int filasDeclaradas(String ref) {
+            if (ref == null || !ref.contains(":")) {
+                return 0;
+            }
+            return new CellReference(ref.substring(ref.indexOf(':') + 1)).getRow() + 1;
+        }
+
+        private Object convertir(String tipo, String crudo) {
+            if (tipo == null || "n".equals(tipo)) {
+                try {
+                    return Double.parseDouble(crudo);
+                } catch (NumberFormatException e) {
+                    return crudo;
+                }
+            }
+            return switch (tipo) {
+                case "s" -> strings.getItemAt(Integer.parseInt(crudo)).getString();
+                case "inlineStr", "str" -> crudo;
+                case "b" -> "1".equals(crudo);
+                default -> null; // "e" (error)
+            };
+        }
+    }
+
+    // ==========================
+    // .xls (eventos HSSF)
+    // ==========================
+    private static void leerXls(File archivo, ManejadorFila manejador) throws IOException {
+        try (POIFSFileSystem fs = new POIFSFileSystem(archivo, true)) {
+            HSSFRequest request = new HSSFRequest();
+            request.addListenerForAllRecords(new HojaXlsListener(manejador));
+            new HSSFEventFactory().processWorkbookEvents(request, fs);
+        }
+    }
+
+    private static final class HojaXlsListener implements HSSFListener {
+
+        private final ManejadorFila manejador;
+        private final List<Object> valores = new ArrayList<>();
+
+        private SSTRecord sst;
+        private int hojaActual = -1;
+        private int filaActual = -1;
+        private FormulaRecord formulaPendiente;
+
+        HojaXlsListener(ManejadorFila manejador) {
+            this.manejador = manejador;
+        }
+
+        @Override
+        public void processRecord(Record record) {
+            if (record instanceof BOFRecord bof) {
+                if (bof.getType() == BOFRecord.TYPE_WORKSHEET) {
+                    hojaActual++;
+                }
+                return;
+            }
+            if (record instanceof SSTRecord s) {
+                sst = s;
+                return;
+            }
+            if (hojaActual != 0) {
+                return; // solo la primera hoja
+            }
+            if (record instanceof DimensionsRecord dim) {
+                if (dim.getLastRow() > 1) {
+                    manejador.dimension(dim.getLastRow()); // getLastRow ya es "última fila + 1"
+                }
+                return;
+            }
+            if (record instanceof EOFRecord) {
+                emitirFila();
+                throw new LecturaDetenida();
+            }
+            if (record instanceof StringRecord str && formulaPendiente != null) {
+                agregar(formulaPendiente, str.getString());
+                formulaPendiente = null;
+                return;
+            }
+            if (!(record instanceof CellValueRecordInterface celda)) {
+                return;
+            }
+
+            if (celda.getRow() != filaActual) {
+                emitirFila();
+                filaActual = celda.getRow();
+            }
+
+            if (record instanceof LabelSSTRecord label) {
+                agregar(celda, sst.getString(label.getSSTIndex()).getString());
+            } else if (record instanceof LabelRecord label) {
+                agregar(celda, label.getValue());
+            } else if (record instanceof NumberRecord num) {
+                agregar(celda, num.getValue());
+            } else if (record instanceof FormulaRecord formula) {
+                if (formula.hasCachedResultString()) {
+                    formulaPendiente = formula; // el valor llega en el StringRecord siguiente
+                } else {
+                    agregar(celda, formula.getValue());
+                }
+            } else if (record instanceof BoolErrRecord boolErr && boolErr.isBoolean()) {
+                agregar(celda, boolErr.getBooleanValue());
+            }
+        }
+
+        private void agregar(CellValueRecordInterface celda, Object valor) {
+            int columna = celda.getColumn();
+            while (valores.size() <= columna) {
+                valores.add(null);
+            }
+            valores.set(columna, valor);
+        }
+
+        private void emitirFila() {
+            if (filaActual < 0) {
+                return;
+            }
+            boolean seguir = manejador.procesar(filaActual, valores.toArray());
+            valores.clear();
+            filaActual = -1;
+            if (!seguir) {
+                throw new LecturaDetenida();
+            }
+        }
+    }
+
+    /** Corta el recorrido del archivo cuando el manejador ya no necesita más filas. */
+    private static final class LecturaDetenida extends RuntimeException {
+        LecturaDetenida() {
+            super(null, null, false, false);
+        }
+    }
+}
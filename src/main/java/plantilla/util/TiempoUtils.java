@@ -1,5 +1,6 @@
 package plantilla.util;
 
+import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
 
@@ -22,5 +23,16 @@ public class TiempoUtils {
         return ahora().minusDays(cantidad);
     }
 
+    /** Fecha de una columna DATE de una consulta nativa (java.sql.Date o LocalDate según el driver) */
+    public static LocalDate aFecha(Object valor) {
+        if (valor instanceof java.sql.Date d) {
+            return d.toLocalDate();
+        }
+        if (valor instanceof java.sql.Timestamp t) {
+            return t.toLocalDateTime().toLocalDate();
+        }
+        return (LocalDate) valor;
+    }
+
 
 }
\ No newline at end of file
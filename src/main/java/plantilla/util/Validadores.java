@@ -5,8 +5,19 @@ import org.apache.poi.ss.usermodel.Row;
 @Slf4j
 public class Validadores {
 
+    /**
+     * Destino por defecto: una línea DEBUG por celda. La ingesta pasa el
+     * registro de errores de la carga (ver RegistroErroresCarga).
+     */
+    public static final ErroresCelda LOG = (tipo, columna, valor, detalle) ->
+            log.debug("⚠️ {} col {}: {}", tipo, columna, detalle);
+
     // 🔹 Helpers (los mismos que en tu ServicioImpl)
     public static String safeStringCell(Row row, int index) {
+        return safeStringCell(row, index, LOG);
+    }
+
+    public static String safeStringCell(Row row, int index, ErroresCelda errores) {
         try {
             if (row.getCell(index) == null) return null;
             return switch (row.getCell(index).getCellType()) {
@@ -16,12 +27,16 @@ public class Validadores {
                 default -> null;
             };
         } catch (Exception e) {
-            log.warn("⚠️ Error leyendo celda String col {}: {}", index, e.getMessage());
+            errores.registrar("Texto ilegible", index, row.getCell(index), e.getMessage());
             return null;
         }
     }
 
     public static Integer safeIntCell(Row row, int index) {
+        return safeIntCell(row, index, LOG);
+    }
+
+    public static Integer safeIntCell(Row row, int index, ErroresCelda errores) {
         try {
             if (row.getCell(index) == null) return null;
             return switch (row.getCell(index).getCellType()) {
@@ -34,11 +49,15 @@ public class Validadores {
                 default -> null;
             };
         } catch (Exception e) {
-            log.warn("⚠️ Error leyendo celda int col {}: {}", index, e.getMessage());
+            errores.registrar("Número ilegible", index, row.getCell(index), e.getMessage());
             return null;
         }
     }
     public static Long safeLongCell(Row row, int index) {
+        return safeLongCell(row, index, LOG);
+    }
+
+    public static Long safeLongCell(Row row, int index, ErroresCelda errores) {
         try {
             if (row.getCell(index) == null) return null;
 
@@ -53,14 +72,57 @@ public class Validadores {
             };
 
         } catch (Exception e) {
-            log.warn("⚠️ Error leyendo celda long col {}: {}", index, e.getMessage());
+            errores.registrar("Número largo ilegible", index, row.getCell(index), e.getMessage());
             return null;
         }
     }
 
+    // 🔹 Variantes sobre valores crudos (lectura streaming, ver LectorExcelStreaming)
+    public static String safeString(Object valor, int index) {
+        return safeString(valor, index, LOG);
+    }
 
+    public static String safeString(Object valor, int index, ErroresCelda errores) {
+        try {
+            if (valor == null) return null;
+            if (valor instanceof String s) return s.trim();
+            if (valor instanceof Number n) return String.valueOf(n.longValue());
+            return null;
+        } catch (Exception e) {
+            errores.registrar("Texto ilegible", index, valor, e.getMessage());
+            return null;
+        }
+    }
 
+    public static Integer safeInt(Object valor, int index) {
+        return safeInt(valor, index, LOG);
+    }
 
+    public static Integer safeInt(Object valor, int index, ErroresCelda errores) {
+        try {
+            if (valor == null) return null;
+            if (valor instanceof Number n) return n.intValue();
+            if (valor instanceof String s) return s.isBlank() ? null : Integer.parseInt(s.trim());
+            return null;
+        } catch (Exception e) {
+            errores.registrar("Número ilegible", index, valor, e.getMessage());
+            return null;
+        }
+    }
 
+    public static Long safeLong(Object valor, int index) {
+        return safeLong(valor, index, LOG);
+    }
 
+    public static Long safeLong(Object valor, int index, ErroresCelda errores) {
+        try {
+            if (valor == null) return null;
+            if (valor instanceof Number n) return n.longValue();
+            if (valor instanceof String s) return s.isBlank() ? null : Long.parseLong(s.trim());
+            return null;
+        } catch (Exception e) {
+            errores.registrar("Número largo ilegible", index, valor, e.getMessage());
+            return null;
+        }
+    }
 }
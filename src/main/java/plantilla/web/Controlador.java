@@ -11,10 +11,6 @@ import java.util.*;
 import lombok.extern.slf4j.Slf4j;
 
 import org.apache.poi.hssf.OldExcelFormatException;
-import org.apache.poi.hssf.usermodel.HSSFWorkbook;
-import org.apache.poi.ss.usermodel.Sheet;
-import org.apache.poi.ss.usermodel.Workbook;
-import org.apache.poi.xssf.usermodel.XSSFWorkbook;
 import org.springframework.format.annotation.DateTimeFormat;
 
 import org.springframework.http.ResponseEntity;
@@ -28,14 +24,20 @@ import plantilla.dominio.EventoCarga;
 import plantilla.dominio.Sucursal;
 import plantilla.repositorios.EventoCargaRepository;
 
+import plantilla.servicio.ArchivoLoteDTO;
+import plantilla.servicio.ArchivoSpoolDTO;
+import plantilla.servicio.ColaIngestaService;
 import plantilla.servicio.EventoCargaService;
+import plantilla.servicio.LoteCargaService;
+import plantilla.servicio.PreflightStockDTO;
+import plantilla.servicio.PrevisualizacionStockService;
 import plantilla.servicio.ReporteStockService;
 import plantilla.servicio.AuditoriaStockService;
 import plantilla.servicio.AuditoriaKPIsDTO;
 import plantilla.servicio.CumplimientoDiarioDTO;
 import plantilla.servicio.EventoCargaDTO;
 import plantilla.servicio.S3Service;
-import plantilla.servicio.StockAsyncService;
+import plantilla.servicio.SpoolArchivosService;
 import plantilla.servicio.StockService;
 import plantilla.repositorios.SucursalRepository;
 
@@ -52,11 +54,20 @@ public class Controlador {
     private EventoCargaService eventoCargaService;
 
     @Autowired
-    private StockAsyncService stockAsyncService;
+    private ColaIngestaService colaIngestaService;
 
     @Autowired
     S3Service s3Service;
 
+    @Autowired
+    private SpoolArchivosService spoolArchivosService;
+
+    @Autowired
+    private LoteCargaService loteCargaService;
+
+    @Autowired
+    private PrevisualizacionStockService previsualizacionStockService;
+
     @Autowired
     private SucursalRepository sucursalRepository;
 
@@ -97,130 +108,193 @@ public class Controlador {
             @RequestParam("fechaStock") @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate fechaStock) {
         log.info("📥 Recibido archivo: {}", file.getOriginalFilename());
 
-        if (file.isEmpty()) {
-            return ResponseEntity.badRequest().body(Map.of(
-                    "status", "error",
-                    "mensaje", "⚠️ El archivo está vacío."));
-        }
-
-        boolean hayCargaEnProceso = eventoCargaRepository.existsByEstado("EN_PROCESO");
-
-        if (hayCargaEnProceso) {
-            return ResponseEntity.badRequest().body(Map.of(
-                    "status", "error",
-                    "mensaje", "⚠️  Ya existe una carga de stock en proceso"));
+        ResponseEntity<?> rechazo = validarSubida(file, fechaStock);
+        if (rechazo != null) {
+            return rechazo;
         }
 
         String nombreArchivo = file.getOriginalFilename();
+        File tempFile = null;
+        boolean encolado = false;
 
-        try (Workbook workbook = getWorkbook(file)) {
+        try {
+            // 📂 al spool, calculando el hash en la misma pasada: la cola lee el archivo desde acá
+            ArchivoSpoolDTO spool = spoolArchivosService.guardar(file);
+            tempFile = spool.getArchivo();
 
-            Sheet sheet = workbook.getSheetAt(0);
-            if (sheet == null || sheet.getPhysicalNumberOfRows() <= 1) {
+            // 🔎 preflight: dimensión y primera fila, sin leer el resto
+            PreflightStockDTO preflight = stockService.leerEncabezado(tempFile);
+            if (preflight.getPrimeraFila() == null) {
                 return ResponseEntity.badRequest().body(Map.of(
                         "status", "error",
                         "mensaje", "⚠️ El archivo no contiene datos."));
             }
 
-            // 🚨 archivo duplicado
-            if (eventoCargaService.existeArchivo(nombreArchivo)) {
-                return ResponseEntity.badRequest().body(Map.of(
-                        "status", "error",
-                        "mensaje", "📛 El archivo '" + nombreArchivo + "' ya fue cargado previamente."));
-            }
+            // 🔐 usuario
+            String usuario = usuarioActual();
+
+            // 🏬 resolver sucursal desde la primera fila
+            Sucursal sucursal = stockService.resolverSucursalDesdeFila(
+                    preflight.getPrimeraFila(),
+                    nombreArchivo);
 
-            // 🚨 fecha futura
-            if (fechaStock.isAfter(LocalDate.now())) {
+            // 📌 crear evento PENDIENTE (una carga en curso por sucursal)
+            EventoCarga evento;
+            try {
+                evento = eventoCargaService.crearEventoInicial(
+                        nombreArchivo,
+                        sucursal,
+                        fechaStock,
+                        usuario,
+                        preflight.getTotalRegistros(),
+                        tempFile.getAbsolutePath(),
+                        colaIngestaService.getNodo(),
+                        spool.getSha256(),
+                        null,
+                        false);
+            } catch (IllegalStateException e) {
                 return ResponseEntity.badRequest().body(Map.of(
                         "status", "error",
-                        "mensaje", "📅 La fecha del stock no puede ser futura."));
+                        "mensaje", "⚠️ " + e.getMessage()));
             }
+            encolado = true;
 
-            if (!nombreArchivo.toLowerCase().contains("inventory")) {
-                return ResponseEntity.ok(Map.of(
-                        "status", "warn",
-                        "mensaje", "⚠️ Tipo de archivo no reconocido: " + nombreArchivo));
-            }
-
-            // 🔐 usuario
-            String usuario = Optional.ofNullable(
-                    SecurityContextHolder.getContext().getAuthentication()).map(auth -> auth.getName())
-                    .orElse("sistema");
+            // La cola la toma apenas haya un hilo libre
+            colaIngestaService.reclamarPendientes();
 
-            // 🏬 resolver sucursal desde archivo
-            Sucursal sucursal = stockService.resolverSucursalDesdeArchivo(
-                    sheet,
-                    nombreArchivo);
-
-            int totalRegistros = sheet.getPhysicalNumberOfRows() - 1;
-
-            // 📌 crear evento inicial
-            EventoCarga evento = eventoCargaService.crearEventoInicial(
-                    nombreArchivo,
-                    sucursal,
-                    fechaStock,
-                    usuario,
-                    totalRegistros);
-
-            // Usamos la carpeta temporal del sistema
-            String tempDir = System.getProperty("java.io.tmpdir");
-            String archivoNombre = file.getOriginalFilename();
-            File tempFile = new File(tempDir, archivoNombre + "_" + System.currentTimeMillis() + ".xlsx");
-            file.transferTo(tempFile);
-
-            // 3. NUEVO: Llamar al servicio async pasando el PATH del archivo, no el Sheet
-            stockAsyncService.procesarDesdeLocal(
-                    evento.getId(),
-                    tempFile.getAbsolutePath(),
-                    fechaStock);
             return ResponseEntity.ok(Map.of(
                     "status", "ok",
                     "eventoId", evento.getId(),
                     "mensaje", "📦 Archivo recibido localmente: " + nombreArchivo + ". Procesando en segundo plano."));
 
         } catch (Exception e) {
-
-            String mensaje;
-            if (e instanceof OldExcelFormatException || e.getMessage().contains("BIFF5")) {
-                mensaje = "📛 Formato Excel muy antiguo. Guardalo como .xlsx.";
-            } else {
-                mensaje = "❌ Error al procesar el archivo: " + e.getMessage();
+            return errorDeArchivo(nombreArchivo, e);
+        } finally {
+            if (!encolado) {
+                spoolArchivosService.liberar(tempFile);
             }
+        }
+    }
+
+    /**
+     * Previsualización (dry-run): qué cambiaría el archivo en cada sucursal,
+     * sin encolarlo ni escribir nada. El archivo se borra del spool al terminar.
+     */
+    @PostMapping("/previsualizarStock")
+    @ResponseBody
+    public ResponseEntity<?> previsualizarStock(
+            @RequestParam("file") MultipartFile file,
+            @RequestParam("fechaStock") @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate fechaStock) {
+
+        ResponseEntity<?> rechazo = validarSubida(file, fechaStock);
+        if (rechazo != null) {
+            return rechazo;
+        }
+
+        String nombreArchivo = file.getOriginalFilename();
+        File tempFile = null;
+        try {
+            tempFile = spoolArchivosService.guardar(file).getArchivo();
+            return ResponseEntity.ok(Map.of(
+                    "status", "ok",
+                    "previsualizacion", previsualizacionStockService.previsualizar(tempFile, nombreArchivo, fechaStock)));
+        } catch (Exception e) {
+            return errorDeArchivo(nombreArchivo, e);
+        } finally {
+            spoolArchivosService.liberar(tempFile);
+        }
+    }
 
-            log.error("❌ Error al procesar archivo {}", nombreArchivo, e);
+    /**
+     * Subida por lote: un ZIP y/o varios Excel, un evento por archivo. Cada
+     * archivo se valida por separado; los que fallan no frenan al resto.
+     */
+    @PostMapping("/subirLoteStock")
+    @ResponseBody
+    public ResponseEntity<?> subirLote(
+            @RequestParam("files") List<MultipartFile> files,
+            @RequestParam("fechaStock") @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate fechaStock,
+            @RequestParam(value = "cargaHistorica", defaultValue = "false") boolean cargaHistorica) {
 
+        // 🚨 fecha futura
+        if (fechaStock.isAfter(LocalDate.now())) {
             return ResponseEntity.badRequest().body(Map.of(
                     "status", "error",
-                    "mensaje", mensaje));
+                    "mensaje", "📅 La fecha del stock no puede ser futura."));
+        }
+
+        String lote = UUID.randomUUID().toString();
+        try {
+            List<ArchivoLoteDTO> archivos = loteCargaService.recibirLote(
+                    lote, files, fechaStock, usuarioActual(), cargaHistorica);
+            long encolados = archivos.stream().filter(a -> a.getEventoId() != null).count();
+
+            return ResponseEntity.ok(Map.of(
+                    "status", encolados > 0 ? "ok" : "error",
+                    "lote", lote,
+                    "archivos", archivos,
+                    "mensaje", "📦 " + encolados + " de " + archivos.size() + " archivos encolados."));
+
+        } catch (Exception e) {
+            return errorDeArchivo("lote " + lote, e);
         }
     }
 
-    private Workbook getWorkbook(MultipartFile file) throws IOException {
+    /**
+     * Validaciones que no necesitan leer el archivo. Devuelve la respuesta de
+     * rechazo, o null si el archivo puede seguir.
+     */
+    private ResponseEntity<?> validarSubida(MultipartFile file, LocalDate fechaStock) {
+
+        if (file.isEmpty()) {
+            return ResponseEntity.badRequest().body(Map.of(
+                    "status", "error",
+                    "mensaje", "⚠️ El archivo está vacío."));
+        }
 
-        String originalName = file.getOriginalFilename();
-        if (originalName == null) {
-            throw new IllegalArgumentException("Nombre de archivo nulo.");
+        String nombreArchivo = file.getOriginalFilename();
+        if (nombreArchivo == null) {
+            return ResponseEntity.badRequest().body(Map.of(
+                    "status", "error",
+                    "mensaje", "⚠️ Nombre de archivo nulo."));
         }
 
-        String lower = originalName.toLowerCase();
+        // 🚨 fecha futura
+        if (fechaStock.isAfter(LocalDate.now())) {
+            return ResponseEntity.badRequest().body(Map.of(
+                    "status", "error",
+                    "mensaje", "📅 La fecha del stock no puede ser futura."));
+        }
 
-        try (var is = file.getInputStream()) {
+        if (!nombreArchivo.toLowerCase().contains("inventory")) {
+            return ResponseEntity.ok(Map.of(
+                    "status", "warn",
+                    "mensaje", "⚠️ Tipo de archivo no reconocido: " + nombreArchivo));
+        }
 
-            if (lower.endsWith(".xlsx")) {
-                return new XSSFWorkbook(is);
-            }
+        return null;
+    }
 
-            if (lower.endsWith(".xls")) {
-                try {
-                    return new HSSFWorkbook(is); // BIFF8
-                } catch (OldExcelFormatException e) {
-                    throw new OldExcelFormatException(
-                            "Formato Excel muy antiguo (BIFF5). Convertir a .xlsx.");
-                }
-            }
+    private String usuarioActual() {
+        return Optional.ofNullable(
+                SecurityContextHolder.getContext().getAuthentication()).map(auth -> auth.getName())
+                .orElse("sistema");
+    }
 
-            throw new IllegalArgumentException("Archivo no soportado: " + originalName);
+    private ResponseEntity<?> errorDeArchivo(String nombreArchivo, Exception e) {
+        String mensaje;
+        if (e instanceof OldExcelFormatException
+                || (e.getMessage() != null && e.getMessage().contains("BIFF5"))) {
+            mensaje = "📛 Formato Excel muy antiguo. Guardalo como .xlsx.";
+        } else {
+            mensaje = "❌ Error al procesar el archivo: " + e.getMessage();
         }
+
+        log.error("❌ Error al procesar archivo {}", nombreArchivo, e);
+
+        return ResponseEntity.badRequest().body(Map.of(
+                "status", "error",
+                "mensaje", mensaje));
     }
 
     @PostMapping("/subirArchivosExcelS3")
@@ -230,83 +304,69 @@ public class Controlador {
             @RequestParam("fechaStock") @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate fechaStock,
             @RequestParam(value = "observaciones", required = false) String observaciones) throws IOException {
 
-        if (file.isEmpty()) {
-            return ResponseEntity.badRequest().body(Map.of(
-                    "status", "error",
-                    "mensaje", "⚠️ El archivo está vacío."));
-        }
-
-        boolean hayCargaEnProceso = eventoCargaRepository.existsByEstado("EN_PROCESO");
-
-        if (hayCargaEnProceso) {
-            return ResponseEntity.badRequest().body(Map.of(
-                    "status", "error",
-                    "mensaje", "⚠️  Ya existe una carga de stock en proceso"));
+        ResponseEntity<?> rechazo = validarSubida(file, fechaStock);
+        if (rechazo != null) {
+            return rechazo;
         }
 
         String nombreArchivo = file.getOriginalFilename();
+        File tempFile = null;
 
-        try (Workbook workbook = getWorkbook(file)) {
+        try {
+            // el preflight y la subida leen del spool; la cola después descarga de S3
+            ArchivoSpoolDTO spool = spoolArchivosService.guardar(file);
+            tempFile = spool.getArchivo();
 
-            Sheet sheet = workbook.getSheetAt(0);
-            if (sheet == null || sheet.getPhysicalNumberOfRows() <= 1) {
+            // 🔎 preflight: dimensión y primera fila, sin leer el resto
+            PreflightStockDTO preflight = stockService.leerEncabezado(tempFile);
+            if (preflight.getPrimeraFila() == null) {
                 return ResponseEntity.badRequest().body(Map.of(
                         "status", "error",
                         "mensaje", "⚠️ El archivo no contiene datos."));
             }
 
-            // 🚨 archivo duplicado
-            if (eventoCargaService.existeArchivo(nombreArchivo)) {
-                return ResponseEntity.badRequest().body(Map.of(
-                        "status", "error",
-                        "mensaje", "📛 El archivo '" + nombreArchivo + "' ya fue cargado previamente."));
-            }
-
-            // 🚨 fecha futura
-            if (fechaStock.isAfter(LocalDate.now())) {
-                return ResponseEntity.badRequest().body(Map.of(
-                        "status", "error",
-                        "mensaje", "📅 La fecha del stock no puede ser futura."));
-            }
-
-            if (!nombreArchivo.toLowerCase().contains("inventory")) {
-                return ResponseEntity.ok(Map.of(
-                        "status", "warn",
-                        "mensaje", "⚠️ Tipo de archivo no reconocido: " + nombreArchivo));
-            }
-
             // 🔐 usuario
-            String usuario = Optional.ofNullable(
-                    SecurityContextHolder.getContext().getAuthentication()).map(auth -> auth.getName())
-                    .orElse("sistema");
+            String usuario = usuarioActual();
 
-            // 🏬 resolver sucursal desde archivo
-            Sucursal sucursal = stockService.resolverSucursalDesdeArchivo(
-                    sheet,
+            // 🏬 resolver sucursal desde la primera fila
+            Sucursal sucursal = stockService.resolverSucursalDesdeFila(
+                    preflight.getPrimeraFila(),
                     nombreArchivo);
 
-            int totalRegistros = sheet.getPhysicalNumberOfRows() - 1;
-
             String s3Key = "stock/" + UUID.randomUUID() + "-" + nombreArchivo;
 
-            // 1️⃣ Subir a S3
-            s3Service.subirArchivo(s3Key, file);
+            // 1️⃣ Crear evento (una carga en curso por sucursal)
+            EventoCarga evento;
+            try {
+                evento = eventoCargaService.crearEventoInicialS3(
+                        nombreArchivo,
+                        sucursal,
+                        fechaStock,
+                        usuario,
+                        preflight.getTotalRegistros(),
+                        s3Key,
+                        colaIngestaService.getNodo(),
+                        observaciones,
+                        spool.getSha256());
+            } catch (IllegalStateException e) {
+                return ResponseEntity.badRequest().body(Map.of(
+                        "status", "error",
+                        "mensaje", "⚠️ " + e.getMessage()));
+            }
 
-            // 2️⃣ Crear evento
+            // 2️⃣ Subir a S3 y despertar la cola
+            try {
+                s3Service.subirArchivo(s3Key, tempFile, file.getContentType());
+            } catch (Exception e) {
+                eventoCargaService.marcarFallido(evento.getId(), e.getMessage());
+                throw e;
+            }
 
-            EventoCarga evento = eventoCargaService.crearEventoInicialS3(
-                    nombreArchivo,
-                    sucursal,
-                    fechaStock,
-                    usuario,
-                    totalRegistros,
-                    s3Key,
-                    observaciones);
+            // si la carga la toma este nodo, no hace falta volver a bajarla
+            spoolArchivosService.moverACache(tempFile, s3Key);
 
-            // 3️⃣ Lanzar async
-            stockAsyncService.procesarDesdeS3(
-                    evento.getId(),
-                    fechaStock);
+            eventoCargaService.liberarParaCola(evento.getId());
+            colaIngestaService.reclamarPendientes();
 
             return ResponseEntity.ok(Map.of(
                     "status", "ok",
@@ -315,21 +375,9 @@ public class Controlador {
                     "📦 Archivo recibido: " + file.getOriginalFilename() + ". Procesando en segundo plano."));
 
         } catch (Exception e) {
-
-            String mensaje;
-            if (e instanceof OldExcelFormatException || e.getMessage().contains("BIFF5")) {
-                mensaje = "📛 Formato Excel muy antiguo. Guardalo como .xlsx.";
-            } else {
-                mensaje = "❌ Error al procesar el archivo: " + e.getMessage();
-            }
-
-            log.error("❌ Error al procesar archivo {}", nombreArchivo, e);
-
-            return ResponseEntity.badRequest().body(Map.of(
-                    "status", "error",
-                    "mensaje", mensaje));
+            return errorDeArchivo(nombreArchivo, e);
         } finally {
-
+            spoolArchivosService.liberar(tempFile);
         }
 
     }
@@ -497,6 +545,19 @@ public class Controlador {
         }
     }
 
+    @GetMapping("/api/reportes/stock/al-dia")
+    @ResponseBody
+    public ResponseEntity<?> getStockAlDia(
+            @RequestParam(name = "sucursalId", required = false) Long sucursalId,
+            @RequestParam(name = "fecha") @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate fecha) {
+        try {
+            return ResponseEntity.ok(reporteStockService.getStockAlDia(fecha, sucursalId));
+        } catch (Exception e) {
+            log.error("Error fetching stock as of date", e);
+            return ResponseEntity.status(500).body(Map.of("error", "Error al cargar stock a la fecha"));
+        }
+    }
+
     @GetMapping("/api/reportes/stock/stockouts")
     @ResponseBody
     public ResponseEntity<?> getStockouts(
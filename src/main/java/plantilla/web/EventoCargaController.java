@@ -1,16 +1,34 @@
 package plantilla.web;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import plantilla.dominio.EventoCarga;
+import plantilla.servicio.CargaHistoricaService;
+import plantilla.servicio.ColaIngestaService;
+import plantilla.servicio.ErroresCargaService;
 import plantilla.servicio.EventoCargaService;
+import plantilla.servicio.LoteCargaService;
+import plantilla.servicio.ProgresoLoteDTO;
+import plantilla.servicio.ProgresoCargaDTO;
+import plantilla.servicio.ParticionesStockService;
+import plantilla.servicio.ProgresoCargaService;
+import plantilla.servicio.StockResumenDiarioService;
 import plantilla.repositorios.EventoCargaRepository;
+import plantilla.repositorios.FilaRechazadaRepository;
 
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.format.DateTimeParseException;
 import java.util.*;
 
 @Controller
@@ -20,6 +38,22 @@ public class EventoCargaController {
     private final EventoCargaRepository eventoCargaRepository;
     @Autowired
     EventoCargaService eventoCargaService;
+    @Autowired
+    ColaIngestaService colaIngestaService;
+    @Autowired
+    ProgresoCargaService progresoCargaService;
+    @Autowired
+    LoteCargaService loteCargaService;
+    @Autowired
+    CargaHistoricaService cargaHistoricaService;
+    @Autowired
+    FilaRechazadaRepository filaRechazadaRepository;
+    @Autowired
+    ErroresCargaService erroresCargaService;
+    @Autowired
+    StockResumenDiarioService stockResumenDiarioService;
+    @Autowired
+    ParticionesStockService particionesStockService;
 
     public EventoCargaController(EventoCargaRepository eventoCargaRepository) {
         this.eventoCargaRepository = eventoCargaRepository;
@@ -42,6 +76,12 @@ public class EventoCargaController {
     @Transactional(readOnly = true)
     public ResponseEntity<?> estadoEvento(@PathVariable Long id) {
 
+        // si la carga corre en este nodo, el progreso en memoria está más al día que la base
+        ProgresoCargaDTO enCurso = progresoCargaService.buscar(id);
+        if (enCurso != null) {
+            return ResponseEntity.ok(enCurso);
+        }
+
         EventoCarga e = eventoCargaRepository.findById(id)
                 .orElseThrow(() -> new RuntimeException("Evento no encontrado"));
 
@@ -56,4 +96,193 @@ public class EventoCargaController {
 
         return ResponseEntity.ok(response);
     }
+
+    /**
+     * Progreso agregado de una subida por lote.
+     */
+    @GetMapping("/lote/{lote}")
+    @ResponseBody
+    @Transactional(readOnly = true)
+    public ResponseEntity<?> estadoLote(@PathVariable String lote) {
+        ProgresoLoteDTO progreso = loteCargaService.progresoLote(lote);
+        if (progreso == null) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(progreso);
+    }
+
+    /**
+     * Vuelve a recalcular un lote histórico (ej. si el recálculo automático
+     * falló). Sólo con el lote sin cargas en curso.
+     */
+    @PostMapping("/lote/{lote}/recalcular")
+    @ResponseBody
+    public ResponseEntity<?> recalcularLote(@PathVariable String lote) {
+        if (cargaHistoricaService.loteEnCurso(lote)) {
+            return ResponseEntity.badRequest().body(Map.of(
+                    "status", "error",
+                    "mensaje", "⚠️ El lote todavía tiene cargas en curso."));
+        }
+        int descartadas = cargaHistoricaService.recalcularLote(lote);
+        return ResponseEntity.ok(Map.of(
+                "status", "ok",
+                "mensaje", "🧮 Lote recalculado (" + descartadas + " filas sin cambio descartadas)."));
+    }
+
+    /**
+     * Reconstruye el resumen diario de un rango de fechas (todas las sucursales
+     * o una), ej. después de corregir datos a mano en stock_historico.
+     */
+    @PostMapping("/resumen/reconstruir")
+    @ResponseBody
+    public ResponseEntity<?> reconstruirResumen(
+            @RequestParam("desde") @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate desde,
+            @RequestParam("hasta") @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate hasta,
+            @RequestParam(value = "sucursalId", required = false) Long sucursalId) {
+        if (hasta.isBefore(desde)) {
+            return ResponseEntity.badRequest().body(Map.of(
+                    "status", "error",
+                    "mensaje", "⚠️ La fecha hasta es anterior a la fecha desde."));
+        }
+        try {
+            int filas = stockResumenDiarioService.reconstruir(desde, hasta, sucursalId);
+            return ResponseEntity.ok(Map.of(
+                    "status", "ok",
+                    "mensaje", "📊 Resumen diario reconstruido (" + filas + " filas)."));
+        } catch (IllegalStateException e) {
+            return ResponseEntity.badRequest().body(Map.of(
+                    "status", "error",
+                    "mensaje", "⚠️ " + e.getMessage()));
+        }
+    }
+
+    /**
+     * Particiones mensuales de stock_historico.
+     */
+    @GetMapping("/particiones")
+    @ResponseBody
+    public ResponseEntity<?> listarParticiones() {
+        return ResponseEntity.ok(particionesStockService.listar());
+    }
+
+    /**
+     * Saca un mes viejo de stock_historico (queda como tabla _archivo).
+     * mes en formato AAAA-MM.
+     */
+    @PostMapping("/particiones/desacoplar")
+    @ResponseBody
+    public ResponseEntity<?> desacoplarParticion(@RequestParam("mes") String mes) {
+        try {
+            long filas = particionesStockService.desacoplar(YearMonth.parse(mes));
+            return ResponseEntity.ok(Map.of(
+                    "status", "ok",
+                    "mensaje", "🗂️ Mes " + mes + " desacoplado (" + filas + " filas)."));
+        } catch (DateTimeParseException e) {
+            return ResponseEntity.badRequest().body(Map.of(
+                    "status", "error",
+                    "mensaje", "⚠️ Mes inválido, se espera AAAA-MM."));
+        } catch (IllegalStateException e) {
+            return ResponseEntity.badRequest().body(Map.of(
+                    "status", "error",
+                    "mensaje", "⚠️ " + e.getMessage()));
+        }
+    }
+
+    /**
+     * Filas que la carga no pudo escribir, con el error de cada una.
+     */
+    @GetMapping("/{id}/rechazadas")
+    @ResponseBody
+    public ResponseEntity<?> filasRechazadas(@PathVariable Long id) {
+        return ResponseEntity.ok(filaRechazadaRepository.findByEventoCargaIdOrderByNumeroFilaAsc(id));
+    }
+
+    /**
+     * Reporte de problemas de datos de la carga (cantidad por tipo y primeras
+     * muestras), para abrir en Excel.
+     */
+    @GetMapping(value = "/{id}/errores.csv", produces = "text/csv")
+    @ResponseBody
+    public ResponseEntity<byte[]> erroresCsv(@PathVariable Long id) {
+        // BOM: Excel abre el archivo como UTF-8
+        byte[] csv = ("\uFEFF" + erroresCargaService.csv(id)).getBytes(StandardCharsets.UTF_8);
+
+        return ResponseEntity.ok()
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"errores-carga-" + id + ".csv\"")
+                .contentType(new MediaType("text", "csv", StandardCharsets.UTF_8))
+                .body(csv);
+    }
+
+    /**
+     * Progreso de la carga por Server-Sent Events (evento "progreso").
+     */
+    @GetMapping(value = "/{id}/progreso", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    @ResponseBody
+    public SseEmitter progresoEvento(@PathVariable Long id) {
+        return progresoCargaService.suscribir(id);
+    }
+
+    /**
+     * Retoma una carga fallida desde el último bloque confirmado.
+     */
+    @PostMapping("/{id}/reanudar")
+    @ResponseBody
+    public ResponseEntity<?> reanudarEvento(@PathVariable Long id) {
+        try {
+            EventoCarga e = eventoCargaService.reanudar(id, colaIngestaService.getNodo());
+            colaIngestaService.reclamarPendientes();
+
+            return ResponseEntity.ok(Map.of(
+                    "status", "ok",
+                    "id", e.getId(),
+                    "mensaje", "🔁 " + e.getObservaciones()));
+        } catch (IllegalStateException e) {
+            return ResponseEntity.badRequest().body(Map.of(
+                    "status", "error",
+                    "mensaje", "⚠️ " + e.getMessage()));
+        }
+    }
+
+    /**
+     * Borra lo que escribió la carga y repara los registros que la seguían.
+     */
+    @PostMapping("/{id}/revertir")
+    @ResponseBody
+    public ResponseEntity<?> revertirEvento(@PathVariable Long id) {
+        try {
+            EventoCarga e = eventoCargaService.revertir(id);
+
+            return ResponseEntity.ok(Map.of(
+                    "status", "ok",
+                    "id", e.getId(),
+                    "estado", e.getEstado(),
+                    "mensaje", "⏪ " + e.getObservaciones()));
+        } catch (IllegalStateException e) {
+            return ResponseEntity.badRequest().body(Map.of(
+                    "status", "error",
+                    "mensaje", "⚠️ " + e.getMessage()));
+        }
+    }
+
+    /**
+     * Revierte la carga y la vuelve a procesar desde el archivo guardado.
+     */
+    @PostMapping("/{id}/reprocesar")
+    @ResponseBody
+    public ResponseEntity<?> reprocesarEvento(@PathVariable Long id) {
+        try {
+            EventoCarga e = eventoCargaService.reprocesar(id, colaIngestaService.getNodo());
+            colaIngestaService.reclamarPendientes();
+
+            return ResponseEntity.ok(Map.of(
+                    "status", "ok",
+                    "id", e.getId(),
+                    "estado", e.getEstado(),
+                    "mensaje", "🔁 " + e.getObservaciones()));
+        } catch (IllegalStateException e) {
+            return ResponseEntity.badRequest().body(Map.of(
+                    "status", "error",
+                    "mensaje", "⚠️ " + e.getMessage()));
+        }
+    }
 }
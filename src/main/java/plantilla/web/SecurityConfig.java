@@ -42,6 +42,10 @@ public class SecurityConfig extends WebSecurityConfigurerAdapter {
                 .antMatchers("/login", "/recursos/**", "/static/**", "/css/**", "/js/**", "/imagenes/**, /webjars/**")
                 .permitAll() // recursos públicos
                 .antMatchers("/gestionUsuarios/**").hasRole("ADMIN")
+                // borran o reescriben historia de stock
+                .antMatchers("/eventosCarga/*/revertir", "/eventosCarga/*/reprocesar").hasRole("ADMIN")
+                .antMatchers("/eventosCarga/resumen/reconstruir").hasRole("ADMIN")
+                .antMatchers("/eventosCarga/particiones/desacoplar").hasRole("ADMIN")
                 .anyRequest().authenticated() // todo lo demás requiere login
                 .and()
                 .formLogin()
@@ -0,0 +1,12 @@
+-- Stock vigente por producto y sucursal, mantenido en cada bloque escrito.
+-- StockActualService la llena desde stock_historico si arranca vacía.
+CREATE TABLE IF NOT EXISTS stock_actual (
+    producto_id        INT8 NOT NULL,
+    sucursal_id        INT8 NOT NULL,
+    cantidad           INT4,
+    stock_historico_id INT8 NOT NULL,
+    fecha_stock        DATE,
+    PRIMARY KEY (producto_id, sucursal_id)
+);
+
+CREATE INDEX IF NOT EXISTS idx_stock_actual_sucursal ON stock_actual (sucursal_id);
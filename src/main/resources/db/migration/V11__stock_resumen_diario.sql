@@ -0,0 +1,15 @@
+-- Movimientos diarios por sucursal y jerarquía de producto. Los arma
+-- StockResumenDiarioService (también la primera vez, en segundo plano).
+CREATE TABLE IF NOT EXISTS stock_resumen_diario (
+    fecha       DATE NOT NULL,
+    sucursal_id INT8 NOT NULL,
+    ambiente    VARCHAR(255) NOT NULL,
+    familia     VARCHAR(255) NOT NULL,
+    nivel3      VARCHAR(255) NOT NULL,
+    nivel4      VARCHAR(255) NOT NULL,
+    delta       INT8,
+    egresos     INT8,
+    PRIMARY KEY (fecha, sucursal_id, ambiente, familia, nivel3, nivel4)
+);
+
+CREATE INDEX IF NOT EXISTS idx_resumen_diario_fecha_sucursal ON stock_resumen_diario (fecha, sucursal_id);
@@ -0,0 +1,14 @@
+-- Cierres semanales (domingos) por sucursal y jerarquía de producto,
+-- acumulados desde stock_resumen_diario por StockCheckpointService.
+CREATE TABLE IF NOT EXISTS stock_checkpoint (
+    fecha       DATE NOT NULL,
+    sucursal_id INT8 NOT NULL,
+    ambiente    VARCHAR(255) NOT NULL,
+    familia     VARCHAR(255) NOT NULL,
+    nivel3      VARCHAR(255) NOT NULL,
+    nivel4      VARCHAR(255) NOT NULL,
+    cantidad    INT8,
+    PRIMARY KEY (fecha, sucursal_id, ambiente, familia, nivel3, nivel4)
+);
+
+CREATE INDEX IF NOT EXISTS idx_checkpoint_sucursal_fecha ON stock_checkpoint (sucursal_id, fecha);
@@ -0,0 +1,22 @@
+-- Índices a medida de las consultas más usadas. Los parciales no se pueden
+-- declarar con @Index en las entidades. Sobre stock_historico (particionada)
+-- cada índice se crea en todas las particiones, y también en las que se
+-- creen después. Para comparar los planes antes y después, ver
+-- db/planes/V13__indices_reportes.sql.
+
+-- findStockouts: registros en cero desde una fecha, sólo una fracción de la tabla
+CREATE INDEX IF NOT EXISTS idx_stock_quiebres
+    ON stock_historico (fecha_stock, sucursal_id)
+    WHERE cantidad = 0;
+
+-- findAllIngresosForSkus: ingresos de unos pocos productos
+CREATE INDEX IF NOT EXISTS idx_stock_ingresos
+    ON stock_historico (producto_id, sucursal_id, id DESC)
+    WHERE nuevo_ingreso = true;
+
+-- Último registro de cada producto en la sucursal, en el orden en que se
+-- buscan (fecha_stock DESC, id DESC): findUltimoStockBySkus, findStockVigente,
+-- findTopByProducto_SkuAndSucursalOrderByFechaStockDescIdDesc, las bases
+-- por SKU de la evolución y la reconstrucción de stock_actual.
+CREATE INDEX IF NOT EXISTS idx_stock_ultimo
+    ON stock_historico (producto_id, sucursal_id, fecha_stock DESC, id DESC);
@@ -0,0 +1,5 @@
+-- Filas de una carga: recálculo de diferencias del backfill (descartarSinCambio,
+-- recalcularInicial, recalcularDiferencias, findSucursalesByEventos), rango de
+-- ids al retomar o revertir (findRangoIdsByEventoCargaId) y la reversión.
+-- Sin índice cada una recorría todas las particiones.
+CREATE INDEX IF NOT EXISTS idx_stock_evento_carga ON stock_historico (evento_carga_id);
@@ -0,0 +1,7 @@
+-- Señal de vida de cada nodo de la cola de ingesta (ColaIngestaService).
+-- Las subidas y las cargas con archivo local de un nodo sin heartbeat
+-- reciente no las puede terminar nadie más: pasan a FALLIDO.
+CREATE TABLE IF NOT EXISTS nodos_ingesta (
+    nodo      VARCHAR(255) PRIMARY KEY,
+    heartbeat TIMESTAMP NOT NULL
+);
@@ -0,0 +1,8 @@
+-- Meses de stock_historico que se desacoplaron (ParticionesStockService):
+-- ya no se pueden rearmar desde stock_historico ni recibir cargas.
+CREATE TABLE IF NOT EXISTS stock_meses_desacoplados (
+    mes   DATE PRIMARY KEY,
+    tabla VARCHAR(255) NOT NULL,
+    filas INT8,
+    fecha TIMESTAMP NOT NULL
+);
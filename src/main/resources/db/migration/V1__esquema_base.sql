@@ -0,0 +1,80 @@
+-- Esquema inicial, tal como lo creaba ddl-auto=update con las entidades
+-- originales. Una base que ya existía arranca con baseline en la versión 1
+-- (spring.flyway.baseline-on-migrate) y aplica de la V2 en adelante; por eso
+-- las migraciones siguientes usan IF NOT EXISTS: una base de desarrollo que
+-- ddl-auto ya había actualizado puede tener parte de sus cambios.
+
+CREATE TABLE roles (
+    id     BIGSERIAL PRIMARY KEY,
+    nombre VARCHAR(255)
+);
+
+CREATE TABLE usuarios (
+    id              BIGSERIAL PRIMARY KEY,
+    username        VARCHAR(255),
+    password        VARCHAR(255),
+    nombre_apellido VARCHAR(255),
+    observacion     VARCHAR(255),
+    telefono        INT4,
+    inhabilitado    BOOLEAN,
+    rol_id          INT8 NOT NULL REFERENCES roles (id)
+);
+
+CREATE TABLE sucursales (
+    id           BIGSERIAL PRIMARY KEY,
+    id_deposito  INT8 NOT NULL UNIQUE,
+    cod_deposito VARCHAR(255) NOT NULL,
+    nombre       VARCHAR(255),
+    upd_stock    VARCHAR(255),
+    inhabilitado BOOLEAN NOT NULL
+);
+
+CREATE TABLE productos (
+    id          BIGSERIAL PRIMARY KEY,
+    sku         VARCHAR(255) NOT NULL UNIQUE,
+    master_id   VARCHAR(255),
+    descripcion VARCHAR(255),
+    color       VARCHAR(255),
+    ambiente    VARCHAR(255),
+    familia     VARCHAR(255),
+    nivel3      VARCHAR(255),
+    nivel4      VARCHAR(255)
+);
+
+CREATE TABLE eventos_carga (
+    id               BIGSERIAL PRIMARY KEY,
+    nombre_archivo   VARCHAR(255),
+    fecha            TIMESTAMP,
+    fecha_archivo    DATE,
+    usuario          VARCHAR(255),
+    estado           VARCHAR(255),
+    observaciones    VARCHAR(255),
+    modulo           VARCHAR(255),
+    ruta_s3          VARCHAR(255),
+    id_stock_inicial INT8,
+    id_stock_final   INT8,
+    total_registros  INT4,
+    procesados       INT4,
+    porcentaje       INT4,
+    sucursal_id      INT8 REFERENCES sucursales (id)
+);
+
+-- Sin particionar: ParticionesStockService la convierte al arrancar
+-- (directamente si está vacía, como en una base nueva).
+CREATE TABLE stock_historico (
+    id              BIGSERIAL PRIMARY KEY,
+    producto_id     INT8 NOT NULL REFERENCES productos (id),
+    sucursal_id     INT8 NOT NULL REFERENCES sucursales (id),
+    fecha_stock     DATE,
+    cantidad        INT4,
+    fecha_carga     TIMESTAMP,
+    evento_carga_id INT8 NOT NULL REFERENCES eventos_carga (id),
+    es_inicial      BOOLEAN,
+    diff_anterior   INT4,
+    nuevo_ingreso   BOOLEAN
+);
+
+CREATE INDEX idx_stock_fecha ON stock_historico (fecha_stock);
+CREATE INDEX idx_stock_producto ON stock_historico (producto_id);
+CREATE INDEX idx_stock_sucursal ON stock_historico (sucursal_id);
+CREATE INDEX idx_stock_composite ON stock_historico (fecha_stock, sucursal_id, producto_id);
@@ -0,0 +1,6 @@
+-- Cola de ingesta persistente: qué nodo tomó cada carga, cuántas veces y
+-- cuándo dio señales de vida (ColaIngestaService).
+ALTER TABLE eventos_carga ADD COLUMN IF NOT EXISTS nodo VARCHAR(255);
+ALTER TABLE eventos_carga ADD COLUMN IF NOT EXISTS intentos INT4;
+ALTER TABLE eventos_carga ADD COLUMN IF NOT EXISTS ruta_local VARCHAR(255);
+ALTER TABLE eventos_carga ADD COLUMN IF NOT EXISTS heartbeat TIMESTAMP;
@@ -0,0 +1,2 @@
+-- Última fila cuyo bloque quedó confirmado, para retomar una carga fallida.
+ALTER TABLE eventos_carga ADD COLUMN IF NOT EXISTS fila_confirmada INT4;
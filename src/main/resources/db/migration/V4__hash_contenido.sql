@@ -0,0 +1,4 @@
+-- SHA-256 del archivo: detecta subidas duplicadas por contenido.
+ALTER TABLE eventos_carga ADD COLUMN IF NOT EXISTS hash_contenido VARCHAR(64);
+
+CREATE INDEX IF NOT EXISTS idx_eventos_carga_hash_contenido ON eventos_carga (hash_contenido);
@@ -0,0 +1,4 @@
+-- Subida por lote (ZIP o varios archivos) a la que pertenece cada carga.
+ALTER TABLE eventos_carga ADD COLUMN IF NOT EXISTS lote VARCHAR(255);
+
+CREATE INDEX IF NOT EXISTS idx_eventos_carga_lote ON eventos_carga (lote);
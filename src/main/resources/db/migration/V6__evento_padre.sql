@@ -0,0 +1,5 @@
+-- Archivos consolidados: cada depósito es una carga hija del evento que
+-- recibió el archivo.
+ALTER TABLE eventos_carga ADD COLUMN IF NOT EXISTS evento_padre_id INT8;
+
+CREATE INDEX IF NOT EXISTS idx_eventos_carga_evento_padre ON eventos_carga (evento_padre_id);
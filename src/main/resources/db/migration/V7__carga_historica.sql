@@ -0,0 +1,2 @@
+-- Backfill: filas en crudo, diferencias recalculadas al cerrar el lote.
+ALTER TABLE eventos_carga ADD COLUMN IF NOT EXISTS carga_historica BOOLEAN;
@@ -0,0 +1,16 @@
+-- Filas aisladas por la bisección de un bloque que no se pudo escribir.
+ALTER TABLE eventos_carga ADD COLUMN IF NOT EXISTS filas_rechazadas INT4;
+
+CREATE TABLE IF NOT EXISTS filas_rechazadas (
+    id              BIGSERIAL PRIMARY KEY,
+    evento_carga_id INT8 NOT NULL,
+    numero_fila     INT4,
+    id_deposito     INT8,
+    sku             VARCHAR(255),
+    cantidad        INT4,
+    datos           VARCHAR(1000),
+    error           VARCHAR(1000),
+    fecha           TIMESTAMP
+);
+
+CREATE INDEX IF NOT EXISTS idx_filas_rechazadas_evento ON filas_rechazadas (evento_carga_id, numero_fila);
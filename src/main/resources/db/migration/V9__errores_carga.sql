@@ -0,0 +1,13 @@
+-- Problemas de datos de cada carga, resumidos por tipo con sus muestras.
+ALTER TABLE eventos_carga ADD COLUMN IF NOT EXISTS errores_datos INT4;
+
+CREATE TABLE IF NOT EXISTS errores_carga (
+    id              BIGSERIAL PRIMARY KEY,
+    evento_carga_id INT8 NOT NULL,
+    tipo            VARCHAR(255),
+    columna         INT4,
+    cantidad        INT8,
+    muestras        TEXT
+);
+
+CREATE INDEX IF NOT EXISTS idx_errores_carga_evento ON errores_carga (evento_carga_id);
@@ -0,0 +1,25 @@
+-- Comparación de planes de las consultas que cubre la migración V13.
+-- Correr con psql contra una COPIA de la base ya migrada (el bloque "antes"
+-- borra los índices dentro de una transacción que se deshace, pero mientras
+-- tanto bloquea stock_historico):
+--
+--   psql -v sucursal=3 -v fecha="'2025-01-01'" -v sku="'ABC123'" -f V13__indices_reportes.sql
+--
+-- En cada par se compara el nodo de acceso a stock_historico y los buffers
+-- leídos (shared hit + read). Lo esperado en cada caso está al lado de la
+-- consulta. La forma del plan depende del volumen y las estadísticas:
+-- correr ANALYZE stock_historico antes de comparar.
+
+\set ON_ERROR_STOP on
+\pset pager off
+
+\echo '================ ANTES (sin los índices de la V13) ================'
+BEGIN;
+DROP INDEX idx_stock_quiebres;
+DROP INDEX idx_stock_ingresos;
+DROP INDEX idx_stock_ultimo;
+\ir V13__indices_reportes_consultas.sql
+ROLLBACK;
+
+\echo '================ DESPUÉS (con los índices de la V13) ================'
+\ir V13__indices_reportes_consultas.sql
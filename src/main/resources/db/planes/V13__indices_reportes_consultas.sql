@@ -0,0 +1,53 @@
+-- Consultas de los repositorios que cubre la V13, con los parámetros de psql
+-- (:sucursal, :fecha, :sku). Lo incluye V13__indices_reportes.sql dos veces.
+
+-- findStockouts
+-- antes:   Seq Scan (o Bitmap sobre idx_stock_fecha) por partición, filtrando cantidad = 0
+-- después: Index Scan / Bitmap sobre idx_stock_quiebres, sólo las filas en cero
+\echo '--- findStockouts'
+EXPLAIN (ANALYZE, BUFFERS)
+SELECT sh.*
+FROM stock_historico sh
+WHERE sh.cantidad = 0
+  AND sh.fecha_stock >= :fecha
+  AND (:sucursal = -1 OR sh.sucursal_id = :sucursal)
+ORDER BY sh.fecha_stock DESC;
+
+-- findAllIngresosForSkus
+-- antes:   Bitmap sobre idx_stock_producto, filtrando nuevo_ingreso en cada fila de la historia
+-- después: Index Scan sobre idx_stock_ingresos, sólo los ingresos del producto
+\echo '--- findAllIngresosForSkus'
+EXPLAIN (ANALYZE, BUFFERS)
+SELECT sh.*
+FROM stock_historico sh
+JOIN productos p ON sh.producto_id = p.id
+WHERE sh.nuevo_ingreso = true
+  AND p.sku IN (:sku)
+  AND (:sucursal = -1 OR sh.sucursal_id = :sucursal)
+ORDER BY sh.id DESC;
+
+-- findUltimoStockBySkus (carga atrasada)
+-- antes:   Bitmap sobre idx_stock_producto + Sort por (producto_id, fecha_stock DESC, id DESC)
+-- después: Index Scan sobre idx_stock_ultimo, ya ordenado: sin Sort
+\echo '--- findUltimoStockBySkus'
+EXPLAIN (ANALYZE, BUFFERS)
+SELECT DISTINCT ON (sh.producto_id) p.sku, sh.cantidad
+FROM stock_historico sh
+JOIN productos p ON p.id = sh.producto_id
+WHERE sh.sucursal_id = :sucursal
+  AND p.sku IN (:sku)
+  AND sh.fecha_stock <= :fecha
+ORDER BY sh.producto_id, sh.fecha_stock DESC, sh.id DESC;
+
+-- findTopByProducto_SkuAndSucursalOrderByFechaStockDescIdDesc
+-- antes:   Bitmap sobre idx_stock_producto + Sort + Limit
+-- después: Index Scan sobre idx_stock_ultimo + Limit (lee una fila por partición)
+\echo '--- findTopByProducto_SkuAndSucursalOrderByFechaStockDescIdDesc'
+EXPLAIN (ANALYZE, BUFFERS)
+SELECT sh.*
+FROM stock_historico sh
+JOIN productos p ON p.id = sh.producto_id
+WHERE p.sku = :sku
+  AND sh.sucursal_id = :sucursal
+ORDER BY sh.fecha_stock DESC, sh.id DESC
+LIMIT 1;
@@ -0,0 +1,52 @@
+package plantilla.servicio;
+
+import org.junit.jupiter.api.Test;
+import plantilla.dominio.ErrorCarga;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ErroresBloqueTest {
+
+    @Test
+    void soloPasanLosProblemasDeLasFilasConfirmadas() {
+        ErroresBloque bloque = new ErroresBloque();
+        bloque.paraFila(10).registrar("Cantidad inválida", 11, "x", null);
+        bloque.paraFila(12).registrar("Cantidad inválida", 11, "y", null);
+        bloque.paraFila(15).registrar("Fila sin SKU (se ignora)", 4, null, null);
+
+        RegistroErroresCarga registro = new RegistroErroresCarga(5);
+        bloque.confirmarHasta(12, registro);
+
+        assertEquals(2, registro.getTotal());
+
+        bloque.confirmarHasta(12, registro); // repetir no vuelve a contar
+        assertEquals(2, registro.getTotal());
+
+        bloque.confirmarHasta(20, registro);
+        assertEquals(3, registro.getTotal());
+    }
+
+    @Test
+    void unaCargaCortadaYRetomadaNoCuentaDosVeces() {
+        // primer intento: se confirma el bloque de las filas 1..3 y se corta en el de 4..6
+        RegistroErroresCarga primerIntento = new RegistroErroresCarga(5);
+        ErroresBloque confirmado = new ErroresBloque();
+        confirmado.paraFila(2).registrar("Cantidad inválida", 11, "x", null);
+        confirmado.confirmarHasta(3, primerIntento);
+        ErroresBloque cortado = new ErroresBloque();
+        cortado.paraFila(5).registrar("Cantidad inválida", 11, "y", null);
+        List<ErrorCarga> guardados = primerIntento.aEntidades(1L);
+
+        // al retomar se parte de lo guardado y se vuelven a leer las filas 4..6
+        RegistroErroresCarga retomado = new RegistroErroresCarga(5);
+        retomado.agregarPrevios(guardados);
+        ErroresBloque releido = new ErroresBloque();
+        releido.paraFila(5).registrar("Cantidad inválida", 11, "y", null);
+        releido.confirmarHasta(6, retomado);
+
+        assertEquals(2, retomado.getTotal());
+        assertEquals(2L, retomado.aEntidades(1L).get(0).getCantidad());
+    }
+}
@@ -0,0 +1,50 @@
+package plantilla.servicio;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class LoteCargaServiceTest {
+
+    private static final LocalDate FORMULARIO = LocalDate.of(2024, 1, 1);
+
+    @Test
+    void fechaConGuiones() {
+        assertEquals(LocalDate.of(2024, 3, 15),
+                LoteCargaService.fechaDesdeNombre("inventory 2024-03-15.xlsx", FORMULARIO));
+    }
+
+    @Test
+    void fechaConGuionesBajos() {
+        assertEquals(LocalDate.of(2024, 3, 15),
+                LoteCargaService.fechaDesdeNombre("inventory_2024_03_15.xlsx", FORMULARIO));
+    }
+
+    @Test
+    void fechaSinSeparadores() {
+        assertEquals(LocalDate.of(2024, 3, 15),
+                LoteCargaService.fechaDesdeNombre("inventory20240315.xls", FORMULARIO));
+    }
+
+    @Test
+    void candidatoInvalidoSeguidoDeUnaFechaValida() {
+        // 2024-13-99 no es una fecha: se toma la siguiente
+        assertEquals(LocalDate.of(2024, 3, 15),
+                LoteCargaService.fechaDesdeNombre("inventory_20241399_2024-03-15.xlsx", FORMULARIO));
+    }
+
+    @Test
+    void sinFechaEnElNombreUsaLaDelFormulario() {
+        assertEquals(FORMULARIO,
+                LoteCargaService.fechaDesdeNombre("inventory_deposito_123.xlsx", FORMULARIO));
+    }
+
+    @Test
+    void numeroMasLargoNoEsFecha() {
+        // parte de un número más largo (ej. un código): no se toma como fecha
+        assertEquals(FORMULARIO,
+                LoteCargaService.fechaDesdeNombre("inventory_9202403151.xlsx", FORMULARIO));
+    }
+}
@@ -0,0 +1,221 @@
+package plantilla.servicio;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.http.AbortableInputStream;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+import software.amazon.awssdk.services.s3.model.UploadPartRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartResponse;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Partición en partes (subida) y en rangos (bajada) contra un S3 en memoria.
+ * Con umbral y partes de 5 MB, un archivo de 12 MB va en 5 + 5 + 2 MB.
+ */
+class S3ServiceTest {
+
+    private static final int MB = 1024 * 1024;
+
+    @TempDir
+    Path directorio;
+
+    private S3EnMemoria s3;
+    private S3Service servicio;
+
+    @BeforeEach
+    void preparar() throws IOException {
+        SpoolArchivosService spool = new SpoolArchivosService();
+        ReflectionTestUtils.setField(spool, "directorioConfigurado", directorio.resolve("spool").toString());
+        spool.crearDirectorio();
+
+        s3 = new S3EnMemoria();
+        servicio = new S3Service(s3, "bucket", 2);
+        ReflectionTestUtils.setField(servicio, "spoolArchivosService", spool);
+        ReflectionTestUtils.setField(servicio, "umbralMb", 5L);
+        ReflectionTestUtils.setField(servicio, "parteMb", 5L);
+    }
+
+    @Test
+    void subeEnPartesConLaUltimaMasChica() throws IOException {
+        byte[] contenido = contenido(12 * MB);
+        File archivo = directorio.resolve("stock.xlsx").toFile();
+        Files.write(archivo.toPath(), contenido);
+
+        servicio.subirArchivo("cargas/stock.xlsx", archivo, "application/octet-stream");
+
+        assertEquals(Set.of(1, 2, 3), s3.partes.keySet());
+        assertEquals(5 * MB, s3.partes.get(1).length);
+        assertEquals(5 * MB, s3.partes.get(2).length);
+        assertEquals(2 * MB, s3.partes.get(3).length);
+        assertEquals(List.of(1, 2, 3), s3.partesCompletadas);
+        assertArrayEquals(contenido, s3.objetos.get("cargas/stock.xlsx"));
+        assertFalse(s3.abortado);
+    }
+
+    @Test
+    void unaParteFallidaAbortaElMultipart() throws IOException {
+        File archivo = directorio.resolve("stock.xlsx").toFile();
+        Files.write(archivo.toPath(), contenido(11 * MB));
+        s3.fallarParte = 2;
+
+        assertThrows(IllegalStateException.class,
+                () -> servicio.subirArchivo("cargas/stock.xlsx", archivo, "application/octet-stream"));
+
+        assertTrue(s3.abortado);
+        assertFalse(s3.objetos.containsKey("cargas/stock.xlsx"));
+    }
+
+    @Test
+    void bajaPorRangosConElUltimoMasChicoYDespuesUsaLaCache() throws IOException {
+        byte[] contenido = contenido(12 * MB);
+        s3.objetos.put("cargas/stock.xlsx", contenido);
+
+        File bajado = servicio.descargarConCache("cargas/stock.xlsx");
+
+        assertEquals(3, s3.rangos.size());
+        assertEquals(Set.of(
+                "bytes=0-5242879",
+                "bytes=5242880-10485759",
+                "bytes=10485760-12582911"), Set.copyOf(s3.rangos));
+        assertArrayEquals(contenido, Files.readAllBytes(bajado.toPath()));
+
+        // un reproceso no vuelve a bajarlo
+        assertEquals(bajado, servicio.descargarConCache("cargas/stock.xlsx"));
+        assertEquals(3, s3.rangos.size());
+    }
+
+    @Test
+    void unObjetoChicoSeBajaEnUnSoloGet() throws IOException {
+        byte[] contenido = contenido(MB);
+        s3.objetos.put("cargas/chico.xlsx", contenido);
+
+        File bajado = servicio.descargarConCache("cargas/chico.xlsx");
+
+        assertEquals(1, s3.rangos.size());
+        assertEquals("completo", s3.rangos.get(0));
+        assertArrayEquals(contenido, Files.readAllBytes(bajado.toPath()));
+    }
+
+    private static byte[] contenido(int bytes) {
+        byte[] datos = new byte[bytes];
+        new Random(bytes).nextBytes(datos);
+        return datos;
+    }
+
+    /** Lo mínimo de S3Client que usa S3Service, sobre un mapa en memoria */
+    private static class S3EnMemoria implements S3Client {
+
+        final Map<String, byte[]> objetos = new ConcurrentHashMap<>();
+        final Map<Integer, byte[]> partes = new ConcurrentHashMap<>();
+        final List<Integer> partesCompletadas = new ArrayList<>();
+        final List<String> rangos = Collections.synchronizedList(new ArrayList<>());
+        volatile boolean abortado;
+        volatile int fallarParte = -1;
+
+        @Override
+        public CreateMultipartUploadResponse createMultipartUpload(CreateMultipartUploadRequest request) {
+            return CreateMultipartUploadResponse.builder().uploadId("subida-1").build();
+        }
+
+        @Override
+        public UploadPartResponse uploadPart(UploadPartRequest request, RequestBody body) {
+            if (request.partNumber() == fallarParte) {
+                throw new IllegalStateException("falla simulada en la parte " + fallarParte);
+            }
+            partes.put(request.partNumber(), leer(body));
+            return UploadPartResponse.builder().eTag("etag-" + request.partNumber()).build();
+        }
+
+        @Override
+        public CompleteMultipartUploadResponse completeMultipartUpload(CompleteMultipartUploadRequest request) {
+            ByteArrayOutputStream completo = new ByteArrayOutputStream();
+            for (CompletedPart parte : request.multipartUpload().parts()) {
+                partesCompletadas.add(parte.partNumber());
+                completo.writeBytes(partes.get(parte.partNumber()));
+            }
+            objetos.put(request.key(), completo.toByteArray());
+            return CompleteMultipartUploadResponse.builder().build();
+        }
+
+        @Override
+        public AbortMultipartUploadResponse abortMultipartUpload(AbortMultipartUploadRequest request) {
+            abortado = true;
+            return AbortMultipartUploadResponse.builder().build();
+        }
+
+        @Override
+        public HeadObjectResponse headObject(HeadObjectRequest request) {
+            return HeadObjectResponse.builder().contentLength((long) objetos.get(request.key()).length).build();
+        }
+
+        @Override
+        public ResponseInputStream<GetObjectResponse> getObject(GetObjectRequest request) {
+            byte[] objeto = objetos.get(request.key());
+            int desde = 0;
+            int hasta = objeto.length - 1;
+            if (request.range() != null) {
+                rangos.add(request.range());
+                String[] limites = request.range().substring("bytes=".length()).split("-");
+                desde = Integer.parseInt(limites[0]);
+                hasta = Integer.parseInt(limites[1]);
+            } else {
+                rangos.add("completo");
+            }
+            InputStream datos = new ByteArrayInputStream(objeto, desde, hasta - desde + 1);
+            return new ResponseInputStream<>(GetObjectResponse.builder().build(), AbortableInputStream.create(datos));
+        }
+
+        @Override
+        public String serviceName() {
+            return "s3";
+        }
+
+        @Override
+        public void close() {
+        }
+
+        private static byte[] leer(RequestBody body) {
+            try (InputStream in = body.contentStreamProvider().newStream()) {
+                return in.readAllBytes();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
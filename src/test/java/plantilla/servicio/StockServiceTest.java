@@ -0,0 +1,147 @@
+package plantilla.servicio;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.CannotAcquireLockException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.CannotGetJdbcConnectionException;
+import org.springframework.jdbc.UncategorizedSQLException;
+import org.springframework.jdbc.support.SQLStateSQLExceptionTranslator;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StockServiceTest {
+
+    // ==========================
+    // esErrorDeDatos
+    // ==========================
+
+    @Test
+    void restriccionesYDatosInvalidosSonDeDatos() {
+        assertTrue(StockService.esErrorDeDatos(new DuplicateKeyException("23505")));
+        assertTrue(StockService.esErrorDeDatos(traducir("22003"))); // numeric value out of range
+        assertTrue(StockService.esErrorDeDatos(traducir("23503"))); // foreign key
+        assertTrue(StockService.esErrorDeDatos(
+                new UncategorizedSQLException("COPY", null, new SQLException("invalid input", "22P02"))));
+    }
+
+    @Test
+    void conexionBloqueosYErroresDesconocidosCortanLaCarga() {
+        assertFalse(StockService.esErrorDeDatos(traducir("08006"))); // connection failure
+        assertFalse(StockService.esErrorDeDatos(traducir("57014"))); // query canceled
+        assertFalse(StockService.esErrorDeDatos(new CannotAcquireLockException("55P03")));
+        assertFalse(StockService.esErrorDeDatos(new CannotGetJdbcConnectionException("sin conexión")));
+        assertFalse(StockService.esErrorDeDatos(new IllegalStateException("Error en escritura masiva de stock")));
+        assertFalse(StockService.esErrorDeDatos(new NullPointerException()));
+    }
+
+    // ==========================
+    // escribirOBisecar
+    // ==========================
+
+    @Test
+    void unaFilaMalaSeAislaYElRestoSeEscribeEnOrden() {
+        Base base = new Base(5);
+
+        ResultadoBloqueDTO r = StockService.escribirOBisecar(filas(8), base::escribir, base::rechazar);
+
+        assertEquals(List.of(5), base.rechazadas);
+        assertEquals(List.of(1, 2, 3, 4, 6, 7, 8), base.escritas);
+        assertEquals(1L, r.getStockInicial());
+        assertEquals(7L, r.getStockFinal());
+    }
+
+    @Test
+    void unBloqueSinErroresSeEscribeDeUnaVez() {
+        Base base = new Base(-1);
+
+        ResultadoBloqueDTO r = StockService.escribirOBisecar(filas(8), base::escribir, base::rechazar);
+
+        assertEquals(1, base.intentos);
+        assertTrue(base.rechazadas.isEmpty());
+        assertEquals(1L, r.getStockInicial());
+        assertEquals(8L, r.getStockFinal());
+    }
+
+    @Test
+    void unErrorDeConexionNoSeParte() {
+        Base base = new Base(-1);
+        RuntimeException caida = traducir("08006");
+        base.error = caida;
+
+        RuntimeException e = assertThrows(RuntimeException.class,
+                () -> StockService.escribirOBisecar(filas(8), base::escribir, base::rechazar));
+
+        assertSame(caida, e);
+        assertEquals(1, base.intentos);
+        assertTrue(base.rechazadas.isEmpty());
+    }
+
+    // ==========================
+    // Auxiliares
+    // ==========================
+
+    private static RuntimeException traducir(String sqlState) {
+        return new SQLStateSQLExceptionTranslator().translate("COPY", null, new SQLException("falla", sqlState));
+    }
+
+    private static List<FilaStockDTO> filas(int cantidad) {
+        List<FilaStockDTO> filas = new ArrayList<>();
+        for (int i = 1; i <= cantidad; i++) {
+            FilaStockDTO fila = new FilaStockDTO();
+            fila.setNumeroFila(i);
+            fila.setSku("SKU" + i);
+            fila.setCantidad(i);
+            filas.add(fila);
+        }
+        return filas;
+    }
+
+    /**
+     * stock_historico en memoria: cada lote es una transacción que se confirma
+     * entera o falla entera si trae la fila mala.
+     */
+    private static class Base {
+        final int filaMala;
+        final List<Integer> escritas = new ArrayList<>();
+        final List<Integer> rechazadas = new ArrayList<>();
+        RuntimeException error;
+        int intentos;
+        long siguienteId = 1;
+
+        Base(int filaMala) {
+            this.filaMala = filaMala;
+        }
+
+        ResultadoBloqueDTO escribir(List<FilaStockDTO> filas) {
+            intentos++;
+            if (error != null) {
+                throw error;
+            }
+            for (FilaStockDTO fila : filas) {
+                if (fila.getNumeroFila() == filaMala) {
+                    throw traducir("23505");
+                }
+            }
+            long inicial = siguienteId;
+            for (FilaStockDTO fila : filas) {
+                escritas.add(fila.getNumeroFila());
+                siguienteId++;
+            }
+            return new ResultadoBloqueDTO(inicial, siguienteId - 1);
+        }
+
+        void rechazar(FilaStockDTO fila, RuntimeException e) {
+            assertTrue(StockService.esErrorDeDatos(e));
+            rechazadas.add(fila.getNumeroFila());
+        }
+    }
+}
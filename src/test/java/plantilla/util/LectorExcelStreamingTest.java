@@ -0,0 +1,242 @@
+package plantilla.util;
+
+import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class LectorExcelStreamingTest {
+
+    @TempDir
+    Path directorio;
+
+    /** Lo que entrega el lector: filas leídas y la dimensión declarada */
+    private static class Lectura implements LectorExcelStreaming.ManejadorFila {
+        final List<Integer> numeros = new ArrayList<>();
+        final List<Object[]> filas = new ArrayList<>();
+        int dimension = -1;
+        int detenerEn = Integer.MAX_VALUE;
+
+        @Override
+        public boolean procesar(int numeroFila, Object[] valores) {
+            numeros.add(numeroFila);
+            filas.add(valores);
+            return numeroFila < detenerEn;
+        }
+
+        @Override
+        public void dimension(int filas) {
+            assertEquals(0, this.filas.size(), "la dimensión llega antes que las filas");
+            dimension = filas;
+        }
+    }
+
+    // ==========================
+    // .xlsx
+    // ==========================
+
+    @Test
+    void xlsxTextosCompartidosNumerosYBooleanos() throws IOException {
+        File archivo = guardar(new XSSFWorkbook(), "compartidos.xlsx", hoja -> {
+            Row encabezado = hoja.createRow(0);
+            encabezado.createCell(0).setCellValue("SKU");
+            encabezado.createCell(1).setCellValue("Cantidad");
+            Row fila = hoja.createRow(1);
+            fila.createCell(0).setCellValue("ABC123");
+            fila.createCell(1).setCellValue(7);
+            fila.createCell(2).setCellValue(true);
+        });
+
+        Lectura lectura = leer(archivo);
+
+        assertEquals(List.of(0, 1), lectura.numeros);
+        assertArrayEquals(new Object[]{"SKU", "Cantidad"}, lectura.filas.get(0));
+        assertArrayEquals(new Object[]{"ABC123", 7.0, true}, lectura.filas.get(1));
+    }
+
+    @Test
+    void xlsxTextosEnLinea() throws IOException {
+        // SXSSF escribe los textos como inlineStr (<is><t>..</t></is>)
+        File archivo = guardar(new SXSSFWorkbook(), "en-linea.xlsx", hoja -> {
+            Row fila = hoja.createRow(0);
+            fila.createCell(0).setCellValue("en línea");
+            fila.createCell(1).setCellValue(3);
+        });
+
+        Lectura lectura = leer(archivo);
+
+        assertArrayEquals(new Object[]{"en línea", 3.0}, lectura.filas.get(0));
+    }
+
+    @Test
+    void xlsxFormulasConResultadoTextoYNumero() throws IOException {
+        File archivo = guardar(new XSSFWorkbook(), "formulas.xlsx", hoja -> {
+            Row fila = hoja.createRow(0);
+            fila.createCell(0).setCellFormula("CONCATENATE(\"AB\",\"C\")");
+            fila.createCell(1).setCellFormula("2+3");
+            hoja.getWorkbook().getCreationHelper().createFormulaEvaluator().evaluateAll();
+        });
+
+        Lectura lectura = leer(archivo);
+
+        assertArrayEquals(new Object[]{"ABC", 5.0}, lectura.filas.get(0));
+    }
+
+    @Test
+    void xlsxColumnasSalteadasYFilasFaltantes() throws IOException {
+        File archivo = guardar(new XSSFWorkbook(), "ralo.xlsx", hoja -> {
+            hoja.createRow(0).createCell(0).setCellValue("A");
+            Row fila = hoja.createRow(3);
+            fila.createCell(1).setCellValue("B");
+            fila.createCell(4).setCellValue(9);
+        });
+
+        Lectura lectura = leer(archivo);
+
+        // la fila 1 y la 2 no existen: no se entregan
+        assertEquals(List.of(0, 3), lectura.numeros);
+        assertArrayEquals(new Object[]{null, "B", null, null, 9.0}, lectura.filas.get(1));
+    }
+
+    @Test
+    void xlsxDimensionDeclarada() throws IOException {
+        File archivo = guardar(new XSSFWorkbook(), "dimension.xlsx", hoja -> {
+            for (int i = 0; i < 5; i++) {
+                hoja.createRow(i).createCell(0).setCellValue(i);
+            }
+        });
+
+        assertEquals(5, leer(archivo).dimension);
+    }
+
+    @Test
+    void xlsxSeDetieneCuandoElManejadorLoPide() throws IOException {
+        File archivo = guardar(new XSSFWorkbook(), "detenido.xlsx", hoja -> {
+            for (int i = 0; i < 10; i++) {
+                hoja.createRow(i).createCell(0).setCellValue(i);
+            }
+        });
+
+        Lectura lectura = new Lectura();
+        lectura.detenerEn = 2;
+        LectorExcelStreaming.leer(archivo, lectura);
+
+        assertEquals(List.of(0, 1, 2), lectura.numeros);
+    }
+
+    // ==========================
+    // .xls
+    // ==========================
+
+    @Test
+    void xlsTextosNumerosYBooleanos() throws IOException {
+        File archivo = guardar(new HSSFWorkbook(), "valores.xls", hoja -> {
+            Row fila = hoja.createRow(0);
+            fila.createCell(0).setCellValue("ABC123");
+            fila.createCell(1).setCellValue(7);
+            fila.createCell(2).setCellValue(false);
+        });
+
+        Lectura lectura = leer(archivo);
+
+        assertArrayEquals(new Object[]{"ABC123", 7.0, false}, lectura.filas.get(0));
+    }
+
+    @Test
+    void xlsFormulaConTextoLeeElStringRecordSiguiente() throws IOException {
+        File archivo = guardar(new HSSFWorkbook(), "formulas.xls", hoja -> {
+            Row fila = hoja.createRow(0);
+            fila.createCell(0).setCellFormula("CONCATENATE(\"AB\",\"C\")");
+            fila.createCell(1).setCellFormula("2+3");
+            fila.createCell(2).setCellValue("después");
+            hoja.getWorkbook().getCreationHelper().createFormulaEvaluator().evaluateAll();
+        });
+
+        Lectura lectura = leer(archivo);
+
+        assertArrayEquals(new Object[]{"ABC", 5.0, "después"}, lectura.filas.get(0));
+    }
+
+    @Test
+    void xlsColumnasSalteadasYFilasFaltantes() throws IOException {
+        File archivo = guardar(new HSSFWorkbook(), "ralo.xls", hoja -> {
+            hoja.createRow(0).createCell(0).setCellValue("A");
+            Row fila = hoja.createRow(3);
+            fila.createCell(1).setCellValue("B");
+            fila.createCell(4).setCellValue(9);
+        });
+
+        Lectura lectura = leer(archivo);
+
+        assertEquals(List.of(0, 3), lectura.numeros);
+        assertArrayEquals(new Object[]{null, "B", null, null, 9.0}, lectura.filas.get(1));
+    }
+
+    @Test
+    void xlsDimensionDeclaradaYSoloLaPrimeraHoja() throws IOException {
+        File archivo = guardar(new HSSFWorkbook(), "dimension.xls", hoja -> {
+            for (int i = 0; i < 4; i++) {
+                hoja.createRow(i).createCell(0).setCellValue(i);
+            }
+            hoja.getWorkbook().createSheet("otra").createRow(0).createCell(0).setCellValue("no se lee");
+        });
+
+        Lectura lectura = leer(archivo);
+
+        assertEquals(4, lectura.dimension);
+        assertEquals(List.of(0, 1, 2, 3), lectura.numeros);
+    }
+
+    @Test
+    void xlsSeDetieneCuandoElManejadorLoPide() throws IOException {
+        File archivo = guardar(new HSSFWorkbook(), "detenido.xls", hoja -> {
+            for (int i = 0; i < 10; i++) {
+                hoja.createRow(i).createCell(0).setCellValue(i);
+            }
+        });
+
+        Lectura lectura = new Lectura();
+        lectura.detenerEn = 1;
+        LectorExcelStreaming.leer(archivo, lectura);
+
+        assertEquals(List.of(0, 1), lectura.numeros);
+    }
+
+    // ==========================
+    // Auxiliares
+    // ==========================
+
+    private interface Contenido {
+        void escribir(Sheet hoja);
+    }
+
+    private File guardar(Workbook libro, String nombre, Contenido contenido) throws IOException {
+        Path destino = directorio.resolve(nombre);
+        try (libro; OutputStream out = Files.newOutputStream(destino)) {
+            contenido.escribir(libro.createSheet("Stock"));
+            libro.write(out);
+        }
+        return destino.toFile();
+    }
+
+    private Lectura leer(File archivo) throws IOException {
+        Lectura lectura = new Lectura();
+        LectorExcelStreaming.leer(archivo, lectura);
+        return lectura;
+    }
+}